@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: source ./analytics.sh flightDB 5432 user 2014-01-01 2014-12-31 10
+# Loads the in-memory analytics snapshot and prints the route and status reports
+java -cp lib/*:bin/ AnalyticsSnapshot $DBNAME $PORT $USER "${@:4}"
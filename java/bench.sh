@@ -0,0 +1,8 @@
+#! /bin/bash
+CLASS=$1
+shift
+
+# Example: source ./bench.sh SeatAllocationBenchmark flightDB 5432 user 54 Ina Lecroy
+rm -rf bin/*.class
+javac -cp ".:lib/postgresql-42.1.4.jar" src/*.java bench/*.java -d bin/
+java -cp lib/*:bin/ $CLASS "$@"
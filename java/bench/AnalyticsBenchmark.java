@@ -0,0 +1,297 @@
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures AnalyticsSnapshot on synthetic tables without a database:
+ * flights between Zipf distributed airports over three years, planes with
+ * 100 to 300 seats, and reservations spread over the flights with the
+ * DataGenerator status mix.  The loader serves the generated rows above
+ * the high-water marks, so it also measures incremental refreshes: more
+ * rows are appended and num_sold and status changes are fed in as change
+ * notifications.  Last, some rows are held back as if their transactions
+ * committed after rows with higher keys, and only announced by the feed
+ * once the marks have passed them.  Every report is checked against a
+ * single-threaded loop over the generated rows, whose time is printed for
+ * comparison.
+ */
+public class AnalyticsBenchmark implements AnalyticsSnapshot.Loader {
+	static final LocalDate FIRST_DAY = LocalDate.of(2014, 1, 1);
+	static final int DAYS = 3 * 365;
+
+	final int airports, planes;
+	final SplittableRandom random = new SplittableRandom(42);
+	final ZipfSampler popularity;
+
+	//generated rows; the loader serves the first flightCount and reservationCount
+	int flightCount = 0, reservationCount = 0;
+	//rows not committed yet, which the loader skips
+	final BitSet hiddenFlights = new BitSet(), hiddenReservations = new BitSet();
+	int[] from, to, day, cost, sold, plane, seats, fid;
+	char[] status;
+
+	AnalyticsBenchmark(int maxFlights, int maxReservations, int airports, int planes) {
+		this.airports = airports;
+		this.planes = planes;
+		popularity = new ZipfSampler(airports, 0.9);
+		from = new int[maxFlights];
+		to = new int[maxFlights];
+		day = new int[maxFlights];
+		cost = new int[maxFlights];
+		sold = new int[maxFlights];
+		plane = new int[maxFlights];
+		fid = new int[maxReservations];
+		status = new char[maxReservations];
+		seats = new int[planes];
+		for (int p = 0; p < planes; ++p) seats[p] = 100 + random.nextInt(201);
+	}
+
+	void addFlights(int n) {
+		for (int i = flightCount; i < flightCount + n; ++i) {
+			from[i] = popularity.sample(random) - 1;
+			do {
+				to[i] = popularity.sample(random) - 1;
+			} while (to[i] == from[i]);
+			day[i] = (int) FIRST_DAY.toEpochDay() + random.nextInt(DAYS);
+			cost[i] = 50 + random.nextInt(950);
+			plane[i] = random.nextInt(20) == 0 ? -1 : random.nextInt(planes);
+			sold[i] = plane[i] < 0 ? random.nextInt(100) : random.nextInt(seats[plane[i]] + 1);
+		}
+		flightCount += n;
+	}
+
+	void addReservations(int n) {
+		for (int i = reservationCount; i < reservationCount + n; ++i) {
+			fid[i] = random.nextInt(flightCount);
+			int s = random.nextInt(100);
+			status[i] = s < 60 ? 'C' : s < 85 ? 'R' : 'W';
+		}
+		reservationCount += n;
+	}
+
+	static String code(int airport) {
+		return "A" + airport;
+	}
+
+	//fnum, fiid and rnum are the array indexes
+
+	public void flights(AnalyticsSnapshot s, int afterFnum) {
+		for (int i = afterFnum + 1; i < flightCount; ++i) {
+			if (!hiddenFlights.get(i)) addFlight(s, i);
+		}
+	}
+
+	void addFlight(AnalyticsSnapshot s, int i) {
+		s.addFlight(i, code(from[i]), code(to[i]), LocalDate.ofEpochDay(day[i]), cost[i], sold[i]);
+	}
+
+	//the FlightInfo row of a flight commits with it
+	public void flightInfo(AnalyticsSnapshot s, int afterFiid) {
+		for (int i = afterFiid + 1; i < flightCount; ++i) {
+			if (plane[i] >= 0 && !hiddenFlights.get(i)) s.assignPlane(i, i, plane[i]);
+		}
+	}
+
+	public void planes(AnalyticsSnapshot s) {
+		for (int p = 0; p < planes; ++p) s.putPlane(p, seats[p]);
+	}
+
+	public void reservations(AnalyticsSnapshot s, int afterRnum) {
+		for (int i = afterRnum + 1; i < reservationCount; ++i) {
+			if (!hiddenReservations.get(i)) s.addReservation(i, fid[i], String.valueOf(status[i]));
+		}
+	}
+
+	public void lateFlights(AnalyticsSnapshot s, int[] fnums) {
+		for (int i : fnums) {
+			if (i < flightCount && !hiddenFlights.get(i)) addFlight(s, i);
+		}
+	}
+
+	public void lateReservations(AnalyticsSnapshot s, int[] rnums) {
+		for (int i : rnums) {
+			if (i < reservationCount && !hiddenReservations.get(i)) s.addReservation(i, fid[i], String.valueOf(status[i]));
+		}
+	}
+
+	/**
+	 * Commits the held back rows: the loader serves them from now on and
+	 * the feed reports their inserts, and for some an update after it.
+	 */
+	void commitHidden(AnalyticsSnapshot snapshot) {
+		for (int i = hiddenFlights.nextSetBit(0); i >= 0; i = hiddenFlights.nextSetBit(i + 1)) {
+			snapshot.flight(new ChangeFeed.FlightChange(ChangeFeed.Op.INSERT, 0, i, -1, sold[i]));
+			if (plane[i] >= 0) snapshot.flightInfo(new ChangeFeed.FlightInfoChange(ChangeFeed.Op.INSERT, 0, i, plane[i]));
+			if (i % 2 == 0) {
+				int old = sold[i];
+				sold[i] = random.nextInt(100);
+				snapshot.flight(new ChangeFeed.FlightChange(ChangeFeed.Op.UPDATE, 0, i, old, sold[i]));
+			}
+		}
+		for (int i = hiddenReservations.nextSetBit(0); i >= 0; i = hiddenReservations.nextSetBit(i + 1)) {
+			snapshot.reservation(new ChangeFeed.ReservationChange(ChangeFeed.Op.INSERT, 0, i, fid[i], null, String.valueOf(status[i])));
+			if (i % 2 == 0) {
+				String before = String.valueOf(status[i]);
+				status[i] = status[i] == 'W' ? 'C' : 'R';
+				snapshot.reservation(new ChangeFeed.ReservationChange(ChangeFeed.Op.UPDATE, 0, i, fid[i], before, String.valueOf(status[i])));
+			}
+		}
+		hiddenFlights.clear();
+		hiddenReservations.clear();
+	}
+
+	/*
+	 * The reports computed with plain loops
+	 */
+
+	long checkNanos = 0;
+
+	void checkRoutes(AnalyticsSnapshot snapshot, int lo, int hi) {
+		long start = System.nanoTime();
+		Map<String, long[]> expected = new HashMap<String, long[]>();
+		for (int i = 0; i < flightCount; ++i) {
+			if (day[i] < lo || day[i] > hi) continue;
+			long[] t = expected.computeIfAbsent(code(from[i]) + "-" + code(to[i]), k -> new long[4]);
+			int s = plane[i] >= 0 ? seats[plane[i]] : 0;
+			t[0] += 1;
+			t[1] += s;
+			t[2] += sold[i];
+			t[3] += (long) cost[i] * sold[i];
+		}
+		checkNanos += System.nanoTime() - start;
+
+		List<AnalyticsSnapshot.RouteStats> actual = snapshot.routes(LocalDate.ofEpochDay(lo), LocalDate.ofEpochDay(hi));
+		if (actual.size() != expected.size()) throw new IllegalStateException(actual.size() + " routes, expected " + expected.size());
+		for (AnalyticsSnapshot.RouteStats r : actual) {
+			long[] t = expected.get(r.departureAirport + "-" + r.arrivalAirport);
+			if (t == null || r.flights != t[0] || r.seats != t[1] || r.sold != t[2] || r.revenue != t[3])
+				throw new IllegalStateException("wrong totals for " + r);
+		}
+	}
+
+	void checkStatus(AnalyticsSnapshot snapshot, int lo, int hi) {
+		long start = System.nanoTime();
+		long[] expected = new long[(hi - lo + 1) * 3];
+		for (int i = 0; i < reservationCount; ++i) {
+			int d = day[fid[i]];
+			if (d < lo || d > hi) continue;
+			++expected[(d - lo) * 3 + (status[i] == 'W' ? 0 : status[i] == 'C' ? 1 : 2)];
+		}
+		checkNanos += System.nanoTime() - start;
+
+		long[] actual = new long[expected.length];
+		for (AnalyticsSnapshot.DayStatus d : snapshot.statusByDay(LocalDate.ofEpochDay(lo), LocalDate.ofEpochDay(hi))) {
+			int k = (int) (d.day.toEpochDay() - lo) * 3;
+			actual[k] = d.waiting;
+			actual[k + 1] = d.confirmed;
+			actual[k + 2] = d.reserved;
+		}
+		for (int k = 0; k < expected.length; ++k) {
+			if (actual[k] != expected[k]) throw new IllegalStateException("wrong status count on " + LocalDate.ofEpochDay(lo + k / 3));
+		}
+	}
+
+	/**
+	 * Checks the reports over the whole range and over a quarter.
+	 */
+	void check(AnalyticsSnapshot snapshot) {
+		int first = (int) FIRST_DAY.toEpochDay(), last = first + DAYS - 1;
+		checkNanos = 0;
+		checkRoutes(snapshot, first, last);
+		checkRoutes(snapshot, first + 365, first + 455);
+		checkStatus(snapshot, first, last);
+		checkStatus(snapshot, first + 365, first + 455);
+		System.out.printf("answers checked, single-threaded loops took %.0f ms%n", checkNanos / 1e6);
+	}
+
+	/**
+	 * Runs every report over the whole range and over a quarter, checks the
+	 * answers and prints the report latencies.
+	 */
+	void measure(AnalyticsSnapshot snapshot, int rounds) {
+		int first = (int) FIRST_DAY.toEpochDay(), last = first + DAYS - 1;
+		check(snapshot);
+
+		LatencyHistogram load = new LatencyHistogram(), revenue = new LatencyHistogram(), mix = new LatencyHistogram();
+		for (int round = 0; round < rounds; ++round) {
+			boolean quarter = round % 2 == 1;
+			LocalDate a = LocalDate.ofEpochDay(quarter ? first + 365 : first), b = LocalDate.ofEpochDay(quarter ? first + 455 : last);
+			long s = System.nanoTime();
+			snapshot.topRoutesByLoadFactor(a, b, 10);
+			long m1 = System.nanoTime();
+			snapshot.topRoutesByRevenue(a, b, 10);
+			long m2 = System.nanoTime();
+			snapshot.statusByDay(a, b);
+			long e = System.nanoTime();
+			load.record(m1 - s);
+			revenue.record(m2 - m1);
+			mix.record(e - m2);
+		}
+		report("load factor", load);
+		report("revenue", revenue);
+		report("status by day", mix);
+	}
+
+	static void report(String name, LatencyHistogram h) {
+		System.out.printf("%-14s p50=%.1fms p99=%.1fms max=%.1fms%n", name, h.getValueAtPercentile(50) / 1e6,
+			h.getValueAtPercentile(99) / 1e6, h.getMax() / 1e6);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int flights = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int reservations = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int added = Math.max(1, flights / 100), addedReservations = Math.max(1, reservations / 100);
+		int lateFlights = Math.max(2, flights / 1000), lateReservations = Math.max(2, reservations / 1000);
+
+		AnalyticsBenchmark bench = new AnalyticsBenchmark(flights + added + lateFlights, reservations + addedReservations + lateReservations, 300, 2000);
+		bench.addFlights(flights);
+		bench.addReservations(reservations);
+
+		AnalyticsSnapshot snapshot = new AnalyticsSnapshot(bench, new ForkJoinPool(threads));
+		long t0 = System.nanoTime();
+		snapshot.refresh();
+		System.out.printf("%s%nloaded in %.0f ms, %d threads%n", snapshot, (System.nanoTime() - t0) / 1e6, threads);
+		bench.measure(snapshot, 40);
+
+		//1% new rows, and num_sold and status changes of loaded rows through the feed
+		bench.addFlights(added);
+		bench.addReservations(addedReservations);
+		int changes = Math.max(1, reservations / 1000);
+		for (int k = 0; k < changes; ++k) {
+			int f = bench.random.nextInt(flights), r = bench.random.nextInt(reservations);
+			int old = bench.sold[f];
+			bench.sold[f] = bench.random.nextInt(100);
+			snapshot.flight(new ChangeFeed.FlightChange(ChangeFeed.Op.UPDATE, 0, f, old, bench.sold[f]));
+			String before = String.valueOf(bench.status[r]);
+			bench.status[r] = bench.status[r] == 'W' ? 'C' : 'R';
+			snapshot.reservation(new ChangeFeed.ReservationChange(ChangeFeed.Op.UPDATE, 0, r, bench.fid[r], before, String.valueOf(bench.status[r])));
+		}
+		t0 = System.nanoTime();
+		snapshot.refresh();
+		System.out.printf("%nrefreshed %d + %d new rows and %d changes in %.1f ms%n", added, addedReservations, 2 * changes,
+			(System.nanoTime() - t0) / 1e6);
+		bench.measure(snapshot, 10);
+
+		//every 7th new row commits after the rows above it have been read
+		bench.addFlights(lateFlights);
+		bench.addReservations(lateReservations);
+		for (int i = bench.flightCount - lateFlights; i < bench.flightCount - 1; i += 7) bench.hiddenFlights.set(i);
+		for (int i = bench.reservationCount - lateReservations; i < bench.reservationCount - 1; i += 7) bench.hiddenReservations.set(i);
+		int held = bench.hiddenFlights.cardinality() + bench.hiddenReservations.cardinality();
+		snapshot.refresh();
+		bench.commitHidden(snapshot);
+		t0 = System.nanoTime();
+		snapshot.refresh();
+		System.out.printf("%nrefreshed %d rows committed out of key order in %.1f ms%n", held, (System.nanoTime() - t0) / 1e6);
+		bench.check(snapshot);
+
+		t0 = System.nanoTime();
+		snapshot.reload();
+		System.out.printf("%nfull reload for comparison: %.0f ms%n", (System.nanoTime() - t0) / 1e6);
+	}
+}
@@ -0,0 +1,64 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks without a database that the change feed survives payloads it
+ * cannot parse and listeners that throw: the payloads go through the same
+ * deliver() the listener thread calls, every failure resets the listeners,
+ * and the changes after it still arrive.
+ */
+public class ChangeFeedCheck {
+
+	static class Recorder implements ChangeFeed.Listener {
+		final List<String> seen = new ArrayList<String>();
+		int resets = 0;
+
+		public void flight(ChangeFeed.FlightChange c) {
+			seen.add("F" + c.fnum + "=" + c.numSold);
+		}
+
+		public void reservation(ChangeFeed.ReservationChange c) {
+			seen.add("R" + c.rnum + "=" + c.status);
+		}
+
+		public void reset() {
+			++resets;
+		}
+	}
+
+	static void expect(boolean ok, String what) {
+		if (!ok) throw new IllegalStateException(what);
+	}
+
+	public static void main(String[] args) {
+		ChangeFeed feed = new ChangeFeed("jdbc:postgresql://localhost/none", "none", "");
+		Recorder recorder = new Recorder();
+		feed.subscribe(recorder);
+
+		feed.deliver("F:U:54:3:4:1400000000000");
+		String[] bad = {"", "garbage", "F:U:54", "F:U:x:3:4:1400000000000", "R:I:7:54::C", "C:I:9:1400000000000:no-tab"};
+		for (String payload : bad) feed.deliver(payload);
+		expect(feed.getFailures() == bad.length, feed.getFailures() + " failures, expected " + bad.length);
+		expect(recorder.resets == bad.length, recorder.resets + " resets, expected " + bad.length);
+		feed.deliver("R:I:7:54::C:1400000000000");
+		expect(recorder.seen.toString().equals("[F54=4, R7=C]"), "delivered " + recorder.seen);
+
+		//a listener that throws, and one that throws on reset too
+		feed.subscribe(new ChangeFeed.Listener() {
+			public void flight(ChangeFeed.FlightChange c) {
+				throw new IllegalArgumentException("listener failure");
+			}
+
+			public void reset() {
+				throw new IllegalArgumentException("reset failure");
+			}
+		});
+		feed.deliver("F:U:54:4:5:1400000000001");
+		expect(feed.getFailures() == bad.length + 1, "listener failure not counted");
+		expect(recorder.resets == bad.length + 1, "listener failure did not reset the other listeners");
+		feed.deliver("R:U:7:54:C:R:1400000000002");
+		expect(recorder.seen.toString().equals("[F54=4, R7=C, F54=5, R7=R]"), "delivered " + recorder.seen);
+		expect(feed.getReceived() == bad.length + 4, feed.getReceived() + " received");
+		System.out.println("change feed survived " + feed.getFailures() + " failures, " + feed.getResets() + " resets");
+	}
+}
@@ -0,0 +1,304 @@
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a mixed booking and reporting workload against a running database
+ * by calling the DBproject operations directly, without the menu.  The mix
+ * is a list of weighted operations, e.g. seats=70,book=20,repairs=10, and
+ * flights are drawn from a Zipf distribution, so a few flights get most of
+ * the traffic as in production.
+ *
+ * With --rate the load is open loop: requests arrive as a Poisson process
+ * of the given rate whether or not the clients keep up, and latency is
+ * measured from the arrival, so time spent waiting for a free client counts
+ * (no coordinated omission).  Without it every client issues its next
+ * request as soon as the previous one finished.  Clients are virtual
+ * threads where the JDK has them.
+ *
+ * Throughput, latency percentiles and error rates per operation are printed
+ * and appended to a CSV file with a label.  Reservations made by the run
+ * are removed at the end and num_sold is restored.
+ */
+public class LoadGenerator {
+
+	interface Operation {
+		void run(SplittableRandom random) throws Exception;
+	}
+
+	/**
+	 * Counters of one operation of the mix.
+	 */
+	static class Stats {
+		final AtomicLong ops = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final LatencyHistogram latency = new LatencyHistogram();
+
+		void reset() {
+			ops.set(0);
+			errors.set(0);
+			latency.reset();
+		}
+	}
+
+	private final DBproject esql;
+	private final Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+	private int[] flights;
+	private int[] customers;
+	private ZipfSampler popularity;
+	//-1 until setUp() read it, so a failed start removes nothing
+	private int reservationMark = -1;
+
+	//the mix: names, cumulative weights and stats, in the same order
+	private String[] names;
+	private int[] cumulative;
+	private Stats[] stats;
+	//arrival times of open loop requests not yet taken by a client
+	private final LinkedBlockingQueue<Long> arrivals = new LinkedBlockingQueue<Long>();
+	private volatile boolean running;
+
+	LoadGenerator(final DBproject esql) {
+		this.esql = esql;
+
+		operations.put("seats", r -> esql.availableSeats(flight(r)));
+		operations.put("book", r -> esql.bookFlight(customers[r.nextInt(customers.length)], flight(r)));
+		operations.put("status", r -> esql.passengersWithStatus(flight(r), "WCR".charAt(r.nextInt(3))));
+		operations.put("repairs", r -> {
+			switch (r.nextInt(3)) {
+				case 0: esql.repairsPerPlane(); break;
+				case 1: esql.topRepairedPlanes(10); break;
+				default: esql.repairsPerYear();
+			}
+		});
+		operations.put("search", r -> {
+			List<List<String>> f = esql.executeQueryAndReturnResult(
+				"Select departure_airport, actual_departure_date From Flight Where fnum = ?;", flight(r));
+			if (!f.isEmpty()) {
+				String day = f.get(0).get(1);
+				esql.searchFlights(f.get(0).get(0), null, day, day, null, DBproject.FLIGHT_PAGE_SIZE);
+			}
+		});
+	}
+
+	private int flight(SplittableRandom r) {
+		return flights[popularity.sample(r) - 1];
+	}
+
+	/**
+	 * Remembers the highest reservation number and loads the flights with a
+	 * plane, in a random popularity order, and customer ids.
+	 */
+	void setUp(double skew, long seed) throws Exception {
+		reservationMark = Integer.parseInt(esql.executeQueryAndReturnResult(
+			"Select coalesce(max(rnum), 0) From Reservation;").get(0).get(0));
+		List<List<String>> rows = esql.executeQueryAndReturnResult("Select flight_id From FlightInfo Order by flight_id;");
+		flights = new int[rows.size()];
+		for (int i = 0; i < flights.length; ++i) flights[i] = Integer.parseInt(rows.get(i).get(0));
+		//rank 1 should not always be the lowest flight number
+		SplittableRandom random = new SplittableRandom(seed);
+		for (int i = flights.length - 1; i > 0; --i) {
+			int j = random.nextInt(i + 1);
+			int t = flights[i];
+			flights[i] = flights[j];
+			flights[j] = t;
+		}
+
+		rows = esql.executeQueryAndReturnResult("Select id From Customer Order by id Limit 10000;");
+		customers = new int[rows.size()];
+		for (int i = 0; i < customers.length; ++i) customers[i] = Integer.parseInt(rows.get(i).get(0));
+		if (flights.length == 0 || customers.length == 0) throw new IllegalStateException("load data/ (or generated data) first");
+
+		popularity = new ZipfSampler(flights.length, skew);
+	}
+
+	void tearDown() throws Exception {
+		if (reservationMark < 0) return;
+		esql.executeUpdate("Update Flight F Set num_sold = F.num_sold - B.n From " +
+			"(Select fid, count(*) as n From Reservation Where rnum > ? and status in ('C', 'R') Group by fid) B Where F.fnum = B.fid;", reservationMark);
+		esql.executeUpdate("Delete From Reservation Where rnum > ?;", reservationMark);
+	}
+
+	/**
+	 * @param mix name=weight pairs, e.g. seats=70,book=20,repairs=10
+	 */
+	void setMix(String mix) {
+		String[] parts = mix.split(",");
+		names = new String[parts.length];
+		cumulative = new int[parts.length];
+		stats = new Stats[parts.length];
+		int total = 0;
+		for (int i = 0; i < parts.length; ++i) {
+			String[] kv = parts[i].trim().split("=");
+			if (kv.length != 2 || !operations.containsKey(kv[0]))
+				throw new IllegalArgumentException("bad mix entry " + parts[i] + ", operations are " + operations.keySet());
+			int weight = Integer.parseInt(kv[1]);
+			if (weight < 0) throw new IllegalArgumentException("negative weight in " + parts[i]);
+			total += weight;
+			names[i] = kv[0];
+			cumulative[i] = total;
+			stats[i] = new Stats();
+		}
+		if (total == 0) throw new IllegalArgumentException("the mix has no weight");
+	}
+
+	/**
+	 * Draws an operation of the mix and runs it, recording its latency from
+	 * the given start time.
+	 */
+	private void request(SplittableRandom random, long start) {
+		int pick = random.nextInt(cumulative[cumulative.length - 1]);
+		int i = 0;
+		while (cumulative[i] <= pick) ++i;
+		try {
+			operations.get(names[i]).run(random);
+			stats[i].ops.incrementAndGet();
+		} catch (Exception e) {
+			stats[i].errors.incrementAndGet();
+		}
+		stats[i].latency.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Runs the mix for the given time.
+	 *
+	 * @param rate requests per second for open loop, 0 for closed loop
+	 * @param clients number of concurrent clients
+	 * @return the number of arrivals no client had taken when time was up
+	 */
+	long run(final double rate, int clients, long nanos, long seed) throws Exception {
+		for (Stats s : stats) s.reset();
+		arrivals.clear();
+		running = true;
+		final long end = System.nanoTime() + nanos;
+		ExecutorService executor = BookingService.newExecutor();
+		try {
+			for (int c = 0; c < clients; ++c) {
+				final SplittableRandom random = new SplittableRandom(seed + c * 7919L);
+				executor.execute(() -> {
+					try {
+						while (running) {
+							if (rate > 0) {
+								Long arrival = arrivals.poll(100, TimeUnit.MILLISECONDS);
+								if (arrival != null) request(random, arrival);
+							} else {
+								request(random, System.nanoTime());
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+			if (rate > 0) {
+				//exponential gaps between arrivals make a Poisson process
+				SplittableRandom random = new SplittableRandom(seed - 1);
+				long next = System.nanoTime();
+				while (next < end) {
+					next += (long) (-Math.log(1.0 - random.nextDouble()) / rate * 1e9);
+					long wait = next - System.nanoTime();
+					if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+					arrivals.add(next);
+				}
+			} else {
+				TimeUnit.NANOSECONDS.sleep(nanos);
+			}
+		} finally {
+			running = false;
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		return arrivals.size();
+	}//end run
+
+	/**
+	 * @param args &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [--mix seats=70,book=20,repairs=10]
+	 *        [--skew 1.1] [--rate ops/s] [--clients n] [--pool n] [--warmup s]
+	 *        [--seconds s] [--seed n] [--label text] [--out file.csv]
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java LoadGenerator <dbname> <port> <user> [--mix seats=70,book=20,repairs=10] [--skew 1.1] " +
+				"[--rate 0] [--clients 64] [--pool 16] [--warmup 5] [--seconds 60] [--seed 1] [--label run] [--out load.csv]");
+			return;
+		}
+		String mix = "seats=70,book=20,repairs=10";
+		double skew = 1.1, rate = 0;
+		int clients = 64, pool = 16, warmup = 5, seconds = 60;
+		long seed = 1;
+		String label = "", out = "load.csv";
+		for (int i = 3; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "--mix": mix = args[i + 1]; break;
+				case "--skew": skew = Double.parseDouble(args[i + 1]); break;
+				case "--rate": rate = Double.parseDouble(args[i + 1]); break;
+				case "--clients": clients = Integer.parseInt(args[i + 1]); break;
+				case "--pool": pool = Integer.parseInt(args[i + 1]); break;
+				case "--warmup": warmup = Integer.parseInt(args[i + 1]); break;
+				case "--seconds": seconds = Integer.parseInt(args[i + 1]); break;
+				case "--seed": seed = Long.parseLong(args[i + 1]); break;
+				case "--label": label = args[i + 1]; break;
+				case "--out": out = args[i + 1]; break;
+				default: throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "", pool);
+		LoadGenerator load = new LoadGenerator(esql);
+		load.setMix(mix);
+		PrintWriter csv = new PrintWriter(new FileWriter(out, true));
+		try {
+			load.setUp(skew, seed);
+			System.out.println(load.flights.length + " flights, skew " + skew + ", mix " + mix + ", " + clients + " clients, " +
+				(rate > 0 ? "open loop at " + rate + " requests/s" : "closed loop"));
+			load.run(rate, clients, warmup * 1000000000L, seed);
+			long backlog = load.run(rate, clients, seconds * 1000000000L, seed + 1);
+
+			List<String> lines = new ArrayList<String>();
+			LatencyHistogram all = new LatencyHistogram();
+			long totalOps = 0, totalErrors = 0;
+			System.out.printf("%-10s %10s %9s %9s %9s %9s %9s %9s%n",
+				"operation", "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors", "error %");
+			for (int i = 0; i < load.names.length; ++i) {
+				Stats s = load.stats[i];
+				long ops = s.ops.get(), errors = s.errors.get();
+				totalOps += ops;
+				totalErrors += errors;
+				all.add(s.latency);
+				lines.add(report(load.names[i], ops, errors, s.latency, seconds, label, rate, clients));
+			}
+			lines.add(report("all", totalOps, totalErrors, all, seconds, label, rate, clients));
+			for (String line : lines) csv.println(line);
+			if (backlog > 0) System.out.println(backlog + " requests were still waiting for a client at the end; the clients did not keep up");
+		} finally {
+			csv.close();
+			load.tearDown();
+			esql.cleanup();
+		}
+	}
+
+	/**
+	 * Prints one operation's results and returns them as a CSV line:
+	 * label, operation, rate, clients, ops/s, errors, error rate, and p50,
+	 * p99, p99.9 and max latency in nanoseconds.
+	 */
+	private static String report(String name, long ops, long errors, LatencyHistogram latency, int seconds,
+			String label, double rate, int clients) {
+		double opsPerSec = (double) ops / seconds;
+		double errorRate = ops + errors == 0 ? 0 : (double) errors / (ops + errors);
+		System.out.printf("%-10s %10.1f %9.2f %9.2f %9.2f %9.2f %9d %9.3f%n", name, opsPerSec,
+			latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+			latency.getValueAtPercentile(99.9) / 1e6, latency.getMax() / 1e6, errors, errorRate * 100);
+		return String.format("%s,%s,%.1f,%d,%.1f,%d,%.5f,%d,%d,%d,%d", label, name, rate, clients, opsPerSec, errors, errorRate,
+			latency.getValueAtPercentile(50), latency.getValueAtPercentile(99),
+			latency.getValueAtPercentile(99.9), latency.getMax());
+	}
+}
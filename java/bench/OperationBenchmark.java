@@ -0,0 +1,224 @@
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput, latency and allocation benchmark of every DBproject menu
+ * operation against a running database.  It follows the structure of a JMH
+ * run (a warmup iteration, then a measured iteration, per operation and per
+ * thread count) but needs nothing beyond the JDK and the JDBC driver, so it
+ * builds with the same javac call as the rest of the project.
+ *
+ * For each operation and thread count it reports operations per second,
+ * latency percentiles and bytes allocated per operation (measured with the
+ * per-thread allocation counters of the HotSpot ThreadMXBean).  Results are
+ * printed and appended to a CSV file together with a label, usually the
+ * scale factor of the loaded data set, so runs at several scales can be
+ * compared.  Rows written by the benchmark are removed at the end and the
+ * num_sold of the booked flights is restored.
+ */
+public class OperationBenchmark {
+
+	interface Operation {
+		void run(SplittableRandom random) throws Exception;
+	}
+
+	private final DBproject esql;
+	private final Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+	private int[] flights;
+	private String[][] customers;
+	private int planeMark, flightMark, reservationMark;
+
+	OperationBenchmark(final DBproject esql) throws Exception {
+		this.esql = esql;
+
+		operations.put("AddPlane", r -> esql.addPlane("bench", "BenchModel", r.nextInt(30), 1 + r.nextInt(499)));
+		operations.put("AddFlight", r -> esql.addFlight(100 + r.nextInt(900), 0, r.nextInt(3), "2030-01-01", "2030-01-02", "BENCH", "BENCH"));
+		operations.put("BookFlight", r -> {
+			String[] c = customers[r.nextInt(customers.length)];
+			esql.bookFlight(c[0], c[1], flights[r.nextInt(flights.length)]);
+		});
+		operations.put("ListNumberOfAvailableSeats", r -> esql.availableSeats(flights[r.nextInt(flights.length)]));
+		operations.put("ListNumberOfAvailableSeats(uncached)", r -> {
+			int fid = flights[r.nextInt(flights.length)];
+			esql.getSeatCache().invalidateFlight(fid);
+			esql.availableSeats(fid);
+		});
+		operations.put("ListsTotalNumberOfRepairsPerPlane", r -> esql.repairsPerPlane());
+		operations.put("ListTotalNumberOfRepairsPerYear", r -> esql.repairsPerYear());
+		operations.put("FindPassengersCountWithStatus", r -> esql.passengersWithStatus(flights[r.nextInt(flights.length)], "WCR".charAt(r.nextInt(3))));
+	}
+
+	/**
+	 * Remembers the highest ids, so the rows added later can be removed, and
+	 * loads the inputs (flights with a plane, customers with a unique name).
+	 */
+	void setUp() throws Exception {
+		planeMark = max("Select coalesce(max(id), 0) From Plane;");
+		flightMark = max("Select coalesce(max(fnum), 0) From Flight;");
+		reservationMark = max("Select coalesce(max(rnum), 0) From Reservation;");
+
+		List<List<String>> rows = esql.executeQueryAndReturnResult("Select flight_id From FlightInfo Order by flight_id;");
+		flights = new int[rows.size()];
+		for (int i = 0; i < flights.length; ++i) flights[i] = Integer.parseInt(rows.get(i).get(0));
+
+		rows = esql.executeQueryAndReturnResult(
+			"Select lower(btrim(fname)), lower(btrim(lname)) From Customer Group by 1, 2 Having count(*) = 1 Limit 10000;");
+		customers = new String[rows.size()][];
+		for (int i = 0; i < customers.length; ++i) customers[i] = new String[] {rows.get(i).get(0), rows.get(i).get(1)};
+		if (flights.length == 0 || customers.length == 0) throw new IllegalStateException("load data/ (or generated data) first");
+	}
+
+	/**
+	 * Removes the rows added since setUp(); only call it after setUp() returned.
+	 */
+	void tearDown() throws Exception {
+		esql.executeUpdate("Update Flight F Set num_sold = F.num_sold - B.n From " +
+			"(Select fid, count(*) as n From Reservation Where rnum > ? and status = 'C' Group by fid) B Where F.fnum = B.fid;", reservationMark);
+		esql.executeUpdate("Delete From Reservation Where rnum > ?;", reservationMark);
+		esql.executeUpdate("Delete From Flight Where fnum > ?;", flightMark);
+		esql.executeUpdate("Delete From Plane Where id > ?;", planeMark);
+	}
+
+	private int max(String query) throws Exception {
+		return Integer.parseInt(esql.executeQueryAndReturnResult(query).get(0).get(0));
+	}
+
+	/**
+	 * Result of one measured iteration.
+	 */
+	static class Result {
+		long ops;
+		long errors;
+		double seconds;
+		long allocatedBytes;
+		final LatencyHistogram latency = new LatencyHistogram();
+	}
+
+	/**
+	 * Runs an operation on the given number of threads for a fixed time.
+	 */
+	Result iteration(final Operation op, int threads, final long nanos) throws Exception {
+		final Result result = new Result();
+		final AtomicLong ops = new AtomicLong(), errors = new AtomicLong(), allocated = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1), done = new CountDownLatch(threads);
+		final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		for (int t = 0; t < threads; ++t) {
+			final SplittableRandom random = new SplittableRandom(t * 7919L + 1);
+			new Thread() {
+				public void run() {
+					long n = 0, failed = 0;
+					try {
+						start.await();
+						long tid = Thread.currentThread().getId();
+						long bytes = mx.getThreadAllocatedBytes(tid);
+						long end = System.nanoTime() + nanos;
+						long now;
+						while ((now = System.nanoTime()) < end) {
+							try {
+								op.run(random);
+								++n;
+							} catch (Exception e) {
+								++failed;
+							}
+							result.latency.record(System.nanoTime() - now);
+						}
+						allocated.addAndGet(mx.getThreadAllocatedBytes(tid) - bytes);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						ops.addAndGet(n);
+						errors.addAndGet(failed);
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		result.seconds = (System.nanoTime() - begin) / 1e9;
+		result.ops = ops.get();
+		result.errors = errors.get();
+		result.allocatedBytes = allocated.get();
+		return result;
+	}
+
+	static int[] parseList(String s) {
+		String[] parts = s.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; ++i) values[i] = Integer.parseInt(parts[i].trim());
+		return values;
+	}
+
+	/**
+	 * @param args &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [--threads 1,4,16,64] [--warmup s]
+	 *        [--seconds s] [--ops name,name] [--label text] [--out file.csv]
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java OperationBenchmark <dbname> <port> <user> [--threads 1,4,16,64] [--warmup 3] [--seconds 10] " +
+				"[--ops BookFlight,...] [--label scale1] [--out operations.csv]");
+			return;
+		}
+		int[] threadCounts = {1, 4, 16, 64};
+		int warmup = 3, seconds = 10;
+		String label = "", out = "operations.csv";
+		List<String> selected = null;
+		for (int i = 3; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "--threads": threadCounts = parseList(args[i + 1]); break;
+				case "--warmup": warmup = Integer.parseInt(args[i + 1]); break;
+				case "--seconds": seconds = Integer.parseInt(args[i + 1]); break;
+				case "--ops": selected = Arrays.asList(args[i + 1].split(",")); break;
+				case "--label": label = args[i + 1]; break;
+				case "--out": out = args[i + 1]; break;
+				default: throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+
+		Class.forName("org.postgresql.Driver");
+		int maxThreads = 1;
+		for (int t : threadCounts) maxThreads = Math.max(maxThreads, t);
+		DBproject esql = new DBproject(args[0], args[1], args[2], "", maxThreads);
+		OperationBenchmark bench = new OperationBenchmark(esql);
+		PrintWriter csv = new PrintWriter(new FileWriter(out, true));
+		try {
+			bench.setUp();
+			try {
+				System.out.printf("%-38s %7s %10s %9s %9s %9s %9s %10s %7s%n",
+					"operation", "threads", "ops/s", "p50 us", "p99 us", "p99.9 us", "max us", "alloc B/op", "errors");
+				for (Map.Entry<String, Operation> e : bench.operations.entrySet()) {
+					if (selected != null && !selected.contains(e.getKey())) continue;
+					for (int threads : threadCounts) {
+						bench.iteration(e.getValue(), threads, warmup * 1000000000L);
+						Result r = bench.iteration(e.getValue(), threads, seconds * 1000000000L);
+						double opsPerSec = r.ops / r.seconds;
+						long allocPerOp = r.ops == 0 ? 0 : r.allocatedBytes / r.ops;
+						System.out.printf("%-38s %7d %10.0f %9.1f %9.1f %9.1f %9.1f %10d %7d%n", e.getKey(), threads, opsPerSec,
+							r.latency.getValueAtPercentile(50) / 1e3, r.latency.getValueAtPercentile(99) / 1e3,
+							r.latency.getValueAtPercentile(99.9) / 1e3, r.latency.getMax() / 1e3, allocPerOp, r.errors);
+						csv.printf("%s,%s,%d,%.1f,%d,%d,%d,%d,%d,%d%n", label, e.getKey(), threads, opsPerSec,
+							r.latency.getValueAtPercentile(50), r.latency.getValueAtPercentile(99),
+							r.latency.getValueAtPercentile(99.9), r.latency.getMax(), allocPerOp, r.errors);
+						csv.flush();
+					}
+				}
+			} finally {
+				bench.tearDown();
+			}
+		} finally {
+			csv.close();
+			esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,171 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Measures RoutePlanner on a synthetic network without a database: airports
+ * with Zipf distributed popularity, so a few hubs see most flights, and
+ * flights with random days, fares and free seats.  It reports load time and
+ * latency of the three searches, then adds flights one by one to measure
+ * incremental updates.  On a small network every answer is first checked
+ * against an exhaustive enumeration of all itineraries.
+ */
+public class RoutePlannerBenchmark {
+	static final LocalDate FIRST_DAY = LocalDate.of(2024, 1, 1);
+
+	int[] from, to, dep, arr, price, free;
+
+	/**
+	 * Generates the flights and puts them into a new planner.
+	 */
+	RoutePlanner build(int flights, int airports, int days, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		ZipfSampler popularity = new ZipfSampler(airports, 0.9);
+		from = new int[flights];
+		to = new int[flights];
+		dep = new int[flights];
+		arr = new int[flights];
+		price = new int[flights];
+		free = new int[flights];
+		RoutePlanner planner = new RoutePlanner(null);
+		for (int i = 0; i < flights; ++i) {
+			put(planner, i, random, popularity, airports, days);
+		}
+		return planner;
+	}
+
+	void put(RoutePlanner planner, int i, SplittableRandom random, ZipfSampler popularity, int airports, int days) {
+		from[i] = popularity.sample(random) - 1;
+		do {
+			to[i] = popularity.sample(random) - 1;
+		} while (to[i] == from[i] && airports > 1);
+		dep[i] = (int) FIRST_DAY.toEpochDay() + random.nextInt(days);
+		arr[i] = dep[i] + (random.nextInt(4) == 0 ? 1 : 0);
+		price[i] = 50 + random.nextInt(950);
+		int seats = 100 + random.nextInt(200);
+		int sold = random.nextInt(10) == 0 ? seats : random.nextInt(seats);
+		free[i] = seats - sold;
+		planner.put(i, code(from[i]), code(to[i]), LocalDate.ofEpochDay(dep[i]), LocalDate.ofEpochDay(arr[i]), price[i], seats, sold);
+	}
+
+	static String code(int airport) {
+		return "A" + airport;
+	}
+
+	/*
+	 * Exhaustive search for the check: the best cost, legs and arrival of all
+	 * itineraries within the constraints.
+	 */
+	int bestCost, bestLegs, bestArrival;
+
+	void enumerate(int at, int target, int ready, int lastDay, int legs, int cost, int maxLegs, int mct) {
+		for (int i = 0; i < from.length; ++i) {
+			if (from[i] != at || free[i] < 1 || dep[i] < ready || dep[i] > lastDay) continue;
+			int c = cost + price[i];
+			if (to[i] == target) {
+				bestCost = Math.min(bestCost, c);
+				bestLegs = Math.min(bestLegs, legs + 1);
+				bestArrival = Math.min(bestArrival, arr[i]);
+			} else if (legs + 1 < maxLegs) {
+				enumerate(to[i], target, arr[i] + mct, lastDay, legs + 1, c, maxLegs, mct);
+			}
+		}
+	}
+
+	void verify(int flights, int airports, int queries, long seed) throws Exception {
+		RoutePlanner planner = build(flights, airports, 10, seed);
+		SplittableRandom random = new SplittableRandom(seed + 1);
+		int found = 0;
+		for (int q = 0; q < queries; ++q) {
+			int a = random.nextInt(airports), b = random.nextInt(airports);
+			if (a == b) continue;
+			int mct = random.nextInt(2), maxLegs = 1 + random.nextInt(3), days = 1 + random.nextInt(5);
+			int day = (int) FIRST_DAY.toEpochDay() + random.nextInt(8);
+			RoutePlanner.Constraints c = new RoutePlanner.Constraints(days, maxLegs, mct, 1);
+			bestCost = bestLegs = bestArrival = Integer.MAX_VALUE;
+			enumerate(a, b, day, day + days - 1, 0, 0, maxLegs, mct);
+			LocalDate start = LocalDate.ofEpochDay(day);
+			RoutePlanner.Itinerary cheapest = planner.cheapest(code(a), code(b), start, c);
+			RoutePlanner.Itinerary fewest = planner.fewestLegs(code(a), code(b), start, c);
+			RoutePlanner.Itinerary earliest = planner.earliestArrival(code(a), code(b), start, c);
+			if (bestCost == Integer.MAX_VALUE) {
+				if (cheapest != null || fewest != null || earliest != null) throw new IllegalStateException("found a route that does not exist");
+				continue;
+			}
+			++found;
+			if (cheapest == null || cheapest.getCost() != bestCost)
+				throw new IllegalStateException("cheapest " + cheapest + ", expected cost " + bestCost);
+			if (fewest == null || fewest.getLegs() != bestLegs)
+				throw new IllegalStateException("fewest legs " + fewest + ", expected " + bestLegs);
+			if (earliest == null || earliest.getArrival().toEpochDay() != bestArrival)
+				throw new IllegalStateException("earliest " + earliest + ", expected " + LocalDate.ofEpochDay(bestArrival));
+		}
+		System.out.println("verified " + queries + " searches against enumeration, " + found + " with a route");
+	}
+
+	public static void main(String[] args) throws Exception {
+		int flights = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		int airports = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+		int queries = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		RoutePlannerBenchmark bench = new RoutePlannerBenchmark();
+		bench.verify(2000, 30, 1000, 7);
+
+		long t0 = System.nanoTime();
+		RoutePlanner planner = bench.build(flights, airports, 365, 42);
+		System.out.printf("%s: loaded in %.0f ms%n", planner, (System.nanoTime() - t0) / 1e6);
+
+		RoutePlanner.Constraints c = new RoutePlanner.Constraints(3, 3, 0, 1);
+		LatencyHistogram cheap = new LatencyHistogram(), few = new LatencyHistogram(), early = new LatencyHistogram();
+		SplittableRandom random = new SplittableRandom(3);
+		int found = 0;
+		for (int round = 0; round < 2; ++round) {
+			//the first round warms up
+			cheap.reset();
+			few.reset();
+			early.reset();
+			found = 0;
+			for (int q = 0; q < queries; ++q) {
+				String a = code(random.nextInt(airports)), b = code(random.nextInt(airports));
+				LocalDate day = FIRST_DAY.plusDays(random.nextInt(360));
+				long s = System.nanoTime();
+				RoutePlanner.Itinerary x = planner.cheapest(a, b, day, c);
+				long m1 = System.nanoTime();
+				RoutePlanner.Itinerary y = planner.fewestLegs(a, b, day, c);
+				long m2 = System.nanoTime();
+				RoutePlanner.Itinerary z = planner.earliestArrival(a, b, day, c);
+				long e = System.nanoTime();
+				cheap.record(m1 - s);
+				few.record(m2 - m1);
+				early.record(e - m2);
+				if (x != null) {
+					++found;
+					if (y == null || z == null || x.getCost() > y.getCost() || x.getCost() > z.getCost() || y.getLegs() > z.getLegs() ||
+						z.getArrival().isAfter(x.getArrival()) || z.getArrival().isAfter(y.getArrival()))
+						throw new IllegalStateException("inconsistent answers " + x + " / " + y + " / " + z);
+				}
+			}
+		}
+		System.out.printf("%d searches, %d with a route%n", queries, found);
+		report("cheapest", cheap);
+		report("fewestLegs", few);
+		report("earliestArrival", early);
+
+		int added = Math.max(1, flights / 20);
+		bench.from = Arrays.copyOf(bench.from, flights + added);
+		bench.to = Arrays.copyOf(bench.to, flights + added);
+		bench.dep = Arrays.copyOf(bench.dep, flights + added);
+		bench.arr = Arrays.copyOf(bench.arr, flights + added);
+		bench.price = Arrays.copyOf(bench.price, flights + added);
+		bench.free = Arrays.copyOf(bench.free, flights + added);
+		ZipfSampler popularity = new ZipfSampler(airports, 0.9);
+		t0 = System.nanoTime();
+		for (int i = flights; i < flights + added; ++i) bench.put(planner, i, random, popularity, airports, 365);
+		System.out.printf("added %d flights in %.0f ms (%.2f us each), %s%n", added, (System.nanoTime() - t0) / 1e6,
+			(System.nanoTime() - t0) / 1e3 / added, planner);
+	}
+
+	static void report(String name, LatencyHistogram h) {
+		System.out.printf("%-16s p50=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms%n", name, h.getValueAtPercentile(50) / 1e6,
+			h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6);
+	}
+}
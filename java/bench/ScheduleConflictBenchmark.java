@@ -0,0 +1,100 @@
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Builds a ScheduleConflictIndex for a synthetic fleet and measures loading,
+ * "is this assignment free?" queries and listing all double-bookings.  It
+ * needs no database: flights get random dates over three years, a random
+ * plane and a random pilot, with lengths of zero to two days.  A sample of
+ * the answers is checked against a linear scan of all flights, which is
+ * also timed for comparison.
+ */
+public class ScheduleConflictBenchmark {
+	static final LocalDate FIRST_DAY = LocalDate.of(2020, 1, 1);
+	static final int DAYS = 3 * 365;
+
+	public static void main(String[] args) throws Exception {
+		int flights = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int planes = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int pilots = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+		int queries = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+
+		SplittableRandom random = new SplittableRandom(42);
+		int[] pilot = new int[flights], plane = new int[flights];
+		long[] start = new long[flights], end = new long[flights];
+		for (int i = 0; i < flights; ++i) {
+			pilot[i] = random.nextInt(pilots);
+			plane[i] = random.nextInt(planes);
+			start[i] = FIRST_DAY.toEpochDay() + random.nextInt(DAYS);
+			end[i] = start[i] + random.nextInt(3);
+		}
+
+		ScheduleConflictIndex index = new ScheduleConflictIndex(null);
+		long t0 = System.nanoTime();
+		for (int i = 0; i < flights; ++i) {
+			index.add(i, pilot[i], plane[i], LocalDate.ofEpochDay(start[i]), LocalDate.ofEpochDay(end[i]));
+		}
+		long buildNanos = System.nanoTime() - t0;
+		System.out.printf("%d flights, %d planes, %d pilots: built in %.0f ms (%.2f us per flight), %s%n",
+			flights, planes, pilots, buildNanos / 1e6, buildNanos / 1e3 / flights, index);
+
+		LatencyHistogram free = new LatencyHistogram(), check = new LatencyHistogram();
+		long busy = 0;
+		for (int q = 0; q < queries; ++q) {
+			int p = random.nextInt(pilots), a = random.nextInt(planes);
+			LocalDate from = LocalDate.ofEpochDay(FIRST_DAY.toEpochDay() + random.nextInt(DAYS));
+			LocalDate to = from.plusDays(random.nextInt(3));
+			long s = System.nanoTime();
+			if (!index.isFree(-1, p, a, from, to)) ++busy;
+			long m = System.nanoTime();
+			index.check(-1, p, a, from, to);
+			long e = System.nanoTime();
+			free.record(m - s);
+			check.record(e - m);
+		}
+		System.out.printf("isFree: p50=%.2fus p99=%.2fus p99.9=%.2fus (%.1f%% busy)%n", free.getValueAtPercentile(50) / 1e3,
+			free.getValueAtPercentile(99) / 1e3, free.getValueAtPercentile(99.9) / 1e3, 100.0 * busy / queries);
+		System.out.printf("check:  p50=%.2fus p99=%.2fus p99.9=%.2fus%n", check.getValueAtPercentile(50) / 1e3,
+			check.getValueAtPercentile(99) / 1e3, check.getValueAtPercentile(99.9) / 1e3);
+
+		t0 = System.nanoTime();
+		List<ScheduleConflictIndex.Conflict> all = index.doubleBookings();
+		System.out.printf("doubleBookings: %d conflicts in %.1f ms%n", all.size(), (System.nanoTime() - t0) / 1e6);
+
+		//the same questions answered by scanning every flight
+		int samples = Math.min(queries, 200);
+		long scanNanos = 0;
+		for (int q = 0; q < samples; ++q) {
+			int p = random.nextInt(pilots), a = random.nextInt(planes);
+			long from = FIRST_DAY.toEpochDay() + random.nextInt(DAYS);
+			long to = from + random.nextInt(3);
+			long s = System.nanoTime();
+			int expected = 0;
+			for (int i = 0; i < flights; ++i) {
+				if (start[i] <= to && end[i] >= from) {
+					if (pilot[i] == p) ++expected;
+					if (plane[i] == a) ++expected;
+				}
+			}
+			scanNanos += System.nanoTime() - s;
+			int actual = index.check(-1, p, a, LocalDate.ofEpochDay(from), LocalDate.ofEpochDay(to)).size();
+			if (actual != expected) throw new IllegalStateException("index found " + actual + " conflicts, the scan " + expected);
+			if (index.isFree(-1, p, a, LocalDate.ofEpochDay(from), LocalDate.ofEpochDay(to)) != (expected == 0))
+				throw new IllegalStateException("isFree disagrees with the scan");
+		}
+		System.out.printf("linear scan: %.2f ms per query, %d answers checked%n", scanNanos / 1e6 / samples, samples);
+
+		//removing every other flight must drop exactly the conflicts it was part of
+		t0 = System.nanoTime();
+		for (int i = 0; i < flights; i += 2) index.remove(i);
+		long removeNanos = System.nanoTime() - t0;
+		int left = 0;
+		for (ScheduleConflictIndex.Conflict c : all) {
+			if (c.flight1 % 2 == 1 && c.flight2 % 2 == 1) ++left;
+		}
+		int remaining = index.doubleBookings().size();
+		if (remaining != left) throw new IllegalStateException(remaining + " conflicts left, expected " + left);
+		System.out.printf("removed %d flights in %.0f ms, %d conflicts left%n", (flights + 1) / 2, removeNanos / 1e6, remaining);
+	}
+}
@@ -0,0 +1,111 @@
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures confirmed-booking throughput on a single hot flight.  For every
+ * client thread count the flight is emptied (num_sold = 0), all threads call
+ * DBproject.bookFlight until the first one gets waitlisted, and the time it
+ * took to sell every seat is recorded.  Each round also checks that exactly
+ * the plane's capacity was confirmed and that num_sold matches, i.e. that no
+ * seat was sold twice.  Reservations made by the benchmark are deleted and
+ * num_sold is restored afterwards.
+ */
+public class SeatAllocationBenchmark {
+	static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 6) {
+			System.err.println("Usage: java SeatAllocationBenchmark <dbname> <port> <user> <fnum> <fname> <lname> [rounds]");
+			return;
+		}
+		Class.forName("org.postgresql.Driver");
+		final int fid = Integer.parseInt(args[3]);
+		final String first = args[4], last = args[5];
+		int rounds = args.length > 6 ? Integer.parseInt(args[6]) : 10;
+
+		DBproject esql = new DBproject(args[0], args[1], args[2], "", THREADS[THREADS.length - 1]);
+		try {
+			List<List<String>> flight = esql.executeQueryAndReturnResult(
+				"Select P.seats, F.num_sold From Plane P, Flight F, FlightInfo I Where P.id = I.plane_id and F.fnum = I.flight_id and F.fnum = ?;", fid);
+			if (flight.isEmpty()) {
+				System.err.println("Flight " + fid + " has no plane assigned");
+				return;
+			}
+			int seats = Integer.parseInt(flight.get(0).get(0));
+			int originalSold = Integer.parseInt(flight.get(0).get(1));
+			int mark = Integer.parseInt(esql.executeQueryAndReturnResult("Select coalesce(max(rnum), 0) From Reservation;").get(0).get(0));
+
+			System.out.println("flight " + fid + ", " + seats + " seats, " + rounds + " rounds per thread count");
+			System.out.println("threads\tconfirmed/s\tms/round");
+			try {
+				for (int threads : THREADS) {
+					long totalNanos = 0;
+					for (int r = 0; r < rounds; ++r) {
+						reset(esql, fid, mark, 0);
+						totalNanos += fill(esql, fid, first, last, threads);
+						verify(esql, fid, seats, mark);
+					}
+					double seconds = totalNanos / 1e9;
+					System.out.printf("%d\t%.0f\t%.1f%n", threads, (double) seats * rounds / seconds, totalNanos / 1e6 / rounds);
+				}
+			} finally {
+				reset(esql, fid, mark, originalSold);
+			}
+		} finally {
+			esql.cleanup();
+		}
+	}
+
+	/**
+	 * Books from the given number of threads until the flight is full.
+	 *
+	 * @return elapsed nanoseconds
+	 */
+	static long fill(final DBproject esql, final int fid, final String first, final String last, int threads) throws Exception {
+		final AtomicBoolean full = new AtomicBoolean(false);
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; ++t) {
+			new Thread() {
+				public void run() {
+					try {
+						start.await();
+						while (!full.get()) {
+							List<List<String>> booking = esql.bookFlight(first, last, fid);
+							if (booking.get(0).get(1).equals("W")) full.set(true);
+						}
+					} catch (Exception e) {
+						errors.incrementAndGet();
+						full.set(true);
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+		if (errors.get() > 0) throw new IllegalStateException(errors.get() + " booking threads failed");
+		return elapsed;
+	}
+
+	static void verify(DBproject esql, int fid, int seats, int mark) throws SQLException {
+		List<String> r = esql.executeQueryAndReturnResult(
+			"Select (Select count(*) From Reservation Where fid = ? and rnum > ? and status = 'C'), (Select num_sold From Flight Where fnum = ?);",
+			fid, mark, fid).get(0);
+		int confirmed = Integer.parseInt(r.get(0)), sold = Integer.parseInt(r.get(1));
+		if (confirmed != seats || sold != seats)
+			throw new IllegalStateException("oversold: " + confirmed + " confirmed, num_sold " + sold + ", capacity " + seats);
+	}
+
+	static void reset(DBproject esql, int fid, int mark, int numSold) throws SQLException {
+		esql.executeUpdate("Delete From Reservation Where fid = ? and rnum > ?;", fid, mark);
+		esql.executeUpdate("Update Flight Set num_sold = ? Where fnum = ?;", numSold, fid);
+	}
+}
@@ -0,0 +1,16 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+SCALES=${4:-"1 10 100"}
+
+# Example: source ./benchscale.sh flightDB 5432 user "1 10 100"
+# For every scale factor: generate the data, reload it and benchmark every
+# menu operation; results are appended to operations.csv
+rm -rf bin/*.class
+javac -cp ".:lib/postgresql-42.1.4.jar" src/*.java bench/*.java -d bin/
+for SCALE in $SCALES; do
+	java -cp lib/*:bin/ DataGenerator /tmp/$USER/bench_data $SCALE
+	java -cp lib/*:bin/ BulkLoader $DBNAME $PORT $USER /tmp/$USER/bench_data --fresh
+	java -cp lib/*:bin/ OperationBenchmark $DBNAME $PORT $USER --label scale$SCALE "${@:5}"
+done
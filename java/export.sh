@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: source ./export.sh flightDB 5432 user csv flights.csv "Select * From Flight"
+# Streams the result of a query into a tab, csv or jsonl file
+java -cp lib/*:bin/ ResultExporter $DBNAME $PORT $USER "${@:4}"
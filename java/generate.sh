@@ -0,0 +1,7 @@
+#! /bin/bash
+OUT=$1
+SCALE=$2
+
+# Example: source ./generate.sh /tmp/data 10000
+# Scale factor 1 is the size of ../data, 10000 gives 100M reservations
+java -cp lib/*:bin/ DataGenerator $OUT $SCALE "${@:3}"
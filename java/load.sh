@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+DATA=${4:-../data}
+
+# Example: source ./load.sh flightDB 5432 user ../data
+# Loads the csv files from this machine; add --fresh to empty the tables first
+java -cp lib/*:bin/ BulkLoader $DBNAME $PORT $USER $DATA "${@:5}"
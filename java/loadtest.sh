@@ -0,0 +1,11 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+shift 3
+
+# Example: source ./loadtest.sh flightDB 5432 user --mix seats=70,book=20,repairs=10 --rate 500 --clients 64
+# Replays a mixed workload against the database; results are appended to load.csv
+rm -rf bin/*.class
+javac -cp ".:lib/postgresql-42.1.4.jar" src/*.java bench/*.java -d bin/
+java -cp lib/*:bin/ LoadGenerator $DBNAME $PORT $USER "$@"
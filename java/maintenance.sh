@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: source ./maintenance.sh flightDB 5432 user reconcile-status --fix
+# Runs a housekeeping job on the trigger-maintained summary tables or the partitions
+java -cp lib/*:bin/ Maintenance $DBNAME $PORT $USER "${@:4}"
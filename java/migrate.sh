@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: source ./migrate.sh flightDB 5432 user
+# Applies the pending migrations of ../sql/migrations; add --status to list them
+java -cp lib/*:bin/ Migrator $DBNAME $PORT $USER ../sql/migrations "${@:4}"
@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: source ./promote.sh flightDB 5432 user
+# Confirms waitlisted reservations as seats open (needs migration V008);
+# alternatively run BookingService with -Ddbproject.waitlist.promote=true
+java -cp lib/*:bin/ WaitlistPromoter $DBNAME $PORT $USER
@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+LISTEN=$4
+
+# Example: source ./serve.sh flightDB 5432 user 7800
+java -cp lib/*:bin/ BookingService $DBNAME $PORT $USER $LISTEN
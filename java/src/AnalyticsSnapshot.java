@@ -0,0 +1,829 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A column-oriented copy of Flight, FlightInfo, Plane and Reservation in
+ * memory, for reports that would otherwise scan the booking tables: load
+ * factor and revenue (cost * num_sold) per route, i.e. airport pair, and
+ * the status mix of the reservations per departure day.  Every column is a
+ * primitive array indexed by row slot, and airports and routes are
+ * numbered, so a group-by adds into a dense array of counters.
+ *
+ * A report splits the rows into about one range per worker of a
+ * ForkJoinPool; each task sums its range into counters of its own, and the
+ * counters are added up as the tasks join, so a scan runs on every core
+ * without locking.
+ *
+ * refresh() brings the snapshot up to date.  Rows are added in key order
+ * and the highest fnum, fiid and rnum loaded are kept as high-water marks,
+ * so a refresh only reads the rows inserted since the last one.  Changes to
+ * rows already loaded (num_sold, status, plane assignments, deletes) come
+ * from a ChangeFeed the snapshot is subscribed to and are applied by the
+ * next refresh too; without a feed only reload() picks them up.
+ *
+ * Keys are drawn from sequences when a row is inserted, not when it is
+ * committed, so a row can become visible after a row with a higher key was
+ * read and the mark passed it.  The feed reports its INSERT, and a refresh
+ * that finds the key below the mark but not loaded reads that row by key
+ * and puts it in its place.  Rows inserted without the triggers, e.g. by
+ * BulkLoader, are announced by a feed reset, which turns the next refresh
+ * into a reload.  Reports see the snapshot as of the last refresh.
+ */
+public class AnalyticsSnapshot implements ChangeFeed.Listener {
+
+	/**
+	 * Reads rows into the snapshot, each table in key order.
+	 */
+	public interface Loader {
+		/** Calls addFlight() for every flight with fnum above afterFnum. */
+		void flights(AnalyticsSnapshot snapshot, int afterFnum) throws SQLException;
+
+		/** Calls assignPlane() for every FlightInfo row with fiid above afterFiid. */
+		void flightInfo(AnalyticsSnapshot snapshot, int afterFiid) throws SQLException;
+
+		/** Calls putPlane() for every plane. */
+		void planes(AnalyticsSnapshot snapshot) throws SQLException;
+
+		/** Calls addReservation() for every reservation with rnum above afterRnum. */
+		void reservations(AnalyticsSnapshot snapshot, int afterRnum) throws SQLException;
+
+		/** Calls addFlight() for those of the flights, in ascending order, that exist. */
+		void lateFlights(AnalyticsSnapshot snapshot, int[] fnums) throws SQLException;
+
+		/** Calls addReservation() for those of the reservations, in ascending order, that exist. */
+		void lateReservations(AnalyticsSnapshot snapshot, int[] rnums) throws SQLException;
+	}
+
+	/**
+	 * Totals of the flights of one route.  Flights without a plane have no
+	 * seats; they count for the revenue but not for the load factor.
+	 */
+	public static class RouteStats {
+		public final String departureAirport, arrivalAirport;
+		public final long flights, seats, sold, revenue;
+		private final long seatedSold;
+
+		RouteStats(String departureAirport, String arrivalAirport, long flights, long seats, long sold, long seatedSold, long revenue) {
+			this.departureAirport = departureAirport;
+			this.arrivalAirport = arrivalAirport;
+			this.flights = flights;
+			this.seats = seats;
+			this.sold = sold;
+			this.seatedSold = seatedSold;
+			this.revenue = revenue;
+		}
+
+		/**
+		 * @return sold seats over available seats, 0 without seats
+		 */
+		public double getLoadFactor() {
+			return seats == 0 ? 0 : (double) seatedSold / seats;
+		}
+
+		/**
+		 * @return departure_airport, arrival_airport, flights, seats, sold,
+		 *         load factor, revenue
+		 */
+		public List<String> toRecord() {
+			return Arrays.asList(departureAirport, arrivalAirport, Long.toString(flights), Long.toString(seats),
+				Long.toString(sold), String.format("%.3f", getLoadFactor()), Long.toString(revenue));
+		}
+
+		@Override
+		public String toString() {
+			return departureAirport + "-" + arrivalAirport + " flights=" + flights + " load=" + String.format("%.3f", getLoadFactor()) +
+				" revenue=" + revenue;
+		}
+	}
+
+	/**
+	 * Reservations of the flights departing on one day, by status.
+	 */
+	public static class DayStatus {
+		public final LocalDate day;
+		public final long waiting, confirmed, reserved;
+
+		DayStatus(LocalDate day, long waiting, long confirmed, long reserved) {
+			this.day = day;
+			this.waiting = waiting;
+			this.confirmed = confirmed;
+			this.reserved = reserved;
+		}
+
+		/**
+		 * @return day, waiting, confirmed, reserved
+		 */
+		public List<String> toRecord() {
+			return Arrays.asList(day.toString(), Long.toString(waiting), Long.toString(confirmed), Long.toString(reserved));
+		}
+
+		@Override
+		public String toString() {
+			return day + " W=" + waiting + " C=" + confirmed + " R=" + reserved;
+		}
+	}
+
+	/**
+	 * Sums the rows lo .. hi - 1 into counters.
+	 */
+	private interface Aggregate {
+		void add(long[] counters, int lo, int hi);
+	}
+
+	/**
+	 * One range of a parallel scan: halves itself until it is no longer than
+	 * the grain, and returns the sum of the counters of both halves.
+	 */
+	private static final class Scan extends RecursiveTask<long[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final Aggregate aggregate;
+		private final int lo, hi, grain, size;
+
+		Scan(Aggregate aggregate, int lo, int hi, int grain, int size) {
+			this.aggregate = aggregate;
+			this.lo = lo;
+			this.hi = hi;
+			this.grain = grain;
+			this.size = size;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (hi - lo <= grain) {
+				long[] counters = new long[size];
+				aggregate.add(counters, lo, hi);
+				return counters;
+			}
+			int mid = (lo + hi) >>> 1;
+			Scan left = new Scan(aggregate, lo, mid, grain, size);
+			left.fork();
+			long[] sum = new Scan(aggregate, mid, hi, grain, size).compute();
+			long[] other = left.join();
+			for (int i = 0; i < size; ++i) sum[i] += other[i];
+			return sum;
+		}
+	}
+
+	//rows per task at least, below that forking costs more than it saves
+	static final int MIN_GRAIN = 1 << 14;
+	//feed changes kept for the next refresh; beyond that it reloads instead
+	static final int MAX_QUEUED = 1 << 20;
+	//reservation status codes, 0 for no status or deleted
+	static final byte WAITING = 1, CONFIRMED = 2, RESERVED = 3;
+	//counters per route: flights, seats, sold, sold on flights with seats, revenue
+	static final int ROUTE_WIDTH = 5;
+
+	private final Loader loader;
+	private final ForkJoinPool pool;
+
+	private final Map<String, Integer> airportIds = new HashMap<String, Integer>();
+	private final List<String> codes = new ArrayList<String>();
+	private final Map<Long, Integer> routeIds = new HashMap<Long, Integer>();
+	private int routes = 0;
+	private int[] routeFrom = new int[64], routeTo = new int[64];
+
+	//flights by slot, in fnum order; plane is -1 until assigned
+	private int flights = 0;
+	private int[] fnum = new int[1024], route = new int[1024], day = new int[1024];
+	private int[] cost = new int[1024], sold = new int[1024], plane = new int[1024];
+	private boolean[] gone = new boolean[1024];
+	private int minDay = Integer.MAX_VALUE, maxDay = Integer.MIN_VALUE;
+
+	//seats by plane id, 0 for unknown planes
+	private int[] planeSeats = new int[0];
+
+	//reservations by slot, in rnum order; flight is the slot of the flight
+	private int reservations = 0;
+	private int[] rnum = new int[1024], flight = new int[1024];
+	private byte[] status = new byte[1024];
+
+	//rows that arrived before their flight: reservation slot or plane id, and fnum
+	private int[] unresolved = new int[16], pendingPlanes = new int[16];
+	private int unresolvedCount = 0, pendingPlaneCount = 0;
+
+	private int flightMark = -1, fiidMark = -1, rnumMark = -1;
+	//keys below the marks whose INSERT the feed reported but no read returned
+	private int[] lateFlights = new int[16], lateReservations = new int[16];
+	private int lateFlightCount = 0, lateReservationCount = 0;
+	//set while refresh() reads late flights; the reservations are moved to the new flight slots once after the read
+	private boolean readingLateFlights = false;
+
+	private final Queue<ChangeFeed.Change> changes = new ConcurrentLinkedQueue<ChangeFeed.Change>();
+	private final AtomicInteger queued = new AtomicInteger();
+	private volatile boolean stale;
+
+	/**
+	 * @param loader reads the tables, or null for a snapshot that only holds
+	 *        what is added to it
+	 * @param pool runs the report scans
+	 */
+	public AnalyticsSnapshot(Loader loader, ForkJoinPool pool) {
+		this.loader = loader;
+		this.pool = pool;
+		this.stale = loader != null;
+	}
+
+	/**
+	 * Builds a snapshot that loads the tables through DBproject and scans on
+	 * the common ForkJoinPool.  It is empty until the first refresh().
+	 */
+	public static AnalyticsSnapshot forDatabase(final DBproject esql) {
+		return new AnalyticsSnapshot(new Loader() {
+			public void flights(final AnalyticsSnapshot s, int afterFnum) throws SQLException {
+				esql.forEachRow("Select fnum, departure_airport, arrival_airport, actual_departure_date, cost, num_sold " +
+					"From Flight Where fnum > ? Order by fnum;",
+					row -> s.addFlight(row.getInt(1), row.getString(2), row.getString(3), row.getDate(4), row.getInt(5), row.getInt(6)),
+					afterFnum);
+			}
+
+			public void flightInfo(final AnalyticsSnapshot s, int afterFiid) throws SQLException {
+				esql.forEachRow("Select fiid, flight_id, plane_id From FlightInfo Where fiid > ? Order by fiid;",
+					row -> s.assignPlane(row.getInt(1), row.getInt(2), row.getInt(3)), afterFiid);
+			}
+
+			public void planes(final AnalyticsSnapshot s) throws SQLException {
+				esql.forEachRow("Select id, seats From Plane;", row -> s.putPlane(row.getInt(1), row.getInt(2)));
+			}
+
+			public void reservations(final AnalyticsSnapshot s, int afterRnum) throws SQLException {
+				esql.forEachRow("Select rnum, fid, status From Reservation Where rnum > ? Order by rnum;",
+					row -> s.addReservation(row.getInt(1), row.getInt(2), row.getString(3)), afterRnum);
+			}
+
+			public void lateFlights(final AnalyticsSnapshot s, int[] fnums) throws SQLException {
+				esql.forEachRow("Select fnum, departure_airport, arrival_airport, actual_departure_date, cost, num_sold " +
+					"From Flight Where fnum = any(cast(? as int[])) Order by fnum;",
+					row -> s.addFlight(row.getInt(1), row.getString(2), row.getString(3), row.getDate(4), row.getInt(5), row.getInt(6)),
+					array(fnums));
+			}
+
+			public void lateReservations(final AnalyticsSnapshot s, int[] rnums) throws SQLException {
+				esql.forEachRow("Select rnum, fid, status From Reservation Where rnum = any(cast(? as int[])) Order by rnum;",
+					row -> s.addReservation(row.getInt(1), row.getInt(2), row.getString(3)), array(rnums));
+			}
+
+			//an int[] literal, which the driver binds as text
+			private String array(int[] keys) {
+				StringBuilder sb = new StringBuilder("{");
+				for (int i = 0; i < keys.length; ++i) sb.append(i == 0 ? "" : ",").append(keys[i]);
+				return sb.append('}').toString();
+			}
+		}, ForkJoinPool.commonPool());
+	}
+
+	/*
+	 * Loading and updates
+	 */
+
+	/**
+	 * Reads the rows inserted since the last refresh and applies the changes
+	 * the feed reported, or reloads everything after a feed reset.
+	 *
+	 * @throws java.sql.SQLException when a table cannot be read; the rows
+	 *         read so far stay and the next refresh continues after them
+	 */
+	public synchronized void refresh() throws SQLException {
+		if (loader == null) return;
+		if (stale) {
+			stale = false;
+			clear();
+		}
+		//flights before the rows that refer to them
+		loader.planes(this);
+		loader.flights(this, flightMark);
+		loader.flightInfo(this, fiidMark);
+		loader.reservations(this, rnumMark);
+		applyChanges();
+		//the late keys stay until their read succeeds; a retry skips the rows it got
+		if (lateFlightCount > 0) {
+			int[] keys = Arrays.stream(lateFlights, 0, lateFlightCount).filter(k -> flightSlot(k) < 0).sorted().toArray();
+			int[] before = Arrays.copyOf(fnum, flights);
+			readingLateFlights = true;
+			try {
+				loader.lateFlights(this, keys);
+			} finally {
+				readingLateFlights = false;
+				moveReservations(before);
+			}
+			lateFlightCount = 0;
+		}
+		if (lateReservationCount > 0) {
+			int[] keys = Arrays.stream(lateReservations, 0, lateReservationCount).filter(k -> reservationSlot(k) < 0).sorted().toArray();
+			loader.lateReservations(this, keys);
+			lateReservationCount = 0;
+		}
+		resolve();
+	}//end refresh
+
+	/**
+	 * Drops the snapshot and loads it again.
+	 */
+	public synchronized void reload() throws SQLException {
+		stale = true;
+		refresh();
+	}
+
+	private void clear() {
+		airportIds.clear();
+		codes.clear();
+		routeIds.clear();
+		routes = 0;
+		flights = 0;
+		reservations = 0;
+		unresolvedCount = 0;
+		pendingPlaneCount = 0;
+		minDay = Integer.MAX_VALUE;
+		maxDay = Integer.MIN_VALUE;
+		planeSeats = new int[0];
+		flightMark = fiidMark = rnumMark = -1;
+		lateFlightCount = lateReservationCount = 0;
+		changes.clear();
+		queued.set(0);
+	}
+
+	private int airport(String code) {
+		Integer id = airportIds.get(code);
+		if (id == null) {
+			id = codes.size();
+			airportIds.put(code, id);
+			codes.add(code);
+		}
+		return id;
+	}
+
+	private int route(int from, int to) {
+		Long key = ((long) from << 32) | to;
+		Integer id = routeIds.get(key);
+		if (id == null) {
+			id = routes++;
+			routeIds.put(key, id);
+			if (id == routeFrom.length) {
+				routeFrom = Arrays.copyOf(routeFrom, id * 2);
+				routeTo = Arrays.copyOf(routeTo, id * 2);
+			}
+			routeFrom[id] = from;
+			routeTo[id] = to;
+		}
+		return id;
+	}
+
+	/**
+	 * Appends a flight; called by the loader.  Flights must come in
+	 * ascending fnum order, except for late flights below the mark, which
+	 * are put in their place.
+	 */
+	public synchronized void addFlight(int fnum, String departureAirport, String arrivalAirport, LocalDate departure, int cost, int numSold) {
+		int s = flights;
+		if (fnum <= flightMark) {
+			s = Arrays.binarySearch(this.fnum, 0, flights, fnum);
+			if (s >= 0) throw new IllegalArgumentException("flight " + fnum + " is already loaded");
+			s = -s - 1;
+		}
+		if (flights == this.fnum.length) {
+			int capacity = flights * 2;
+			this.fnum = Arrays.copyOf(this.fnum, capacity);
+			route = Arrays.copyOf(route, capacity);
+			day = Arrays.copyOf(day, capacity);
+			this.cost = Arrays.copyOf(this.cost, capacity);
+			sold = Arrays.copyOf(sold, capacity);
+			plane = Arrays.copyOf(plane, capacity);
+			gone = Arrays.copyOf(gone, capacity);
+		}
+		if (s < flights) {
+			int n = flights - s;
+			System.arraycopy(this.fnum, s, this.fnum, s + 1, n);
+			System.arraycopy(route, s, route, s + 1, n);
+			System.arraycopy(day, s, day, s + 1, n);
+			System.arraycopy(this.cost, s, this.cost, s + 1, n);
+			System.arraycopy(sold, s, sold, s + 1, n);
+			System.arraycopy(plane, s, plane, s + 1, n);
+			System.arraycopy(gone, s, gone, s + 1, n);
+			if (!readingLateFlights) {
+				for (int i = 0; i < reservations; ++i) {
+					if (flight[i] >= s) ++flight[i];
+				}
+			}
+		}
+		++flights;
+		this.fnum[s] = fnum;
+		route[s] = route(airport(departureAirport.trim().toUpperCase()), airport(arrivalAirport.trim().toUpperCase()));
+		day[s] = (int) departure.toEpochDay();
+		this.cost[s] = cost;
+		sold[s] = numSold;
+		plane[s] = -1;
+		gone[s] = false;
+		minDay = Math.min(minDay, day[s]);
+		maxDay = Math.max(maxDay, day[s]);
+		flightMark = Math.max(flightMark, fnum);
+	}
+
+	/**
+	 * Records the plane of a flight from a FlightInfo row; called by the
+	 * loader in ascending fiid order.
+	 */
+	public synchronized void assignPlane(int fiid, int flightId, int planeId) {
+		int s = flightSlot(flightId);
+		if (s >= 0) {
+			plane[s] = planeId;
+		} else {
+			if (pendingPlaneCount + 2 > pendingPlanes.length) pendingPlanes = Arrays.copyOf(pendingPlanes, pendingPlanes.length * 2);
+			pendingPlanes[pendingPlaneCount++] = planeId;
+			pendingPlanes[pendingPlaneCount++] = flightId;
+		}
+		fiidMark = Math.max(fiidMark, fiid);
+	}
+
+	/**
+	 * Sets the seats of a plane; called by the loader.
+	 */
+	public synchronized void putPlane(int id, int seats) {
+		if (id < 0) throw new IllegalArgumentException("negative plane id " + id);
+		if (id >= planeSeats.length) planeSeats = Arrays.copyOf(planeSeats, Math.max(id + 1, planeSeats.length * 2));
+		planeSeats[id] = seats;
+	}
+
+	/**
+	 * Appends a reservation; called by the loader in ascending rnum order,
+	 * except for late reservations below the mark, which are put in their
+	 * place.
+	 *
+	 * @param status W, C or R, or null
+	 */
+	public synchronized void addReservation(int rnum, int fid, String status) {
+		int s = reservations;
+		if (rnum <= rnumMark) {
+			s = Arrays.binarySearch(this.rnum, 0, reservations, rnum);
+			if (s >= 0) throw new IllegalArgumentException("reservation " + rnum + " is already loaded");
+			s = -s - 1;
+		}
+		if (reservations == this.rnum.length) {
+			int capacity = reservations * 2;
+			this.rnum = Arrays.copyOf(this.rnum, capacity);
+			flight = Arrays.copyOf(flight, capacity);
+			this.status = Arrays.copyOf(this.status, capacity);
+		}
+		if (s < reservations) {
+			int n = reservations - s;
+			System.arraycopy(this.rnum, s, this.rnum, s + 1, n);
+			System.arraycopy(flight, s, flight, s + 1, n);
+			System.arraycopy(this.status, s, this.status, s + 1, n);
+			for (int i = 0; i < unresolvedCount; i += 2) {
+				if (unresolved[i] >= s) ++unresolved[i];
+			}
+		}
+		++reservations;
+		this.rnum[s] = rnum;
+		this.status[s] = code(status);
+		setFlight(s, fid);
+		rnumMark = Math.max(rnumMark, rnum);
+	}
+
+	private static byte code(String status) {
+		if (status == null || status.isEmpty()) return 0;
+		switch (Character.toUpperCase(status.charAt(0))) {
+			case 'W': return WAITING;
+			case 'C': return CONFIRMED;
+			case 'R': return RESERVED;
+			default: return 0;
+		}
+	}
+
+	private void setFlight(int reservation, int fid) {
+		int f = flightSlot(fid);
+		flight[reservation] = f;
+		if (f < 0) {
+			if (unresolvedCount + 2 > unresolved.length) unresolved = Arrays.copyOf(unresolved, unresolved.length * 2);
+			unresolved[unresolvedCount++] = reservation;
+			unresolved[unresolvedCount++] = fid;
+		}
+	}
+
+	private int flightSlot(int fnum) {
+		int s = Arrays.binarySearch(this.fnum, 0, flights, fnum);
+		return s < 0 ? -1 : s;
+	}
+
+	private int reservationSlot(int rnum) {
+		int s = Arrays.binarySearch(this.rnum, 0, reservations, rnum);
+		return s < 0 ? -1 : s;
+	}
+
+	/*
+	 * Rows whose flight was inserted after the flights were read get it on a
+	 * later refresh.
+	 */
+	private void resolve() {
+		int kept = 0;
+		for (int i = 0; i < pendingPlaneCount; i += 2) {
+			int s = flightSlot(pendingPlanes[i + 1]);
+			if (s >= 0) {
+				plane[s] = pendingPlanes[i];
+			} else {
+				pendingPlanes[kept++] = pendingPlanes[i];
+				pendingPlanes[kept++] = pendingPlanes[i + 1];
+			}
+		}
+		pendingPlaneCount = kept;
+
+		int count = unresolvedCount;
+		unresolvedCount = 0;
+		for (int i = 0; i < count; i += 2) {
+			//re-adds the ones still missing
+			if (flight[unresolved[i]] < 0) setFlight(unresolved[i], unresolved[i + 1]);
+		}
+	}
+
+	/*
+	 * The payloads carry the new values, so applying a change that the rows
+	 * read by this refresh already reflect does no harm.  Inserts are left
+	 * to the high-water marks, unless the row is below its mark and was not
+	 * read; then it is late and refresh() reads it by key.  Changes to a
+	 * late row before that read are already in what the read returns.
+	 */
+	private void applyChanges() {
+		ChangeFeed.Change c;
+		while ((c = changes.poll()) != null) {
+			queued.decrementAndGet();
+			if (c instanceof ChangeFeed.FlightChange) {
+				ChangeFeed.FlightChange f = (ChangeFeed.FlightChange) c;
+				int s = flightSlot(f.fnum);
+				if (s < 0) {
+					if (f.op == ChangeFeed.Op.INSERT && f.fnum <= flightMark) lateFlight(f.fnum);
+					continue;
+				}
+				if (f.op == ChangeFeed.Op.INSERT) continue;
+				if (f.op == ChangeFeed.Op.DELETE) gone[s] = true;
+				else sold[s] = f.numSold;
+			} else if (c instanceof ChangeFeed.FlightInfoChange) {
+				ChangeFeed.FlightInfoChange i = (ChangeFeed.FlightInfoChange) c;
+				int s = flightSlot(i.flightId);
+				if (s >= 0) {
+					plane[s] = i.op == ChangeFeed.Op.DELETE ? -1 : i.planeId;
+				} else if (i.op != ChangeFeed.Op.DELETE) {
+					//the FlightInfo row may be below fiidMark, so keep it for a late flight
+					assignPlane(-1, i.flightId, i.planeId);
+				}
+			} else if (c instanceof ChangeFeed.PlaneChange) {
+				ChangeFeed.PlaneChange p = (ChangeFeed.PlaneChange) c;
+				if (p.op != ChangeFeed.Op.DELETE) putPlane(p.id, p.seats);
+			} else if (c instanceof ChangeFeed.ReservationChange) {
+				ChangeFeed.ReservationChange r = (ChangeFeed.ReservationChange) c;
+				int s = reservationSlot(r.rnum);
+				if (s < 0) {
+					if (r.op == ChangeFeed.Op.INSERT && r.rnum <= rnumMark) lateReservation(r.rnum);
+					continue;
+				}
+				if (r.op == ChangeFeed.Op.INSERT) continue;
+				if (r.op == ChangeFeed.Op.DELETE) {
+					status[s] = 0;
+				} else {
+					status[s] = code(r.status);
+					if (flight[s] < 0 || fnum[flight[s]] != r.fid) setFlight(s, r.fid);
+				}
+			}
+		}
+	}//end applyChanges
+
+	/*
+	 * Late flights were put between the flights that were loaded before, in
+	 * fnum order, so every old slot maps to the slot of the same fnum now.
+	 */
+	private void moveReservations(int[] before) {
+		if (before.length == flights) return;
+		int[] slot = new int[before.length];
+		for (int o = 0, n = 0; o < before.length; ++o) {
+			while (fnum[n] != before[o]) ++n;
+			slot[o] = n;
+		}
+		for (int i = 0; i < reservations; ++i) {
+			if (flight[i] >= 0) flight[i] = slot[flight[i]];
+		}
+	}
+
+	private void lateFlight(int fnum) {
+		if (lateFlightCount == lateFlights.length) lateFlights = Arrays.copyOf(lateFlights, lateFlightCount * 2);
+		lateFlights[lateFlightCount++] = fnum;
+	}
+
+	private void lateReservation(int rnum) {
+		if (lateReservationCount == lateReservations.length) lateReservations = Arrays.copyOf(lateReservations, lateReservationCount * 2);
+		lateReservations[lateReservationCount++] = rnum;
+	}
+
+	//ChangeFeed.Listener, called on the feed's thread; only queues
+
+	private void queue(ChangeFeed.Change c) {
+		if (queued.incrementAndGet() > MAX_QUEUED) {
+			stale = true;
+			return;
+		}
+		changes.add(c);
+	}
+
+	public void flight(ChangeFeed.FlightChange c) {
+		queue(c);
+	}
+
+	public void flightInfo(ChangeFeed.FlightInfoChange c) {
+		queue(c);
+	}
+
+	public void plane(ChangeFeed.PlaneChange c) {
+		queue(c);
+	}
+
+	public void reservation(ChangeFeed.ReservationChange c) {
+		queue(c);
+	}
+
+	public void reset() {
+		if (loader != null) stale = true;
+	}
+
+	/*
+	 * Reports
+	 */
+
+	private long[] scan(int rows, int size, Aggregate aggregate) {
+		int parallelism = pool.getParallelism();
+		int grain = Math.max(MIN_GRAIN, (rows + parallelism - 1) / parallelism);
+		return pool.invoke(new Scan(aggregate, 0, rows, grain, size));
+	}
+
+	/**
+	 * @param first first departure day, or null for no lower bound
+	 * @param last last departure day, or null for no upper bound
+	 * @return the totals of every route with flights departing in the days
+	 */
+	public synchronized List<RouteStats> routes(LocalDate first, LocalDate last) {
+		final int lo = first == null ? Integer.MIN_VALUE : (int) first.toEpochDay();
+		final int hi = last == null ? Integer.MAX_VALUE : (int) last.toEpochDay();
+		final int[] route = this.route, day = this.day, cost = this.cost, sold = this.sold, plane = this.plane, seatsOf = this.planeSeats;
+		final boolean[] gone = this.gone;
+		long[] totals = scan(flights, routes * ROUTE_WIDTH, (c, from, to) -> {
+			for (int i = from; i < to; ++i) {
+				if (gone[i] || day[i] < lo || day[i] > hi) continue;
+				int k = route[i] * ROUTE_WIDTH, p = plane[i];
+				int seats = p >= 0 && p < seatsOf.length ? seatsOf[p] : 0;
+				c[k] += 1;
+				c[k + 1] += seats;
+				c[k + 2] += sold[i];
+				if (seats > 0) c[k + 3] += sold[i];
+				c[k + 4] += (long) cost[i] * sold[i];
+			}
+		});
+
+		List<RouteStats> result = new ArrayList<RouteStats>();
+		for (int r = 0; r < routes; ++r) {
+			int k = r * ROUTE_WIDTH;
+			if (totals[k] == 0) continue;
+			result.add(new RouteStats(codes.get(routeFrom[r]), codes.get(routeTo[r]),
+				totals[k], totals[k + 1], totals[k + 2], totals[k + 3], totals[k + 4]));
+		}
+		return result;
+	}//end routes
+
+	/**
+	 * @return the routes with the highest load factor in the days, best first
+	 */
+	public List<RouteStats> topRoutesByLoadFactor(LocalDate first, LocalDate last, int limit) {
+		return top(routes(first, last), limit, Comparator.comparingDouble(RouteStats::getLoadFactor).thenComparingLong(s -> s.revenue));
+	}
+
+	/**
+	 * @return the airport pairs with the highest revenue in the days, best first
+	 */
+	public List<RouteStats> topRoutesByRevenue(LocalDate first, LocalDate last, int limit) {
+		return top(routes(first, last), limit, Comparator.<RouteStats>comparingLong(s -> s.revenue).thenComparingLong(s -> s.sold));
+	}
+
+	/*
+	 * The limit largest elements by order, largest first, through a heap of
+	 * limit elements.
+	 */
+	static <T> List<T> top(List<T> all, int limit, Comparator<T> order) {
+		if (limit < 1) throw new IllegalArgumentException("limit must be positive");
+		PriorityQueue<T> heap = new PriorityQueue<T>(Math.min(limit, Math.max(1, all.size())), order);
+		for (T t : all) {
+			if (heap.size() < limit) {
+				heap.add(t);
+			} else if (order.compare(t, heap.peek()) > 0) {
+				heap.poll();
+				heap.add(t);
+			}
+		}
+		List<T> result = new ArrayList<T>(heap);
+		result.sort(Collections.reverseOrder(order));
+		return result;
+	}
+
+	/**
+	 * @param first first departure day, or null for the earliest flight
+	 * @param last last departure day, or null for the latest flight
+	 * @return per departure day with reservations, the number of them in
+	 *         each status, by day
+	 */
+	public synchronized List<DayStatus> statusByDay(LocalDate first, LocalDate last) {
+		final int lo = first == null ? minDay : Math.max(minDay, (int) first.toEpochDay());
+		final int hi = last == null ? maxDay : Math.min(maxDay, (int) last.toEpochDay());
+		List<DayStatus> result = new ArrayList<DayStatus>();
+		if (lo > hi) return result;
+
+		final int[] flight = this.flight, day = this.day;
+		final byte[] status = this.status;
+		final boolean[] gone = this.gone;
+		long[] counts = scan(reservations, (hi - lo + 1) * 3, (c, from, to) -> {
+			for (int i = from; i < to; ++i) {
+				int f = flight[i], st = status[i];
+				if (f < 0 || st == 0 || gone[f]) continue;
+				int d = day[f];
+				if (d < lo || d > hi) continue;
+				++c[(d - lo) * 3 + st - 1];
+			}
+		});
+
+		for (int d = 0; d <= hi - lo; ++d) {
+			long w = counts[d * 3], c = counts[d * 3 + 1], r = counts[d * 3 + 2];
+			if (w + c + r > 0) result.add(new DayStatus(LocalDate.ofEpochDay(lo + d), w, c, r));
+		}
+		return result;
+	}//end statusByDay
+
+	public synchronized int flights() {
+		return flights;
+	}
+
+	public synchronized int reservations() {
+		return reservations;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "flights=" + flights + " reservations=" + reservations + " routes=" + routes + " airports=" + codes.size() +
+			" marks fnum=" + flightMark + " fiid=" + fiidMark + " rnum=" + rnumMark;
+	}
+
+	/**
+	 * Loads a snapshot and prints the reports, e.g.
+	 *	java AnalyticsSnapshot flightDB 5432 user 2014-01-01 2014-12-31 10
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + AnalyticsSnapshot.class.getName () +
+					" <dbname> <port> <user> [first day] [last day] [top n]");
+			return;
+		}//end if
+
+		DBproject esql = null;
+		try {
+			Class.forName("org.postgresql.Driver");
+			LocalDate first = args.length > 3 ? LocalDate.parse(args[3]) : null;
+			LocalDate last = args.length > 4 ? LocalDate.parse(args[4]) : null;
+			int limit = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+			esql = new DBproject(args[0], args[1], args[2], "", 4);
+			AnalyticsSnapshot snapshot = forDatabase(esql);
+
+			long start = System.nanoTime();
+			snapshot.refresh();
+			System.out.printf("Loaded %s in %.0f ms%n", snapshot, (System.nanoTime() - start) / 1e6);
+
+			start = System.nanoTime();
+			List<RouteStats> byLoad = snapshot.topRoutesByLoadFactor(first, last, limit);
+			System.out.printf("%nRoutes by load factor (%.1f ms)%n", (System.nanoTime() - start) / 1e6);
+			for (RouteStats s : byLoad) System.out.println(String.join("\t", s.toRecord()));
+
+			start = System.nanoTime();
+			List<RouteStats> byRevenue = snapshot.topRoutesByRevenue(first, last, limit);
+			System.out.printf("%nAirport pairs by revenue (%.1f ms)%n", (System.nanoTime() - start) / 1e6);
+			for (RouteStats s : byRevenue) System.out.println(String.join("\t", s.toRecord()));
+
+			start = System.nanoTime();
+			List<DayStatus> days = snapshot.statusByDay(first, last);
+			System.out.printf("%nReservations per departure day, W C R (%.1f ms)%n", (System.nanoTime() - start) / 1e6);
+			for (DayStatus d : days) System.out.println(String.join("\t", d.toRecord()));
+
+			start = System.nanoTime();
+			snapshot.refresh();
+			System.out.printf("%nRefreshed in %.1f ms, %s%n", (System.nanoTime() - start) / 1e6, snapshot);
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		} finally {
+			if (esql != null) esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,247 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CompletableFuture versions of the DBproject query methods, so a caller can
+ * have several independent queries in flight at once.  Calls run on a
+ * bounded pool of worker threads over the pooled connections of the
+ * DBproject; when the queue is full the returned future fails with a
+ * RejectedExecutionException instead of queueing without limit.
+ *
+ * Every call takes a timeout in milliseconds (0 for none).  When it
+ * expires, or when the future is cancelled, the future completes right away
+ * and a running statement is cancelled on the server.  A call that has not
+ * started yet is skipped.
+ */
+public class AsyncDBproject {
+
+	/**
+	 * Work of call(), run on a worker thread.
+	 */
+	public interface Task<T> {
+		T run() throws SQLException;
+	}
+
+	/**
+	 * Body of a query: runs the prepared and bound statement.
+	 */
+	private interface Body<T> {
+		T run(PreparedStatement stmt) throws SQLException;
+	}
+
+	/**
+	 * One submitted call.  Holds the running statement so that a timeout or
+	 * a cancel can stop it on the server.
+	 */
+	private static class Call<T> extends CompletableFuture<T> {
+		private Statement statement = null;
+
+		synchronized void running(Statement stmt) throws SQLException {
+			if (isDone()) throw new SQLException("Query was cancelled before it started");
+			statement = stmt;
+		}
+
+		synchronized void finished() {
+			statement = null;
+		}
+
+		synchronized void cancelStatement() {
+			if (statement == null) return;
+			try {
+				statement.cancel();
+			}catch (SQLException e){
+				// ignored, the query finishes on its own.
+			}
+		}
+	}
+
+	/**
+	 * Queued work of a call, so shutdown() can fail the calls it drops.
+	 */
+	private static class Job implements Runnable {
+		final Call<?> call;
+		final Runnable work;
+
+		Job(Call<?> call, Runnable work) {
+			this.call = call;
+			this.work = work;
+		}
+
+		public void run() {
+			if (!call.isDone()) work.run();
+		}
+	}
+
+	private final DBproject esql;
+	private final ThreadPoolExecutor workers;
+	private final ScheduledExecutorService timer;
+
+	/**
+	 * @param esql the connections and metrics the calls use
+	 * @param threads number of worker threads, usually the pool size
+	 * @param queueSize number of calls that may wait for a worker
+	 */
+	public AsyncDBproject(DBproject esql, int threads, int queueSize) {
+		this.esql = esql;
+		final AtomicInteger n = new AtomicInteger();
+		this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(queueSize), r -> {
+				Thread t = new Thread(r, "dbproject-async-" + n.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "dbproject-async-timer");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.setRemoveOnCancelPolicy(true);
+		this.timer = timer;
+	}
+
+	/**
+	 * Asynchronous DBproject.executeUpdate.
+	 *
+	 * @return completes with the number of rows updated
+	 */
+	public CompletableFuture<Integer> executeUpdate(long timeoutMillis, String sql, Object... params) {
+		return query(timeoutMillis, sql, params, stmt -> stmt.executeUpdate());
+	}
+
+	/**
+	 * Asynchronous DBproject.executeQuery.
+	 *
+	 * @return completes with 1 when the query returned rows, 0 otherwise
+	 */
+	public CompletableFuture<Integer> executeQuery(long timeoutMillis, String query, Object... params) {
+		return query(timeoutMillis, query, params, stmt -> {
+			ResultSet rs = stmt.executeQuery();
+			try {
+				return rs.next() ? 1 : 0;
+			} finally {
+				rs.close();
+			}
+		});
+	}
+
+	/**
+	 * Asynchronous DBproject.executeQueryAndReturnResult.
+	 *
+	 * @return completes with the result as a list of records
+	 */
+	public CompletableFuture<List<List<String>>> executeQueryAndReturnResult(long timeoutMillis, String query, Object... params) {
+		return query(timeoutMillis, query, params, stmt -> {
+			ResultSet rs = stmt.executeQuery();
+			try {
+				ResultSetMetaData rsmd = rs.getMetaData();
+				int numCol = rsmd.getColumnCount();
+				List<List<String>> result = new ArrayList<List<String>>();
+				while (rs.next()) {
+					List<String> record = new ArrayList<String>(numCol);
+					for (int i = 1; i <= numCol; ++i) record.add(rs.getString(i));
+					result.add(record);
+				}
+				return result;
+			} finally {
+				rs.close();
+			}
+		});
+	}
+
+	/**
+	 * Runs any blocking work, e.g. a DBproject operation, on a worker.  A
+	 * timeout or cancel completes the future, but cannot stop work that has
+	 * already started.
+	 */
+	public <T> CompletableFuture<T> call(long timeoutMillis, final Task<T> task) {
+		final Call<T> call = new Call<T>();
+		return submit(call, timeoutMillis, () -> {
+			try {
+				call.complete(task.run());
+			}catch (Throwable e){
+				call.completeExceptionally(e);
+			}
+		});
+	}
+
+	private <T> CompletableFuture<T> query(long timeoutMillis, final String sql, final Object[] params, final Body<T> body) {
+		final Call<T> call = new Call<T>();
+		return submit(call, timeoutMillis, () -> {
+			long start = System.nanoTime();
+			long rows = 0;
+			boolean failed = true;
+			ConnectionPool.PooledConnection conn = null;
+			try {
+				conn = esql.getPool().borrow();
+				PreparedStatement stmt = conn.prepare(sql);
+				DBproject.bind(stmt, params);
+				call.running(stmt);
+				T result;
+				try {
+					result = body.run(stmt);
+				} finally {
+					call.finished();
+				}
+				failed = false;
+				if (result instanceof List) rows = ((List<?>) result).size();
+				else if (result instanceof Integer) rows = (Integer) result;
+				call.complete(result);
+			}catch (Throwable e){
+				call.completeExceptionally(e);
+			}finally{
+				esql.getPool().release(conn);
+				esql.getMetrics().query(sql, params, start, rows, 0, failed);
+			}
+		});
+	}
+
+	private <T> CompletableFuture<T> submit(final Call<T> call, long timeoutMillis, Runnable work) {
+		try {
+			workers.execute(new Job(call, work));
+		}catch (RejectedExecutionException e){
+			call.completeExceptionally(e);
+			return call;
+		}
+		if (timeoutMillis > 0) {
+			final Future<?> timeout = timer.schedule(() -> {
+				if (call.completeExceptionally(new TimeoutException("Query did not finish within " + timeoutMillis + " ms")))
+					call.cancelStatement();
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+			call.whenComplete((r, e) -> timeout.cancel(false));
+		}
+		call.whenComplete((r, e) -> {
+			if (e instanceof CancellationException) call.cancelStatement();
+		});
+		return call;
+	}
+
+	/**
+	 * Stops the workers.  Calls that have not started fail with a
+	 * RejectedExecutionException, running ones finish.
+	 */
+	public void shutdown() {
+		workers.shutdown();
+		List<Runnable> queued = new ArrayList<Runnable>();
+		workers.getQueue().drainTo(queued);
+		for (Runnable r : queued) {
+			((Job) r).call.completeExceptionally(new RejectedExecutionException("shut down"));
+		}
+		timer.shutdownNow();
+	}
+}
@@ -0,0 +1,244 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Batched counterpart of AddPlane, AddPilot, AddFlight and AddTechnician for
+ * onboarding whole fleets and crews at once.  Each batch of batchSize rows
+ * is one multi-row INSERT ... VALUES (...), (...) RETURNING statement, so a
+ * batch costs one round trip, and batchesPerTransaction batches are
+ * committed together instead of once per row.  (The driver cannot rewrite
+ * an executeBatch into multi-row INSERTs when it has to return generated
+ * keys, so the statement is built here.)
+ *
+ * Every method returns the SERIAL ids generated for the rows, in the order of
+ * the input collection, so no currval lookup is needed afterwards.
+ */
+public class BatchIngest {
+
+	public static class Plane {
+		public final String make;
+		public final String model;
+		public final int age;
+		public final int seats;
+
+		public Plane(String make, String model, int age, int seats) {
+			this.make = make;
+			this.model = model;
+			this.age = age;
+			this.seats = seats;
+		}
+	}
+
+	public static class Pilot {
+		public final String fullname;
+		public final String nationality;
+
+		public Pilot(String fullname, String nationality) {
+			this.fullname = fullname;
+			this.nationality = nationality;
+		}
+	}
+
+	public static class Flight {
+		public final int cost;
+		public final int numSold;
+		public final int numStops;
+		public final String departureDate;	// YYYY-MM-DD
+		public final String arrivalDate;	// YYYY-MM-DD
+		public final String arrivalAirport;
+		public final String departureAirport;
+
+		public Flight(int cost, int numSold, int numStops, String departureDate, String arrivalDate, String arrivalAirport, String departureAirport) {
+			this.cost = cost;
+			this.numSold = numSold;
+			this.numStops = numStops;
+			this.departureDate = departureDate;
+			this.arrivalDate = arrivalDate;
+			this.arrivalAirport = arrivalAirport;
+			this.departureAirport = departureAirport;
+		}
+	}
+
+	public static class Technician {
+		public final String fullName;
+
+		public Technician(String fullName) {
+			this.fullName = fullName;
+		}
+	}
+
+	/**
+	 * Sets the parameters of one row of the INSERT, starting at index first.
+	 */
+	interface Binder<T> {
+		void bind(PreparedStatement stmt, int first, T row) throws SQLException;
+	}
+
+	//the most bind parameters the protocol allows in one statement
+	static final int MAX_PARAMETERS = 32767;
+
+	private final ConnectionPool pool;
+	private final int batchSize;
+	private final int batchesPerTransaction;
+
+	/**
+	 * @param pool where the connections come from
+	 * @param batchSize number of rows per INSERT statement
+	 * @param batchesPerTransaction number of batches committed together
+	 */
+	public BatchIngest(ConnectionPool pool, int batchSize, int batchesPerTransaction) {
+		if (batchSize < 1 || batchesPerTransaction < 1) throw new IllegalArgumentException("batch sizes must be positive");
+		this.pool = pool;
+		this.batchSize = batchSize;
+		this.batchesPerTransaction = batchesPerTransaction;
+	}
+
+	public int[] addPlanes(Collection<Plane> planes) throws SQLException {
+		return insert("Plane", "make, model, age, seats", 4, "id", planes,
+			new Binder<Plane>() {
+				public void bind(PreparedStatement stmt, int first, Plane p) throws SQLException {
+					stmt.setString(first, p.make);
+					stmt.setString(first + 1, p.model);
+					stmt.setInt(first + 2, p.age);
+					stmt.setInt(first + 3, p.seats);
+				}
+			});
+	}
+
+	public int[] addPilots(Collection<Pilot> pilots) throws SQLException {
+		return insert("Pilot", "fullname, nationality", 2, "id", pilots,
+			new Binder<Pilot>() {
+				public void bind(PreparedStatement stmt, int first, Pilot p) throws SQLException {
+					stmt.setString(first, p.fullname);
+					stmt.setString(first + 1, p.nationality);
+				}
+			});
+	}
+
+	public int[] addFlights(Collection<Flight> flights) throws SQLException {
+		return insert("Flight", "cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport", 7, "fnum", flights,
+			new Binder<Flight>() {
+				public void bind(PreparedStatement stmt, int first, Flight f) throws SQLException {
+					stmt.setInt(first, f.cost);
+					stmt.setInt(first + 1, f.numSold);
+					stmt.setInt(first + 2, f.numStops);
+					stmt.setDate(first + 3, java.sql.Date.valueOf(f.departureDate));
+					stmt.setDate(first + 4, java.sql.Date.valueOf(f.arrivalDate));
+					stmt.setString(first + 5, f.arrivalAirport.toUpperCase());
+					stmt.setString(first + 6, f.departureAirport.toUpperCase());
+				}
+			});
+	}
+
+	public int[] addTechnicians(Collection<Technician> technicians) throws SQLException {
+		return insert("Technician", "full_name", 1, "id", technicians,
+			new Binder<Technician>() {
+				public void bind(PreparedStatement stmt, int first, Technician t) throws SQLException {
+					stmt.setString(first, t.fullName);
+				}
+			});
+	}
+
+	/**
+	 * Inserts the rows in batches and collects the generated keys.  When a
+	 * batch fails, the open transaction (at most batchesPerTransaction
+	 * batches) is rolled back; the rows of earlier transactions stay committed.
+	 *
+	 * @param table the table
+	 * @param columns the inserted columns, comma separated
+	 * @param columnCount the number of inserted columns
+	 * @param key the SERIAL column to return
+	 * @param rows the rows to insert
+	 * @param binder sets the parameters of one row
+	 * @return the generated keys, in input order
+	 * @throws java.sql.SQLException when a batch fails
+	 */
+	<T> int[] insert(String table, String columns, int columnCount, String key, Collection<T> rows, Binder<T> binder) throws SQLException {
+		int[] ids = new int[rows.size()];
+		int n = 0, committed = 0, batches = 0;
+		int perStatement = Math.min(batchSize, MAX_PARAMETERS / columnCount);
+
+		List<T> pending = new ArrayList<T>(perStatement);
+
+		ConnectionPool.PooledConnection pc = pool.borrow();
+		PreparedStatement full = null;
+		try {
+			Connection conn = pc.getConnection();
+			conn.setAutoCommit(false);
+			try {
+				full = conn.prepareStatement(insertSql(table, columns, columnCount, key, perStatement));
+				for (T row : rows) {
+					pending.add(row);
+					if (pending.size() == perStatement) {
+						n = execute(full, columnCount, binder, pending, ids, n);
+						if (++batches == batchesPerTransaction) {
+							conn.commit();
+							committed = n;
+							batches = 0;
+						}
+					}
+				}
+				if (!pending.isEmpty()) {
+					//the last rows do not fill a statement, they get a shorter one
+					PreparedStatement last = conn.prepareStatement(insertSql(table, columns, columnCount, key, pending.size()));
+					try {
+						n = execute(last, columnCount, binder, pending, ids, n);
+					} finally {
+						last.close();
+					}
+				}
+				conn.commit();
+				committed = n;
+			} catch (SQLException e) {
+				conn.rollback();
+				throw new SQLException("Batch insert failed after " + committed + " committed rows: " + e.getMessage(), e);
+			} finally {
+				if (full != null) full.close();
+			}
+		} finally {
+			pool.release(pc);
+		}
+		return ids;
+	}//end insert
+
+	/*
+	 * INSERT INTO table (columns) VALUES (?, ...), ... RETURNING key, with
+	 * rows value lists.
+	 */
+	static String insertSql(String table, String columns, int columnCount, String key, int rows) {
+		StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (").append(columns).append(") VALUES ");
+		for (int r = 0; r < rows; ++r) {
+			sql.append(r == 0 ? "(" : ", (");
+			for (int c = 0; c < columnCount; ++c) sql.append(c == 0 ? "?" : ", ?");
+			sql.append(')');
+		}
+		return sql.append(" RETURNING ").append(key).toString();
+	}
+
+	/*
+	 * Binds the pending rows, runs the statement and empties the list.  The
+	 * SERIAL defaults are drawn in VALUES order, so sorting the returned
+	 * keys of one statement puts them in input order even when other
+	 * sessions draw from the sequence at the same time.
+	 */
+	private static <T> int execute(PreparedStatement stmt, int columnCount, Binder<T> binder, List<T> pending, int[] ids, int n) throws SQLException {
+		for (int r = 0; r < pending.size(); ++r) {
+			binder.bind(stmt, r * columnCount + 1, pending.get(r));
+		}
+		pending.clear();
+		int from = n;
+		ResultSet keys = stmt.executeQuery();
+		while (keys.next()) {
+			ids[n++] = keys.getInt(1);
+		}
+		keys.close();
+		Arrays.sort(ids, from, n);
+		return n;
+	}
+}
@@ -0,0 +1,404 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless front end for the DBproject menu operations.  Instead of the stdin
+ * menu loop it listens on a loopback TCP port and serves a line protocol, one
+ * client connection per task on an executor, so many booking agents can run
+ * operations at the same time over the pooled connections of one DBproject.
+ *
+ * A request is one line of tab separated fields, the operation name first:
+ *
+ *	ADD_PLANE make model age seats
+ *	ADD_PILOT fullname nationality
+ *	ADD_FLIGHT cost num_sold num_stops departure_date arrival_date arrival_airport departure_airport	(replies with fnum)
+ *	ASSIGN_FLIGHT fnum pilot_id plane_id force	(force is true or false; replies with the
+ *			conflicting flights, which were not assigned unless force is true)
+ *	DOUBLE_BOOKINGS		(replies with resource, id and the two flights of every conflict)
+ *	ADD_TECHNICIAN full_name
+ *	BOOK_FLIGHT fname lname fnum		(replies with rnum and status C or W; fails for a shared name)
+ *	BOOK_FLIGHT_ID cid fnum		(replies with rnum and status C or W)
+ *	CANCEL rnum		(replies with fnum and the cancelled status, no row if unknown)
+ *	FLIGHTS_ON date
+ *	SEARCH_FLIGHTS from_date to_date departure_airport arrival_airport after_date after_fnum limit
+ *			(airports and the after key may be empty; the next page starts
+ *			after the date and fnum of the last row)
+ *	AVAILABLE_SEATS fnum		(no row when the flight has no plane)
+ *	ROUTE mode from_airport to_airport date days max_legs min_connection_days seats
+ *			(mode is CHEAPEST, FEWEST_LEGS or EARLIEST_ARRIVAL; replies with one
+ *			row per leg, see RoutePlanner.Itinerary, no row when there is no route)
+ *	REPAIRS_PER_PLANE
+ *	TOP_REPAIRED_PLANES n
+ *	REPAIRS_PER_YEAR
+ *	PASSENGERS_WITH_STATUS fnum status
+ *	CACHE_STATS			(seat and customer cache hit/miss counters)
+ *	METRICS			(query metrics, one line of Prometheus text per row)
+ *	QUIT
+ *
+ * The reply is "OK\t&lt;n&gt;" followed by n tab separated result rows, or a
+ * single "ERR\t&lt;message&gt;" line.  Result fields are written the way
+ * PostgreSQL's COPY text format writes them: SQL null is \N, and a
+ * backslash, tab, newline or carriage return inside a value is written as
+ * \\, \t, \n or \r.
+ *
+ * On shutdown the service stops accepting, lets every connected client have
+ * the reply to the request it is running, then ends its stream; the pool is
+ * closed only after the handlers are done or the drain timeout
+ * (-Ddbproject.drain.millis, 10 s by default) has passed.
+ */
+public class BookingService {
+	private final DBproject esql;
+	private final ExecutorService executor;
+	private final long drainMillis = Long.getLong("dbproject.drain.millis", 10000L);
+	private final Set<Socket> clients = ConcurrentHashMap.<Socket>newKeySet();
+	private volatile ServerSocket server = null;
+	private volatile boolean stopping = false;
+
+	public BookingService(DBproject esql, ExecutorService executor) {
+		this.esql = esql;
+		this.executor = executor;
+	}
+
+	/**
+	 * Returns an executor that runs every task on its own virtual thread when
+	 * the JVM supports them (Java 21+), or on a cached pool of platform
+	 * threads otherwise.
+	 *
+	 * @return a new executor service
+	 */
+	public static ExecutorService newExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		}catch (Exception e){
+			return Executors.newCachedThreadPool();
+		}
+	}//end newExecutor
+
+	/**
+	 * Runs one operation of the menu.
+	 *
+	 * @param op the operation name, see the class comment
+	 * @param args the operation arguments
+	 * @return the result rows, empty for updates
+	 * @throws java.sql.SQLException when the operation failed in the database
+	 * @throws IllegalArgumentException when the request is malformed
+	 */
+	public List<List<String>> execute(String op, String[] args) throws SQLException {
+		List<List<String>> rows;
+		switch (op.toUpperCase()) {
+			case "ADD_PLANE":
+				expect(args, 4);
+				esql.addPlane(args[0], args[1], parseInt(args[2]), parseInt(args[3]));
+				return new ArrayList<List<String>>();
+			case "ADD_PILOT":
+				expect(args, 2);
+				esql.addPilot(args[0], args[1]);
+				return new ArrayList<List<String>>();
+			case "ADD_FLIGHT":
+				expect(args, 7);
+				int fnum = esql.addFlight(parseInt(args[0]), parseInt(args[1]), parseInt(args[2]), args[3], args[4], args[5], args[6]);
+				return Arrays.asList(Arrays.asList(Integer.toString(fnum)));
+			case "ASSIGN_FLIGHT":
+				expect(args, 4);
+				return conflictRows(esql.assignFlight(parseInt(args[0]), parseInt(args[1]), parseInt(args[2]), Boolean.parseBoolean(args[3])));
+			case "DOUBLE_BOOKINGS":
+				expect(args, 0);
+				return conflictRows(esql.getSchedule().doubleBookings());
+			case "ADD_TECHNICIAN":
+				expect(args, 1);
+				esql.addTechnician(args[0]);
+				return new ArrayList<List<String>>();
+			case "BOOK_FLIGHT":
+				expect(args, 3);
+				return esql.bookFlight(args[0], args[1], parseInt(args[2]));
+			case "CANCEL":
+				expect(args, 1);
+				rows = new ArrayList<List<String>>();
+				for (List<String> row : esql.cancelReservation(parseInt(args[0]))) rows.add(row.subList(0, 2));
+				return rows;
+			case "BOOK_FLIGHT_ID":
+				expect(args, 2);
+				return esql.bookFlight(parseInt(args[0]), parseInt(args[1]));
+			case "FLIGHTS_ON":
+				expect(args, 1);
+				return esql.flightsOnDate(args[0]);
+			case "SEARCH_FLIGHTS":
+				expect(args, 7);
+				FlightSearch.Key after = args[4].isEmpty() ? null : new FlightSearch.Key(LocalDate.parse(args[4]), parseInt(args[5]));
+				return esql.searchFlights(emptyToNull(args[2]), emptyToNull(args[3]), args[0], args[1], after, parseInt(args[6])).getRows();
+			case "AVAILABLE_SEATS":
+				expect(args, 1);
+				Integer seats = esql.availableSeats(parseInt(args[0]));
+				rows = new ArrayList<List<String>>();
+				if (seats != null) rows.add(Arrays.asList(seats.toString()));
+				return rows;
+			case "ROUTE":
+				expect(args, 8);
+				RoutePlanner.Constraints limits = new RoutePlanner.Constraints(parseInt(args[4]), parseInt(args[5]), parseInt(args[6]), parseInt(args[7]));
+				LocalDate day = LocalDate.parse(args[3]);
+				RoutePlanner.Itinerary route;
+				switch (args[0].toUpperCase()) {
+					case "CHEAPEST": route = esql.getRoutes().cheapest(args[1], args[2], day, limits); break;
+					case "FEWEST_LEGS": route = esql.getRoutes().fewestLegs(args[1], args[2], day, limits); break;
+					case "EARLIEST_ARRIVAL": route = esql.getRoutes().earliestArrival(args[1], args[2], day, limits); break;
+					default: throw new IllegalArgumentException("mode must be one of CHEAPEST, FEWEST_LEGS, EARLIEST_ARRIVAL");
+				}
+				return route == null ? new ArrayList<List<String>>() : route.toRecords();
+			case "CACHE_STATS":
+				expect(args, 0);
+				rows = new ArrayList<List<String>>();
+				rows.add(Arrays.asList("seats", esql.getSeatCache().toString()));
+				rows.add(Arrays.asList("customers", esql.getCustomers().toString()));
+				return rows;
+			case "METRICS":
+				expect(args, 0);
+				rows = new ArrayList<List<String>>();
+				for (String line : esql.getMetrics().getPrometheusText().split("\n")) rows.add(Arrays.asList(line));
+				return rows;
+			case "REPAIRS_PER_PLANE":
+				expect(args, 0);
+				return esql.repairsPerPlane().toRecords();
+			case "TOP_REPAIRED_PLANES":
+				expect(args, 1);
+				return esql.topRepairedPlanes(parseInt(args[0])).toRecords();
+			case "REPAIRS_PER_YEAR":
+				expect(args, 0);
+				return esql.repairsPerYear().toRecords();
+			case "PASSENGERS_WITH_STATUS":
+				expect(args, 2);
+				if (args[1].length() != 1) throw new IllegalArgumentException("status must be one of W, C, R");
+				return esql.passengersWithStatus(parseInt(args[0]), args[1].charAt(0));
+			default:
+				throw new IllegalArgumentException("unknown operation " + op);
+		}
+	}//end execute
+
+	/**
+	 * Accepts client connections on the loopback interface until stop() is
+	 * called.  Each client is served on its own executor task.  Returns once
+	 * the handlers have finished, or the drain timeout has passed and their
+	 * sockets were closed.
+	 *
+	 * @param port the TCP port to listen on
+	 * @throws java.io.IOException when the port cannot be bound
+	 */
+	public void serve(int port) throws IOException {
+		server = new ServerSocket(port, 512, InetAddress.getLoopbackAddress());
+		System.out.println("Listening on " + server.getLocalSocketAddress());
+		try {
+			while (!server.isClosed()) {
+				final Socket client;
+				try {
+					client = server.accept();
+				}catch (IOException e){
+					if (server.isClosed()) break;
+					throw e;
+				}
+				clients.add(client);
+				//stop() may have gone over the clients before this one was added
+				if (stopping) endInput(client);
+				executor.execute(new Runnable() {
+					public void run() {
+						handle(client);
+					}
+				});
+			}
+		}finally{
+			try {
+				drain();
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+	}//end serve
+
+	/**
+	 * Stops accepting new clients and waits for the connected ones.  Every
+	 * client gets the reply to the request it is running and then sees the
+	 * end of its stream.  Clients still being served after the drain timeout
+	 * have their sockets closed.
+	 *
+	 * @return true when every handler finished within the drain timeout
+	 * @throws java.lang.InterruptedException when interrupted while waiting
+	 */
+	public boolean stop() throws InterruptedException {
+		stopping = true;
+		try {
+			if (server != null) server.close();
+		}catch (IOException e){
+			// ignored.
+		}
+		for (Socket client : clients) endInput(client);
+		return drain();
+	}//end stop
+
+	private boolean drain() throws InterruptedException {
+		executor.shutdown();
+		if (executor.awaitTermination(drainMillis, TimeUnit.MILLISECONDS)) return true;
+		for (Socket client : clients) {
+			try {
+				client.close();
+			}catch (IOException e){
+				// ignored.
+			}
+		}
+		executor.shutdownNow();
+		return false;
+	}
+
+	//a handler blocked in readLine() sees end of stream, one running a request replies first
+	private static void endInput(Socket client) {
+		try {
+			client.shutdownInput();
+		}catch (IOException e){
+			// already closed.
+		}
+	}
+
+	private void handle(Socket client) {
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+			Writer writer = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) continue;
+				String[] fields = line.split("\t", -1);
+				if (fields[0].equalsIgnoreCase("QUIT")) break;
+
+				String[] args = new String[fields.length - 1];
+				System.arraycopy(fields, 1, args, 0, args.length);
+				try {
+					List<List<String>> rows = execute(fields[0], args);
+					writer.write("OK\t" + rows.size() + "\n");
+					for (List<String> row : rows) {
+						writer.write(join(row));
+						writer.write('\n');
+					}
+				}catch (SQLException | RuntimeException e){
+					writer.write("ERR\t" + String.valueOf(e.getMessage()).replace('\n', ' ') + "\n");
+				}
+				writer.flush();
+			}
+		}catch (IOException e){
+			// client went away.
+		}finally{
+			clients.remove(client);
+			try {
+				client.close();
+			}catch (IOException e){
+				// ignored.
+			}
+		}
+	}//end handle
+
+	//COPY text format: \N for null, separators inside a value escaped
+	private static String join(List<String> row) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < row.size(); ++i) {
+			if (i > 0) sb.append('\t');
+			String v = row.get(i);
+			if (v == null) {
+				sb.append("\\N");
+				continue;
+			}
+			for (int j = 0; j < v.length(); ++j) {
+				char c = v.charAt(j);
+				switch (c) {
+					case '\\': sb.append("\\\\"); break;
+					case '\t': sb.append("\\t"); break;
+					case '\n': sb.append("\\n"); break;
+					case '\r': sb.append("\\r"); break;
+					default: sb.append(c);
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	private static List<List<String>> conflictRows(List<ScheduleConflictIndex.Conflict> conflicts) {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for (ScheduleConflictIndex.Conflict c : conflicts) {
+			rows.add(Arrays.asList(c.resource, Integer.toString(c.resourceId), Integer.toString(c.flight1), Integer.toString(c.flight2)));
+		}
+		return rows;
+	}
+
+	private static String emptyToNull(String s) {
+		return s.isEmpty() ? null : s;
+	}
+
+	private static void expect(String[] args, int n) {
+		if (args.length != n) throw new IllegalArgumentException("expected " + n + " arguments, got " + args.length);
+	}
+
+	private static int parseInt(String s) {
+		try {
+			return Integer.parseInt(s.trim());
+		}catch (NumberFormatException e){
+			throw new IllegalArgumentException("not a number: " + s);
+		}
+	}
+
+	/**
+	 * Starts the service.
+	 *
+	 * @param args &lt;dbname&gt; &lt;port&gt; &lt;user&gt; &lt;listen port&gt; [pool size]
+	 */
+	public static void main(String[] args) {
+		if (args.length != 4 && args.length != 5) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + BookingService.class.getName () +
+					" <dbname> <port> <user> <listen port> [pool size]");
+			return;
+		}//end if
+
+		DBproject esql = null;
+		try {
+			Class.forName("org.postgresql.Driver");
+			int poolSize = args.length == 5 ? Integer.parseInt(args[4]) : Integer.getInteger("dbproject.pool.size", 16);
+			esql = new DBproject(args[0], args[1], args[2], "", poolSize);
+			if (Boolean.getBoolean("dbproject.waitlist.promote")) {
+				new WaitlistPromoter(esql, Integer.getInteger("dbproject.waitlist.batch", 100)).start();
+			}
+
+			final BookingService service = new BookingService(esql, newExecutor());
+			final Thread main = Thread.currentThread();
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					try {
+						if (!service.stop()) System.err.println("Closed clients still being served after the drain timeout");
+						//the JVM halts when the hooks return; let main close the pool first
+						main.join(service.drainMillis);
+					}catch (InterruptedException e){
+						// exiting anyway.
+					}
+				}
+			});
+			service.serve(Integer.parseInt(args[3]));
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,281 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Client-side bulk import of the data/*.csv files through the COPY protocol.
+ * Unlike the COPY ... FROM 'file' statements of create.sql the files are
+ * streamed from this machine, so they do not have to be copied into the
+ * server's data directory first.
+ *
+ * Tables are loaded in foreign key order: Customer, Pilot, Plane, Technician
+ * and Flight first, then Reservation, FlightInfo, Repairs and Schedule.  The
+ * tables of one level are loaded in parallel.  Each table is sent in chunks
+ * of rows, one transaction per chunk.  The same transaction records in the
+ * BulkLoadCheckpoint table how many lines of the file are committed, so an
+ * interrupted load resumes exactly after the last committed chunk.
+ * The loads switch the change feed triggers off and send one reset
+ * notification at the end instead.  Rows of Repairs and Schedule dated
+ * outside the existing partitions land in the default partitions; once
+ * everything is loaded, maintain_partitions() gives them partitions of their
+ * own (migration V009).
+ */
+public class BulkLoader {
+	static final String CREATE_CHECKPOINT =
+		"CREATE TABLE IF NOT EXISTS BulkLoadCheckpoint (table_name TEXT PRIMARY KEY, lines BIGINT NOT NULL, done BOOLEAN NOT NULL);";
+	static final String SAVE_CHECKPOINT =
+		"INSERT INTO BulkLoadCheckpoint (table_name, lines, done) VALUES (?, ?, ?) " +
+		"ON CONFLICT (table_name) DO UPDATE Set lines = EXCLUDED.lines, done = EXCLUDED.done;";
+	//tells ChangeFeed listeners that rows changed without per-row notifications
+	static final String RESET_NOTIFICATION =
+		"NOTIFY dbproject_changes, 'X';";
+	//skipped on a database without migration V009
+	static final String MAINTAIN_PARTITIONS =
+		"DO $$ BEGIN IF to_regproc('maintain_partitions') IS NOT NULL THEN PERFORM maintain_partitions(); END IF; END $$;";
+
+	/**
+	 * A table to load, with the CSV file and the column list of the COPY.
+	 */
+	static class Table {
+		final String name;
+		final String file;
+		final String columns;
+		final String serial;
+
+		Table(String name, String file, String columns, String serial) {
+			this.name = name;
+			this.file = file;
+			this.columns = columns;
+			this.serial = serial;
+		}
+	}
+
+	static final Table[][] LEVELS = {
+		{
+			new Table("Customer", "customer.csv", "id, fname, lname, gtype, dob, address, phone, zipcode", "id"),
+			new Table("Pilot", "pilots.csv", "id, fullname, nationality", "id"),
+			new Table("Plane", "planes.csv", "id, make, model, age, seats", "id"),
+			new Table("Technician", "technician.csv", "id, full_name", "id"),
+			new Table("Flight", "flights.csv", "fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport", "fnum"),
+		},
+		{
+			new Table("Reservation", "reservation.csv", "rnum, cid, fid, status", "rnum"),
+			new Table("FlightInfo", "flightinfo.csv", "fiid, flight_id, pilot_id, plane_id", "fiid"),
+			new Table("Repairs", "repairs.csv", "rid, repair_date, repair_code, pilot_id, plane_id, technician_id", "rid"),
+			new Table("Schedule", "schedule.csv", "id, flightNum, departure_time, arrival_time", "id"),
+		},
+	};
+
+	private final ConnectionPool pool;
+	private final File dataDir;
+	private final int chunkRows;
+
+	public BulkLoader(ConnectionPool pool, File dataDir, int chunkRows) throws SQLException {
+		this.pool = pool;
+		this.dataDir = dataDir;
+		this.chunkRows = chunkRows;
+		execute(CREATE_CHECKPOINT);
+	}
+
+	/**
+	 * Empties every table and forgets the checkpoint, for a load from scratch.
+	 *
+	 * @throws java.sql.SQLException when the tables cannot be truncated
+	 */
+	public void reset() throws SQLException {
+		StringBuilder tables = new StringBuilder();
+		for (Table[] level : LEVELS) {
+			for (Table t : level) {
+				if (tables.length() > 0) tables.append(", ");
+				tables.append(t.name);
+			}
+		}
+		execute("TRUNCATE " + tables + ", BulkLoadCheckpoint CASCADE;");
+		execute(RESET_NOTIFICATION);
+	}//end reset
+
+	/**
+	 * Loads every table, level by level, running the tables of a level on the
+	 * given number of threads.
+	 *
+	 * @param threads number of tables copied at the same time
+	 * @throws Exception when a table fails to load; the checkpoint keeps the
+	 *         chunks that were committed
+	 */
+	public void loadAll(int threads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long begin = System.nanoTime();
+		long rows = 0;
+		try {
+			for (Table[] level : LEVELS) {
+				List<Future<Long>> results = new ArrayList<Future<Long>>();
+				for (final Table t : level) {
+					results.add(executor.submit(() -> load(t)));
+				}
+				for (Future<Long> f : results) {
+					rows += f.get();
+				}
+			}
+			execute(MAINTAIN_PARTITIONS);
+		} finally {
+			executor.shutdown();
+			// the loads sent no per-row notifications, caches elsewhere must start over
+			execute(RESET_NOTIFICATION);
+		}
+		double seconds = (System.nanoTime() - begin) / 1e9;
+		System.out.printf("Loaded %d rows in %.1f s (%.0f rows/s)%n", rows, seconds, rows / seconds);
+	}//end loadAll
+
+	/**
+	 * Streams one CSV file into its table, skipping the rows that an earlier
+	 * run already committed.
+	 *
+	 * @param t the table to load
+	 * @return the number of rows loaded by this call
+	 */
+	long load(Table t) throws SQLException, IOException {
+		String copy = "COPY " + t.name + " (" + t.columns + ") FROM STDIN WITH DELIMITER ','";
+
+		long begin = System.nanoTime();
+		long loaded = 0;
+		ConnectionPool.PooledConnection pc = pool.borrow();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+			new FileInputStream(new File(dataDir, t.file)), StandardCharsets.UTF_8), 1 << 16);
+		long skip = 0;
+		try {
+			Connection conn = pc.getConnection();
+			// no per-row change feed notifications, see migration V008
+			Statement feed = conn.createStatement();
+			feed.execute("SET dbproject.change_feed = off;");
+			feed.close();
+			PreparedStatement read = pc.prepare("Select lines, done From BulkLoadCheckpoint Where table_name = ?;");
+			read.setString(1, t.name);
+			ResultSet rs = read.executeQuery();
+			if (rs.next()) {
+				skip = rs.getLong(1);
+				if (rs.getBoolean(2)) {
+					rs.close();
+					System.out.println(t.name + ": already loaded, skipped");
+					return 0;
+				}
+			}
+			rs.close();
+
+			CopyManager copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+			PreparedStatement save = pc.prepare(SAVE_CHECKPOINT);
+			save.setString(1, t.name);
+			conn.setAutoCommit(false);
+
+			long line = 0;
+			String row;
+			while (line < skip && reader.readLine() != null) ++line;
+
+			StringBuilder chunk = new StringBuilder(chunkRows * 64);
+			int inChunk = 0;
+			while (true) {
+				row = reader.readLine();
+				if (row != null && !row.isEmpty()) {
+					chunk.append(row).append('\n');
+					++inChunk;
+				}
+				if (row != null) ++line;
+				if (inChunk == chunkRows || (row == null && inChunk > 0)) {
+					copyManager.copyIn(copy, new StringReader(chunk.toString()));
+					save.setLong(2, line);
+					save.setBoolean(3, false);
+					save.executeUpdate();
+					conn.commit();
+					loaded += inChunk;
+					chunk.setLength(0);
+					inChunk = 0;
+				}
+				if (row == null) break;
+			}
+
+			// the CSV files carry explicit ids, move the SERIAL sequence past them
+			Statement stmt = conn.createStatement();
+			stmt.execute("Select setval(pg_get_serial_sequence('" + t.name + "', '" + t.serial + "'), coalesce(max(" + t.serial + "), 0) + 1, false) From " + t.name + ";");
+			stmt.close();
+			save.setLong(2, line);
+			save.setBoolean(3, true);
+			save.executeUpdate();
+			conn.commit();
+		} finally {
+			reader.close();
+			try {
+				pc.getConnection().rollback();
+				pc.getConnection().setAutoCommit(true);
+				Statement feed = pc.getConnection().createStatement();
+				feed.execute("RESET dbproject.change_feed;");
+				feed.close();
+			}catch (SQLException e){
+				// the pool drops a broken connection.
+			}
+			pool.release(pc);
+		}
+
+		double seconds = (System.nanoTime() - begin) / 1e9;
+		System.out.printf("%s: %d rows in %.1f s (%.0f rows/s)%s%n", t.name, loaded, seconds, loaded / seconds,
+			skip > 0 ? ", resumed after line " + skip : "");
+		return loaded;
+	}//end load
+
+	private void execute(String sql) throws SQLException {
+		ConnectionPool.PooledConnection pc = pool.borrow();
+		try {
+			Statement stmt = pc.getConnection().createStatement();
+			stmt.execute(sql);
+			stmt.close();
+		} finally {
+			pool.release(pc);
+		}
+	}
+
+	/**
+	 * @param args &lt;dbname&gt; &lt;port&gt; &lt;user&gt; &lt;data dir&gt; [threads] [--fresh]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 4) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + BulkLoader.class.getName () +
+					" <dbname> <port> <user> <data dir> [threads] [--fresh]");
+			return;
+		}//end if
+
+		ConnectionPool pool = null;
+		try {
+			Class.forName("org.postgresql.Driver");
+			boolean fresh = false;
+			int threads = 4;
+			for (int i = 4; i < args.length; ++i) {
+				if (args[i].equals("--fresh")) fresh = true;
+				else threads = Integer.parseInt(args[i]);
+			}
+			pool = new ConnectionPool(DBproject.connectionUrl(args[0], args[1]), args[2], "", threads, 4);
+			BulkLoader loader = new BulkLoader(pool, new File(args[3]), Integer.getInteger("dbproject.load.chunkRows", 100000));
+			if (fresh) loader.reset();
+			loader.loadAll(threads);
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		} finally {
+			if (pool != null) pool.close();
+		}
+	}
+}
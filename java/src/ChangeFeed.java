@@ -0,0 +1,311 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Typed stream of the row changes that the triggers of migration V008
+ * publish on the dbproject_changes channel, so that in-process caches of
+ * several DBproject processes stay current without TTLs or reloads.
+ *
+ * The feed listens on a connection of its own and calls the subscribed
+ * listeners on its thread, in commit order.  Listeners must be quick.  A
+ * payload that cannot be parsed, or a listener that throws, is logged and
+ * costs every listener a reset(), since some of them may have applied the
+ * change and others not.  Notifications are not queued while nobody listens, so
+ * after a reconnect, and after a bulk load that bypassed the triggers,
+ * every listener gets reset() and has to start over.
+ */
+public class ChangeFeed implements Runnable {
+	static final String CHANNEL = "dbproject_changes";
+
+	public enum Op { INSERT, UPDATE, DELETE }
+
+	/**
+	 * What every change carries: the operation and the database clock at
+	 * the time of the change, in epoch milliseconds.
+	 */
+	public static abstract class Change {
+		public final Op op;
+		public final long millis;
+
+		Change(Op op, long millis) {
+			this.op = op;
+			this.millis = millis;
+		}
+	}
+
+	/** Flight row; oldNumSold is -1 for INSERT, numSold is -1 for DELETE. */
+	public static class FlightChange extends Change {
+		public final int fnum, oldNumSold, numSold;
+
+		FlightChange(Op op, long millis, int fnum, int oldNumSold, int numSold) {
+			super(op, millis);
+			this.fnum = fnum;
+			this.oldNumSold = oldNumSold;
+			this.numSold = numSold;
+		}
+	}
+
+	/** FlightInfo row: the plane of a flight was assigned, changed or removed. */
+	public static class FlightInfoChange extends Change {
+		public final int flightId, planeId;
+
+		FlightInfoChange(Op op, long millis, int flightId, int planeId) {
+			super(op, millis);
+			this.flightId = flightId;
+			this.planeId = planeId;
+		}
+	}
+
+	/** Plane row; oldSeats is -1 for INSERT, seats is -1 for DELETE. */
+	public static class PlaneChange extends Change {
+		public final int id, oldSeats, seats;
+
+		PlaneChange(Op op, long millis, int id, int oldSeats, int seats) {
+			super(op, millis);
+			this.id = id;
+			this.oldSeats = oldSeats;
+			this.seats = seats;
+		}
+	}
+
+	/** Reservation row; the statuses are null where they do not apply. */
+	public static class ReservationChange extends Change {
+		public final int rnum, fid;
+		public final String oldStatus, status;
+
+		ReservationChange(Op op, long millis, int rnum, int fid, String oldStatus, String status) {
+			super(op, millis);
+			this.rnum = rnum;
+			this.fid = fid;
+			this.oldStatus = oldStatus;
+			this.status = status;
+		}
+	}
+
+	/** Customer row, with its normalized first and last name. */
+	public static class CustomerChange extends Change {
+		public final int id;
+		public final String first, last;
+
+		CustomerChange(Op op, long millis, int id, String first, String last) {
+			super(op, millis);
+			this.id = id;
+			this.first = first;
+			this.last = last;
+		}
+	}
+
+	/**
+	 * Subscriber of the feed; implement the methods of interest.
+	 */
+	public interface Listener {
+		default void flight(FlightChange c) {}
+
+		default void flightInfo(FlightInfoChange c) {}
+
+		default void plane(PlaneChange c) {}
+
+		default void reservation(ReservationChange c) {}
+
+		default void customer(CustomerChange c) {}
+
+		/**
+		 * Changes may have been missed: drop everything derived from the
+		 * database.
+		 */
+		default void reset() {}
+	}
+
+	private final String url;
+	private final String user;
+	private final String passwd;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong resets = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private volatile boolean running = false;
+	private Connection conn = null;
+	private Thread thread = null;
+
+	public ChangeFeed(String url, String user, String passwd) {
+		this.url = url;
+		this.user = user;
+		this.passwd = passwd;
+	}
+
+	public void subscribe(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void unsubscribe(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Starts listening on a daemon thread.
+	 *
+	 * @throws java.sql.SQLException when the listening connection cannot be opened
+	 */
+	public synchronized void start() throws SQLException {
+		if (running) return;
+		connect();
+		running = true;
+		thread = new Thread(this, "change-feed");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the listener thread and closes its connection.
+	 */
+	public void stop() throws InterruptedException {
+		running = false;
+		Thread t;
+		synchronized (this) {
+			t = thread;
+			thread = null;
+		}
+		if (t != null) t.join();
+		disconnect();
+	}
+
+	private void connect() throws SQLException {
+		conn = DriverManager.getConnection(url, user, passwd);
+		Statement stmt = conn.createStatement();
+		try {
+			stmt.execute("LISTEN " + CHANNEL);
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private void disconnect() {
+		try {
+			if (conn != null) conn.close();
+		}catch (SQLException e){
+			// ignored.
+		}
+		conn = null;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				if (conn == null) {
+					connect();
+					reset();
+				}
+				//waits up to a second so that stop() is noticed
+				PGNotification[] notifications = conn.unwrap(PGConnection.class).getNotifications(1000);
+				if (notifications == null) continue;
+				for (PGNotification n : notifications) deliver(n.getParameter());
+			}catch (SQLException e){
+				System.err.println("Change feed: " + e.getMessage());
+				disconnect();
+				try {
+					Thread.sleep(1000);
+				}catch (InterruptedException ie){
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}//end run
+
+	private void reset() {
+		resets.incrementAndGet();
+		for (Listener l : listeners) {
+			try {
+				l.reset();
+			}catch (RuntimeException e){
+				System.err.println("Change feed: reset failed: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Dispatches one payload without letting a failure end the feed thread.
+	 */
+	void deliver(String payload) {
+		received.incrementAndGet();
+		try {
+			dispatch(payload);
+		}catch (RuntimeException e){
+			failures.incrementAndGet();
+			System.err.println("Change feed: " + e + " on payload " + payload);
+			reset();
+		}
+	}
+
+	/**
+	 * Parses one payload, see migration V008, and hands it to the listeners.
+	 */
+	void dispatch(String payload) {
+		if (payload.equals("X")) {
+			reset();
+			return;
+		}
+		String[] f = payload.split(":", payload.startsWith("C:") ? 5 : -1);
+		Op op = f[1].equals("I") ? Op.INSERT : f[1].equals("U") ? Op.UPDATE : Op.DELETE;
+		switch (f[0]) {
+			case "F": {
+				FlightChange c = new FlightChange(op, Long.parseLong(f[5]), Integer.parseInt(f[2]), number(f[3]), number(f[4]));
+				for (Listener l : listeners) l.flight(c);
+				break;
+			}
+			case "I": {
+				FlightInfoChange c = new FlightInfoChange(op, Long.parseLong(f[4]), Integer.parseInt(f[2]), Integer.parseInt(f[3]));
+				for (Listener l : listeners) l.flightInfo(c);
+				break;
+			}
+			case "P": {
+				PlaneChange c = new PlaneChange(op, Long.parseLong(f[5]), Integer.parseInt(f[2]), number(f[3]), number(f[4]));
+				for (Listener l : listeners) l.plane(c);
+				break;
+			}
+			case "R": {
+				ReservationChange c = new ReservationChange(op, Long.parseLong(f[6]), Integer.parseInt(f[2]), Integer.parseInt(f[3]),
+					f[4].isEmpty() ? null : f[4], f[5].isEmpty() ? null : f[5]);
+				for (Listener l : listeners) l.reservation(c);
+				break;
+			}
+			case "C": {
+				int tab = f[4].indexOf('\t');
+				CustomerChange c = new CustomerChange(op, Long.parseLong(f[3]), Integer.parseInt(f[2]),
+					f[4].substring(0, tab), f[4].substring(tab + 1));
+				for (Listener l : listeners) l.customer(c);
+				break;
+			}
+			default:
+				System.err.println("Change feed: unknown payload " + payload);
+		}
+	}//end dispatch
+
+	private static int number(String s) {
+		return s.isEmpty() ? -1 : Integer.parseInt(s);
+	}
+
+	public long getReceived() {
+		return received.get();
+	}
+
+	public long getResets() {
+		return resets.get();
+	}
+
+	/**
+	 * @return payloads that could not be parsed or that a listener threw on
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+}
@@ -0,0 +1,268 @@
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A query result stored column by column in primitive arrays.  The column
+ * types come from the ResultSetMetaData: integer columns are kept in int[]
+ * or long[], floating point and numeric columns in double[], dates in int[]
+ * as epoch days, and everything else as dictionary codes into a per-column
+ * list of distinct strings.  NULLs are tracked in a BitSet per column.
+ *
+ * Compared with executeQueryAndReturnResult this allocates a handful of
+ * arrays per result instead of one String and one list per cell, which is
+ * what dashboards polling the repair and reservation aggregates need.
+ * Columns and rows are numbered from 1, like in JDBC.
+ */
+public class ColumnarResult {
+	public enum Type { INT, LONG, DOUBLE, DATE, STRING }
+
+	private final String[] names;
+	private final Type[] types;
+	private final int[][] ints;		// INT, DATE (epoch day) and STRING (dictionary code) columns
+	private final long[][] longs;
+	private final double[][] doubles;
+	private final BitSet[] nulls;
+	private final List<List<String>> dictionaries;
+	private final List<Map<String, Integer>> codes;
+	private int rowCount = 0;
+	private int capacity = 64;
+
+	private ColumnarResult(ResultSetMetaData rsmd) throws SQLException {
+		int numCol = rsmd.getColumnCount();
+		names = new String[numCol];
+		types = new Type[numCol];
+		ints = new int[numCol][];
+		longs = new long[numCol][];
+		doubles = new double[numCol][];
+		nulls = new BitSet[numCol];
+		dictionaries = new ArrayList<List<String>>(numCol);
+		codes = new ArrayList<Map<String, Integer>>(numCol);
+		for (int c = 0; c < numCol; ++c) {
+			names[c] = rsmd.getColumnName(c + 1);
+			types[c] = typeOf(rsmd.getColumnType(c + 1));
+			nulls[c] = new BitSet();
+			switch (types[c]) {
+				case LONG: longs[c] = new long[capacity]; break;
+				case DOUBLE: doubles[c] = new double[capacity]; break;
+				default: ints[c] = new int[capacity]; break;
+			}
+			dictionaries.add(types[c] == Type.STRING ? new ArrayList<String>() : null);
+			codes.add(types[c] == Type.STRING ? new HashMap<String, Integer>() : null);
+		}
+	}
+
+	static Type typeOf(int sqlType) {
+		switch (sqlType) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+				return Type.INT;
+			case Types.BIGINT:
+				return Type.LONG;
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+				return Type.DOUBLE;
+			case Types.DATE:
+				return Type.DATE;
+			default:
+				return Type.STRING;
+		}
+	}
+
+	/**
+	 * Reads the remaining rows of a cursor into a new columnar result.  The
+	 * cursor is closed afterwards.
+	 *
+	 * @param cursor an open cursor
+	 * @return the result
+	 * @throws java.sql.SQLException when reading a row fails
+	 */
+	public static ColumnarResult from(QueryCursor cursor) throws SQLException {
+		try {
+			ColumnarResult result = new ColumnarResult(cursor.getMetaData());
+			while (cursor.hasNext()) {
+				result.append(cursor.next());
+			}
+			return result;
+		} catch (QueryCursor.CursorException e) {
+			throw e.getCause();
+		} finally {
+			cursor.close();
+		}
+	}//end from
+
+	private void append(QueryCursor.Row row) {
+		if (rowCount == capacity) grow();
+		int r = rowCount++;
+		for (int c = 0; c < types.length; ++c) {
+			int col = c + 1;
+			switch (types[c]) {
+				case INT:
+					ints[c][r] = row.getInt(col);
+					if (row.wasNull()) nulls[c].set(r);
+					break;
+				case LONG:
+					longs[c][r] = row.getLong(col);
+					if (row.wasNull()) nulls[c].set(r);
+					break;
+				case DOUBLE:
+					doubles[c][r] = row.getDouble(col);
+					if (row.wasNull()) nulls[c].set(r);
+					break;
+				case DATE:
+					LocalDate d = row.getDate(col);
+					if (d == null) nulls[c].set(r);
+					else ints[c][r] = (int) d.toEpochDay();
+					break;
+				default:
+					String s = row.getString(col);
+					if (s == null) {
+						nulls[c].set(r);
+						break;
+					}
+					Integer code = codes.get(c).get(s);
+					if (code == null) {
+						code = dictionaries.get(c).size();
+						dictionaries.get(c).add(s);
+						codes.get(c).put(s, code);
+					}
+					ints[c][r] = code;
+					break;
+			}
+		}
+	}//end append
+
+	private void grow() {
+		capacity *= 2;
+		for (int c = 0; c < types.length; ++c) {
+			if (ints[c] != null) ints[c] = Arrays.copyOf(ints[c], capacity);
+			if (longs[c] != null) longs[c] = Arrays.copyOf(longs[c], capacity);
+			if (doubles[c] != null) doubles[c] = Arrays.copyOf(doubles[c], capacity);
+		}
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getColumnCount() {
+		return types.length;
+	}
+
+	public String getColumnName(int col) {
+		return names[col - 1];
+	}
+
+	public Type getColumnType(int col) {
+		return types[col - 1];
+	}
+
+	public boolean isNull(int row, int col) {
+		return nulls[col - 1].get(row - 1);
+	}
+
+	/**
+	 * @return the value of an INT column, or the dictionary code of a STRING
+	 *         column, or the epoch day of a DATE column
+	 */
+	public int getInt(int row, int col) {
+		int[] values = ints[col - 1];
+		if (values == null) throw new IllegalArgumentException("column " + col + " is " + types[col - 1]);
+		return values[row - 1];
+	}
+
+	/**
+	 * @return the value of a LONG or INT column
+	 */
+	public long getLong(int row, int col) {
+		if (types[col - 1] == Type.LONG) return longs[col - 1][row - 1];
+		if (types[col - 1] == Type.INT) return ints[col - 1][row - 1];
+		throw new IllegalArgumentException("column " + col + " is " + types[col - 1]);
+	}
+
+	/**
+	 * @return the value of any numeric column
+	 */
+	public double getDouble(int row, int col) {
+		if (types[col - 1] == Type.DOUBLE) return doubles[col - 1][row - 1];
+		return getLong(row, col);
+	}
+
+	public LocalDate getDate(int row, int col) {
+		if (types[col - 1] != Type.DATE) throw new IllegalArgumentException("column " + col + " is " + types[col - 1]);
+		return isNull(row, col) ? null : LocalDate.ofEpochDay(ints[col - 1][row - 1]);
+	}
+
+	/**
+	 * @return the value of any column as text, or null for SQL NULL
+	 */
+	public String getString(int row, int col) {
+		if (isNull(row, col)) return null;
+		int c = col - 1, r = row - 1;
+		switch (types[c]) {
+			case INT: return Integer.toString(ints[c][r]);
+			case LONG: return Long.toString(longs[c][r]);
+			case DOUBLE: return Double.toString(doubles[c][r]);
+			case DATE: return LocalDate.ofEpochDay(ints[c][r]).toString();
+			default: return dictionaries.get(c).get(ints[c][r]);
+		}
+	}
+
+	/**
+	 * Direct access to the backing array of an INT, DATE or STRING column.
+	 * Only the first getRowCount() entries are meaningful.
+	 */
+	public int[] intColumn(int col) {
+		return ints[col - 1];
+	}
+
+	/**
+	 * Direct access to the backing array of a LONG column.  Only the first
+	 * getRowCount() entries are meaningful.
+	 */
+	public long[] longColumn(int col) {
+		return longs[col - 1];
+	}
+
+	/**
+	 * Direct access to the backing array of a DOUBLE column.  Only the first
+	 * getRowCount() entries are meaningful.
+	 */
+	public double[] doubleColumn(int col) {
+		return doubles[col - 1];
+	}
+
+	/**
+	 * @return the distinct values of a STRING column, indexed by code
+	 */
+	public List<String> dictionary(int col) {
+		return dictionaries.get(col - 1);
+	}
+
+	/**
+	 * @return the result as a list of records of strings, the shape returned
+	 *         by executeQueryAndReturnResult
+	 */
+	public List<List<String>> toRecords() {
+		List<List<String>> records = new ArrayList<List<String>>(rowCount);
+		for (int r = 1; r <= rowCount; ++r) {
+			List<String> record = new ArrayList<String>(types.length);
+			for (int c = 1; c <= types.length; ++c) {
+				record.add(getString(r, c));
+			}
+			records.add(record);
+		}
+		return records;
+	}
+}
@@ -0,0 +1,227 @@
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small fixed-size pool of physical PostgreSQL connections.  Each pooled
+ * connection keeps its own cache of PreparedStatements keyed by the SQL text,
+ * so a query shape is parsed and planned by the server once per connection
+ * and only re-bound on later calls.
+ *
+ * Connections are opened lazily up to the pool size and handed out LIFO, so a
+ * single-threaded caller keeps getting the same (warm) connection back.
+ */
+public class ConnectionPool {
+	private final String url;
+	private final String user;
+	private final String passwd;
+	private final int size;
+	private final int stmtCacheSize;
+	private final long borrowTimeoutMillis;
+
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+	private final List<PooledConnection> all = new ArrayList<PooledConnection>();
+	private final LatencyHistogram waits = new LatencyHistogram();
+	private boolean closed = false;
+
+	/**
+	 * Creates the pool and opens the first connection so that connection
+	 * problems are reported right away.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param user the database user
+	 * @param passwd the database password
+	 * @param size maximum number of physical connections
+	 * @param stmtCacheSize maximum number of cached statements per connection
+	 * @throws java.sql.SQLException when the first connection cannot be opened
+	 */
+	public ConnectionPool(String url, String user, String passwd, int size, int stmtCacheSize) throws SQLException {
+		if (size < 1) throw new IllegalArgumentException("pool size must be positive");
+		this.url = url;
+		this.user = user;
+		this.passwd = passwd;
+		this.size = size;
+		this.stmtCacheSize = stmtCacheSize;
+		this.borrowTimeoutMillis = Long.getLong("dbproject.pool.borrowTimeoutMillis", 30000L);
+		idle.offerFirst(open());
+	}
+
+	/**
+	 * Takes a connection from the pool, opening a new one if the pool has not
+	 * reached its size yet, or waiting for one to be released otherwise.
+	 *
+	 * @return a connection that must be given back with release()
+	 * @throws java.sql.SQLException when no connection became available in time
+	 */
+	public PooledConnection borrow() throws SQLException {
+		long start = System.nanoTime();
+		PooledConnection pc = idle.pollFirst();
+		if (pc != null) {
+			waits.record(System.nanoTime() - start);
+			return pc;
+		}
+
+		synchronized (this) {
+			if (closed) throw new SQLException("Connection pool is closed");
+			if (all.size() < size) {
+				pc = open();
+				waits.record(System.nanoTime() - start);
+				return pc;
+			}
+		}
+		try {
+			pc = idle.pollFirst(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection");
+		}finally{
+			waits.record(System.nanoTime() - start);
+		}
+		if (pc == null) throw new SQLException("Timed out waiting for a pooled connection");
+		return pc;
+	}//end borrow
+
+	/**
+	 * Gives a connection back to the pool.  Broken connections are dropped
+	 * and a connection left inside a transaction is rolled back first.
+	 *
+	 * @param pc the connection obtained from borrow()
+	 */
+	public void release(PooledConnection pc) {
+		if (pc == null) return;
+		try {
+			if (pc.connection.isClosed()) {
+				discard(pc);
+				return;
+			}
+			if (!pc.connection.getAutoCommit()) {
+				pc.connection.rollback();
+				pc.connection.setAutoCommit(true);
+			}
+		}catch (SQLException e){
+			discard(pc);
+			return;
+		}
+		//offered under the monitor, so close() either sees it in idle or it sees closed
+		synchronized (this) {
+			if (closed) {
+				pc.close();
+				return;
+			}
+			idle.offerFirst(pc);
+		}
+	}//end release
+
+	/**
+	 * @return the maximum number of physical connections in the pool
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the time every borrow() waited for a connection, in nanoseconds,
+	 *         including opening a new one
+	 */
+	public LatencyHistogram getWaitHistogram() {
+		return waits;
+	}
+
+	/**
+	 * Closes every connection of the pool.  Connections that are borrowed at
+	 * this point are closed when they are released.
+	 */
+	public synchronized void close() {
+		closed = true;
+		PooledConnection pc;
+		while ((pc = idle.pollFirst()) != null) {
+			pc.close();
+		}
+		all.clear();
+	}//end close
+
+	private synchronized PooledConnection open() throws SQLException {
+		PooledConnection pc = new PooledConnection(DriverManager.getConnection(url, user, passwd), stmtCacheSize);
+		all.add(pc);
+		return pc;
+	}
+
+	private synchronized void discard(PooledConnection pc) {
+		all.remove(pc);
+		pc.close();
+	}
+
+	/**
+	 * A physical connection together with its statement cache.  A pooled
+	 * connection is only ever used by the thread that borrowed it.
+	 */
+	public static class PooledConnection {
+		private final Connection connection;
+		private final Map<String, PreparedStatement> statements;
+
+		PooledConnection(Connection connection, final int cacheSize) {
+			this.connection = connection;
+			this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+					if (size() <= cacheSize) return false;
+					try {
+						eldest.getValue().close();
+					}catch (SQLException e){
+						// ignored.
+					}
+					return true;
+				}
+			};
+		}
+
+		/**
+		 * @return the underlying physical connection
+		 */
+		public Connection getConnection() {
+			return connection;
+		}
+
+		/**
+		 * Returns the cached statement for the given SQL text, preparing it on
+		 * first use.  Callers must not close the returned statement.
+		 *
+		 * @param sql the SQL text, with ? placeholders for parameters
+		 * @return a prepared statement owned by this connection
+		 * @throws java.sql.SQLException when the statement cannot be prepared
+		 */
+		public PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement stmt = statements.get(sql);
+			if (stmt == null || stmt.isClosed()) {
+				stmt = connection.prepareStatement(sql);
+				statements.put(sql, stmt);
+			}
+			return stmt;
+		}//end prepare
+
+		void close() {
+			Iterator<PreparedStatement> it = statements.values().iterator();
+			while (it.hasNext()) {
+				try {
+					it.next().close();
+				}catch (SQLException e){
+					// ignored.
+				}
+			}
+			statements.clear();
+			try {
+				connection.close();
+			}catch (SQLException e){
+				// ignored.
+			}
+		}//end close
+	}
+}
@@ -0,0 +1,146 @@
+import java.sql.SQLException;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Turns a customer name into customer ids for the booking path.  Names are
+ * compared by a normalized key (trimmed, lower case), looked up through the
+ * expression index of migration V007, and the answers are kept in a bounded
+ * LRU cache, so repeated bookings for the same travelers skip the lookup.
+ *
+ * Several customers may share a name, so a lookup returns every matching
+ * id and the caller has to ask for the id when there is more than one.
+ * Names that match no customer are not cached.  Entries expire after a
+ * time to live and are dropped by invalidate() when a customer changes.
+ */
+public class CustomerResolver {
+	static final String BY_NAME =
+		"Select id From Customer Where lower(btrim(fname)) = ? and lower(btrim(lname)) = ? Order by id;";
+
+	private static class Entry {
+		final int[] ids;
+		final long loadedAt;
+
+		Entry(int[] ids, long loadedAt) {
+			this.ids = ids;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	private final DBproject esql;
+	private final Map<String, Entry> names;
+	private final long ttlNanos;
+	//bumped by every invalidation, so a lookup that raced with one is not cached
+	private long generation = 0;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 * @param esql runs the lookups
+	 * @param maxNames maximum number of cached names
+	 * @param ttlMillis how long a cached name is trusted, 0 for no limit
+	 */
+	public CustomerResolver(DBproject esql, final int maxNames, long ttlMillis) {
+		this.esql = esql;
+		this.ttlNanos = ttlMillis * 1000000L;
+		this.names = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			//inside a map, a bare Entry names Map.Entry
+			protected boolean removeEldestEntry(Map.Entry<String, CustomerResolver.Entry> eldest) {
+				if (size() <= maxNames) return false;
+				evictions.increment();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * @return the normalized form of a first or last name
+	 */
+	static String normalize(String name) {
+		return name.trim().toLowerCase(Locale.ROOT);
+	}
+
+	private static String key(String first, String last) {
+		return normalize(first) + '\t' + normalize(last);
+	}
+
+	/**
+	 * Returns the ids of the customers with the given name.
+	 *
+	 * @return the ids in increasing order; empty when nobody has the name,
+	 *         more than one when the name is ambiguous
+	 * @throws java.sql.SQLException when the lookup fails
+	 */
+	public int[] resolve(String first, String last) throws SQLException {
+		String key = key(first, last);
+		long gen;
+		synchronized (this) {
+			Entry e = names.get(key);
+			if (e != null && (ttlNanos <= 0 || System.nanoTime() - e.loadedAt < ttlNanos)) {
+				hits.increment();
+				return e.ids.clone();
+			}
+			gen = generation;
+		}
+		misses.increment();
+		long now = System.nanoTime();
+		List<List<String>> rows = esql.executeQueryAndReturnResult(BY_NAME, normalize(first), normalize(last));
+		int[] ids = new int[rows.size()];
+		for (int i = 0; i < ids.length; ++i) ids[i] = Integer.parseInt(rows.get(i).get(0));
+		if (ids.length > 0) {
+			synchronized (this) {
+				if (gen == generation) names.put(key, new Entry(ids.clone(), now));
+			}
+		}
+		return ids;
+	}//end resolve
+
+	/**
+	 * Drops a name, e.g. after a customer with that name was added, renamed
+	 * or removed.
+	 */
+	public synchronized void invalidate(String first, String last) {
+		++generation;
+		if (names.remove(key(first, last)) != null) invalidations.increment();
+	}
+
+	public synchronized void clear() {
+		++generation;
+		names.clear();
+		invalidations.increment();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	public synchronized int size() {
+		return names.size();
+	}
+
+	@Override
+	public String toString() {
+		long h = hits.sum(), m = misses.sum();
+		return String.format("names=%d hits=%d misses=%d hitRatio=%.3f evictions=%d invalidations=%d",
+			size(), h, m, h + m == 0 ? 0.0 : (double) h / (h + m), getEvictions(), getInvalidations());
+	}
+}
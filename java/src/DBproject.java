@@ -13,16 +13,23 @@
 
 import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import java.lang.Boolean;
 import java.util.Scanner;
@@ -35,43 +42,196 @@ import java.lang.Character;
  */
 
 public class DBproject{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections, each with its own statement cache
+	private ConnectionPool _pool = null;
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	//rows fetched per round trip by the streaming query methods
+	private int _fetchSize = Integer.getInteger("dbproject.fetchSize", 1000);
+	//free seats per flight, kept current by the booking path
+	private final SeatCache _seats = SeatCache.forDatabase(this,
+		Integer.getInteger("dbproject.seatCache.flights", 10000), Integer.getInteger("dbproject.seatCache.planes", 1000));
+	//latency, row and error counts per query shape and per menu operation
+	private QueryMetrics _metrics = null;
+	//customer ids by name, for booking by name
+	private final CustomerResolver _customers = new CustomerResolver(this,
+		Integer.getInteger("dbproject.customerCache.names", 10000), Long.getLong("dbproject.customerCache.ttlMillis", 60000L));
+	//paged flight search behind the "don't know the flight number" flows
+	private final FlightSearch _flights = new FlightSearch(this);
+	//pilot and plane assignments by day, for conflict checks; loaded on first use
+	private final ScheduleConflictIndex _schedule = ScheduleConflictIndex.forDatabase(this);
+	//flights as a route graph, for multi-leg itineraries; loaded on first use
+	private final RoutePlanner _routes = RoutePlanner.forDatabase(this);
+	//flights listed per page by the menu
+	static final int FLIGHT_PAGE_SIZE = 20;
+	//asynchronous calls over the same pool, created on first use
+	private AsyncDBproject _async = null;
+	//timeout of the lookups the menu runs asynchronously
+	static final long LOOKUP_TIMEOUT_MILLIS = Long.getLong("dbproject.async.timeoutMillis", 5000L);
+	//where the pool connects to, for connections of its own like the change feed
+	private String _url = null;
+	private String _user = null;
+	private String _passwd = null;
+	//row changes of all processes, keeps the caches current; started on first use
+	private ChangeFeed _changes = null;
+
+	/**
+	 * Callback of forEachRow, called once per result row.
+	 */
+	public interface RowHandler {
+		void row(QueryCursor.Row row) throws SQLException;
+	}
+
+	/**
+	 * Body of a menu operation, timed by operation().
+	 */
+	private interface Operation<T> {
+		T run() throws SQLException;
+	}
+
+	//query shapes used by the menu operations; the values are bound as parameters
+	//so each shape is parsed and planned once per pooled connection
+	static final String FLIGHTS_ON_DATE =
+		"Select * From Flight Where actual_departure_date >= cast(? as date) and actual_departure_date < cast(? as date) + 1;";
+	//takes a seat by incrementing num_sold only while it is below the plane's capacity.
+	//The row lock of that UPDATE serializes concurrent bookers of one flight, and a
+	//booker that waited re-checks the condition against the new num_sold, so the
+	//confirm-or-waitlist decision and the seat count change happen in one step.
+	static final String BOOK_FLIGHT =
+		"WITH seat AS (" +
+		"UPDATE Flight F Set num_sold = F.num_sold + 1 From FlightInfo I, Plane P " +
+		"Where F.fnum = ? and I.flight_id = F.fnum and P.id = I.plane_id and P.seats > F.num_sold " +
+		"RETURNING F.num_sold), " +
+		"booked AS (" +
+		"INSERT INTO Reservation (cid, fid, status) VALUES (?, ?, " +
+		"CASE WHEN EXISTS (Select 1 From seat) THEN 'C' ELSE 'W' END) " +
+		"RETURNING rnum, status) " +
+		"Select B.rnum, B.status, (Select num_sold From seat) From booked B;";
+	//removes a reservation and gives its seat back; the num_sold decrease
+	//reaches the waitlist promoter through the change feed (migration V008).
+	//Only the rnum is known, so the delete probes all hash partitions (V009)
+	static final String CANCEL_RESERVATION =
+		"WITH gone AS (DELETE FROM Reservation Where rnum = ? RETURNING fid, status), " +
+		"freed AS (UPDATE Flight F Set num_sold = F.num_sold - 1 From gone G " +
+		"Where F.fnum = G.fid and G.status in ('C', 'R') and F.num_sold > 0 RETURNING F.num_sold) " +
+		"Select G.fid, G.status, (Select num_sold From freed) From gone G;";
+	//days a flight occupies its pilot and plane, see ScheduleConflictIndex
+	static final String FLIGHT_WINDOW =
+		"Select least(F.actual_departure_date, min(S.departure_time)), greatest(F.actual_arrival_date, max(S.arrival_time)) " +
+		"From Flight F left join Schedule S on S.flightNum = F.fnum Where F.fnum = ? Group by F.fnum;";
+	//moves the flight's FlightInfo row to the new pilot and plane, and only
+	//inserts one when the flight has none yet
+	static final String ASSIGN_FLIGHT =
+		"WITH moved AS (UPDATE FlightInfo Set pilot_id = ?, plane_id = ? Where flight_id = ? RETURNING fiid) " +
+		"INSERT INTO FlightInfo (flight_id, pilot_id, plane_id) Select ?, ?, ? Where not exists (Select 1 From moved);";
+	static final String PROMOTE_WAITLIST =
+		"Select rnum, num_sold From promote_waitlist(?, ?);";
+	//reads the V005 counter, kept instead of a count over the flight's
+	//Reservation partition
+	static final String PASSENGERS_WITH_STATUS =
+		"Select coalesce((Select n From ReservationStatusCount Where fid = ? and status = ?), 0) as count;";
+	//the repair reports read the summary tables that the triggers of migration
+	//V003 keep current, instead of grouping all of Repairs
+	static final String REPAIRS_PER_PLANE =
+		"Select plane_id, n From RepairsPerPlane Order by n desc;";
+	static final String TOP_REPAIRED_PLANES =
+		"Select plane_id, n From RepairsPerPlane Order by n desc Limit ?;";
+	static final String REPAIRS_PER_YEAR =
+		"Select year as Year, n as Sum From RepairsPerYear Order by Sum;";
 	
 	public DBproject(String dbname, String dbport, String user, String passwd) throws SQLException {
+		this(dbname, dbport, user, passwd, Integer.getInteger("dbproject.pool.size", 4));
+	}
+
+	public DBproject(String dbname, String dbport, String user, String passwd, int poolSize) throws SQLException {
 		System.out.print("Connecting to database...");
 		try{
 			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			String url = connectionUrl(dbname, dbport);
 			System.out.println ("Connection URL: " + url + "\n");
+			this._url = url;
+			this._user = user;
+			this._passwd = passwd;
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// obtain a pool of physical connections
+	        this._pool = new ConnectionPool(url, user, passwd, poolSize, Integer.getInteger("dbproject.pool.statementCacheSize", 64));
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
 	        System.out.println("Make sure you started postgres on this machine");
 	        System.exit(-1);
 		}
+		this._metrics = new QueryMetrics(this._pool, this._seats);
+		this._metrics.registerMBean();
+		Integer metricsPort = Integer.getInteger("dbproject.metrics.port");
+		if (metricsPort != null){
+			try{
+				this._metrics.startHttpServer(metricsPort);
+			}catch(Exception e){
+				System.err.println("Unable to serve metrics on port " + metricsPort + ": " + e.getMessage());
+			}
+		}
+		if (Boolean.getBoolean("dbproject.changeFeed")){
+			try{
+				getChangeFeed();
+			}catch(SQLException e){
+				System.err.println("Unable to listen for changes: " + e.getMessage());
+			}
+		}
 	}
+
+	/**
+	 * Builds the JDBC URL of the database.  prepareThreshold=1 makes the driver
+	 * use a named server-side statement from the first execution on.
+	 *
+	 * @param dbname the database name
+	 * @param dbport the port postgres listens on
+	 * @return the connection URL
+	 */
+	public static String connectionUrl (String dbname, String dbport) {
+		return "jdbc:postgresql://localhost:" + dbport + "/" + dbname + "?prepareThreshold=1";
+	}//end connectionUrl
+
+	/**
+	 * Binds the given values to the ? placeholders of a statement, in order.
+	 *
+	 * @param stmt the prepared statement
+	 * @param params the parameter values
+	 * @throws java.sql.SQLException when a value cannot be bound
+	 */
+	static void bind (PreparedStatement stmt, Object... params) throws SQLException {
+		for (int i = 0; i < params.length; ++i){
+			if (params[i] == null)
+				stmt.setNull (i + 1, Types.OTHER);
+			else
+				stmt.setObject (i + 1, params[i]);
+		}
+	}//end bind
 	
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+	public void executeUpdate (String sql, Object... params) throws SQLException { 
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean failed = true;
+		ConnectionPool.PooledConnection conn = this._pool.borrow ();
+		try{
+			// looks up (or prepares) the statement for this query shape
+			PreparedStatement stmt = conn.prepare (sql);
+			bind (stmt, params);
 
-		// close the instruction
-	    stmt.close ();
+			// issues the update instruction
+			rowCount = stmt.executeUpdate ();
+			failed = false;
+		}finally{
+			this._pool.release (conn);
+			this._metrics.query (sql, params, start, rowCount, 0, failed);
+		}
 	}//end executeUpdate
 
 	/**
@@ -79,42 +239,100 @@ public class DBproject{
 	 * method issues the query to the DBMS and outputs the results to
 	 * standard out.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		//streams the rows through a cursor, so the driver only buffers one fetch,
+		//and prints them through one buffer instead of a console write per cell
+		QueryCursor cursor = openCursor (query, params);
+		try{
+			ResultExporter exporter = ResultExporter.toStdout (ResultExporter.Format.TAB);
+			try{
+				return (int) exporter.export (cursor);
+			}finally{
+				exporter.close ();
+			}
+		}catch (IOException e){
+			throw new SQLException ("Unable to print the result: " + e.getMessage (), e);
+		}finally{
+			cursor.close ();
+		}
+	}
+
+	/**
+	 * Method to write the result of a query to a file, see ResultExporter
+	 * for the formats.
+	 *
+	 * @param file the file, replaced if it exists
+	 * @param format tab separated, CSV or JSON lines
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows written
+	 * @throws java.sql.SQLException when failed to execute the query or to write the file
+	 */
+	public long exportQuery (Path file, ResultExporter.Format format, String query, Object... params) throws SQLException {
+		QueryCursor cursor = openCursor (query, params);
+		try{
+			ResultExporter exporter = ResultExporter.toFile (file, format);
+			try{
+				return exporter.export (cursor);
+			}finally{
+				exporter.close ();
+			}
+		}catch (IOException e){
+			throw new SQLException ("Unable to write " + file + ": " + e.getMessage (), e);
+		}finally{
+			cursor.close ();
+		}
+	}//end exportQuery
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	/**
+	 * Method to open a forward-only cursor over the result of a query.  The
+	 * rows are fetched from the DBMS in chunks of the configured fetch size
+	 * while the caller iterates, instead of being loaded all at once.  The
+	 * cursor keeps a pooled connection until it is closed.
+	 * 
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders
+	 * @return an open cursor, to be closed by the caller
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public QueryCursor openCursor (String query, Object... params) throws SQLException {
+		return new QueryCursor (this._pool, this._metrics, this._fetchSize, query, params);
+	}//end openCursor
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
+	/**
+	 * Method to stream the result of a query into a callback, one row at a
+	 * time, without keeping the result in memory.
+	 * 
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param handler called for every row
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query or the handler failed
+	 */
+	public long forEachRow (String query, RowHandler handler, Object... params) throws SQLException {
+		long rowCount = 0;
+		try (QueryCursor cursor = openCursor (query, params)){
+			while (cursor.hasNext()){
+				handler.row (cursor.next ());
+				++rowCount;
+			}
+		}catch (QueryCursor.CursorException e){
+			throw e.getCause ();
+		}
 		return rowCount;
+	}//end forEachRow
+
+	/**
+	 * @param fetchSize number of rows the streaming methods fetch per round trip
+	 */
+	public void setFetchSize (int fetchSize){
+		if (fetchSize < 1) throw new IllegalArgumentException("fetch size must be positive");
+		this._fetchSize = fetchSize;
 	}
 	
 	/**
@@ -122,94 +340,437 @@ public class DBproject{
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		long start = System.nanoTime ();
+		long bytes = 0;
+		List<List<String>> result = null;
+		ConnectionPool.PooledConnection conn = this._pool.borrow ();
+		try{
+			PreparedStatement stmt = conn.prepare (query);
+			bind (stmt, params);
+			
+			//issues the query instruction 
+			ResultSet rs = stmt.executeQuery (); 
+		 
+			/*
+			 * obtains the metadata object for the returned result set.  The metadata 
+			 * contains row and column info. 
+			*/ 
+			ResultSetMetaData rsmd = rs.getMetaData (); 
+			int numCol = rsmd.getColumnCount (); 
+		 
+			//iterates through the result set and saves the data returned by the query. 
+			List<List<String>> records  = new ArrayList<List<String>>(); 
+			while (rs.next()){
+				List<String> record = new ArrayList<String>(); 
+				for (int i=1; i<=numCol; ++i){
+					String value = rs.getString (i);
+					if (value != null) bytes += value.length ();
+					record.add(value); 
+				}
+				records.add(record); 
+			}//end while 
+			rs.close (); 
+			result = records;
+			return result; 
+		}finally{
+			this._pool.release (conn);
+			this._metrics.query (query, params, start, result == null ? 0 : result.size (), bytes, result == null);
+		}
 	}//end executeQueryAndReturnResult
 	
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the results column by
+	 * column in primitive arrays, typed after the result metadata.
+	 * 
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders
+	 * @return the query result in columnar form
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ColumnarResult executeQueryAndReturnColumnar (String query, Object... params) throws SQLException {
+		return ColumnarResult.from (openCursor (query, params));
+	}//end executeQueryAndReturnColumnar
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the number of results
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
+	public int executeQuery (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
 		int rowCount = 0;
-
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+		boolean failed = true;
+		ConnectionPool.PooledConnection conn = this._pool.borrow ();
+		try{
+			PreparedStatement stmt = conn.prepare (query);
+			bind (stmt, params);
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
+
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			rs.close ();
+			failed = false;
+			return rowCount;
+		}finally{
+			this._pool.release (conn);
+			this._metrics.query (query, params, start, rowCount, 0, failed);
+		}
 	}
 	
 	/**
-	 * Method to fetch the last value from sequence. This
-	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
-	 * 
-	 * @param sequence name of the DB sequence
-	 * @return current value of a sequence
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * @return the connection pool behind this object, for components that
+	 *         need a connection of their own (batches, COPY, cursors)
 	 */
-	
-	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+	public ConnectionPool getPool(){
+		return this._pool;
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * @return the query and operation metrics of this object
 	 */
-	public void cleanup(){
+	public QueryMetrics getMetrics(){
+		return this._metrics;
+	}
+
+	/**
+	 * @return CompletableFuture versions of the query methods, running on
+	 *         as many worker threads as the pool has connections
+	 */
+	public synchronized AsyncDBproject getAsync(){
+		if (this._async == null){
+			this._async = new AsyncDBproject (this, this._pool.size (), Integer.getInteger ("dbproject.async.queueSize", 1000));
+		}
+		return this._async;
+	}
+
+	/**
+	 * Returns the change feed of the database, starting it on first use.
+	 * Once it runs, the seat and customer caches follow the changes of every
+	 * process instead of only this one's.
+	 *
+	 * @return the running feed
+	 * @throws java.sql.SQLException when the listening connection cannot be opened
+	 */
+	public synchronized ChangeFeed getChangeFeed() throws SQLException {
+		if (this._changes == null){
+			ChangeFeed feed = new ChangeFeed (this._url, this._user, this._passwd);
+			feed.subscribe (new ChangeFeed.Listener () {
+				public void flight(ChangeFeed.FlightChange c){
+					if (c.op == ChangeFeed.Op.DELETE) _seats.invalidateFlight (c.fnum);
+					else _seats.update (c.fnum, c.numSold);
+				}
+
+				public void plane(ChangeFeed.PlaneChange c){
+					_seats.invalidatePlane (c.id);
+				}
+
+				public void flightInfo(ChangeFeed.FlightInfoChange c){
+					_seats.invalidateFlight (c.flightId);
+				}
+
+				public void customer(ChangeFeed.CustomerChange c){
+					_customers.invalidate (c.first, c.last);
+				}
+
+				public void reset(){
+					_seats.clear ();
+					_customers.clear ();
+				}
+			});
+			feed.subscribe (_schedule);
+			feed.subscribe (_routes);
+			feed.start ();
+			this._changes = feed;
+		}
+		return this._changes;
+	}
+
+	/**
+	 * Runs a menu operation and records its latency under the given name.
+	 */
+	private <T> T operation(String name, Operation<T> body) throws SQLException {
+		long start = System.nanoTime ();
+		boolean failed = true;
 		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+			T result = body.run ();
+			failed = false;
+			return result;
+		}finally{
+			this._metrics.operation (name, start, failed);
+		}
+	}//end operation
+
+	/**
+	 * Method to close the physical connections if they are open.
+	 */
+	public void cleanup(){
+		synchronized (this){
+			if (this._async != null) this._async.shutdown ();
+			try{
+				if (this._changes != null) this._changes.stop ();
+			}catch (InterruptedException e){
+				Thread.currentThread ().interrupt ();
+			}
+		}
+		if (this._metrics != null){
+			String file = System.getProperty ("dbproject.metrics.file");
+			try{
+				if (file != null) this._metrics.dump (new File (file));
+			}catch (Exception e){
+				System.err.println ("Unable to write metrics to " + file + ": " + e.getMessage ());
+			}
+			this._metrics.close ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
+	/*
+	 * Operations behind the menu entries.  They take already validated input
+	 * and are safe to call from several threads at once, since every call
+	 * borrows its own pooled connection.
+	 */
+
+	public void addPlane(String make, String model, int age, int seats) throws SQLException {//1
+		operation("AddPlane", () -> {
+			executeUpdate("INSERT INTO Plane (make, model, age, seats) VALUES (?, ?, ?, ?);", make, model, age, seats);
+			return null;
+		});
+	}
+
+	public void addPilot(String name, String nation) throws SQLException {//2
+		operation("AddPilot", () -> {
+			executeUpdate("INSERT INTO Pilot (fullname, nationality) VALUES (?, ?);", name, nation);
+			return null;
+		});
+	}
+
+	/**
+	 * @return the flight number of the new flight
+	 */
+	public int addFlight(int cost, int num_sold, int num_stops, String depart_date, String arrive_date, String a_airport, String d_airport) throws SQLException {//3
+		String query = "INSERT INTO Flight (cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport) VALUES ";
+		String sql = query + "(?, ?, ?, cast(? as date), cast(? as date), ?, ?) RETURNING fnum;";
+
+		return operation("AddFlight", () -> {
+			int fnum = Integer.parseInt(executeQueryAndReturnResult(sql, cost, num_sold, num_stops, depart_date, arrive_date, a_airport.toUpperCase(), d_airport.toUpperCase()).get(0).get(0));
+			_seats.invalidateFlight(fnum);
+			_routes.changed(fnum);
+			return fnum;
+		});
+	}
+
+	/**
+	 * Assigns a pilot and a plane to a flight through FlightInfo, unless that
+	 * double-books either of them and force is not set.  A flight that is
+	 * already assigned keeps its FlightInfo row with the new pilot and plane,
+	 * and the old ones are released in the caches.  The check runs
+	 * against the in-memory ScheduleConflictIndex, not in the transaction
+	 * of the insert, so two processes assigning at the same moment can
+	 * still collide; doubleBookings() finds those afterwards.
+	 *
+	 * @param force assign even when there are conflicts
+	 * @return the conflicts of the assignment; when there are any and force
+	 *         is not set, nothing was assigned
+	 * @throws java.sql.SQLException when the flight does not exist or the update fails
+	 */
+	public List<ScheduleConflictIndex.Conflict> assignFlight(int fnum, int pilotId, int planeId, boolean force) throws SQLException {
+		return operation("AssignFlight", () -> {
+			List<List<String>> window = executeQueryAndReturnResult(FLIGHT_WINDOW, fnum);
+			if (window.isEmpty()) throw new SQLException("Flight " + fnum + " does not exist");
+			LocalDate departure = LocalDate.parse(window.get(0).get(0));
+			LocalDate arrival = LocalDate.parse(window.get(0).get(1));
+			List<ScheduleConflictIndex.Conflict> conflicts = _schedule.check(fnum, pilotId, planeId, departure, arrival);
+			if (!conflicts.isEmpty() && !force) return conflicts;
+			executeUpdate(ASSIGN_FLIGHT, pilotId, planeId, fnum, fnum, pilotId, planeId);
+			_seats.invalidateFlight(fnum);
+			_schedule.add(fnum, pilotId, planeId, departure, arrival);
+			_routes.changed(fnum);
+			return conflicts;
+		});
+	}
+
+	/**
+	 * @return the route planner over all flights
+	 */
+	public RoutePlanner getRoutes() {
+		return _routes;
+	}
+
+	/**
+	 * @return the pilot and plane conflict index
+	 */
+	public ScheduleConflictIndex getSchedule() {
+		return _schedule;
+	}
+
+	public void addTechnician(String name) throws SQLException {//4
+		operation("AddTechnician", () -> {
+			executeUpdate("INSERT INTO Technician (full_name) VALUES (?);", name);
+			return null;
+		});
+	}
+
+	/**
+	 * Books a seat on a flight, or puts the customer on the waitlist when the
+	 * plane is full.
+	 *
+	 * @param cid the customer id
+	 * @return one record holding the new reservation number, its status (C or W)
+	 *         and the flight's num_sold after a confirmed booking
+	 */
+	public List<List<String>> bookFlight(int cid, int fid) throws SQLException {//5
+		return operation("BookFlight", () -> {
+			List<List<String>> booking = executeQueryAndReturnResult(BOOK_FLIGHT, fid, cid, fid);
+			String numSold = booking.get(0).get(2);
+			if (numSold != null){
+				_seats.sold(fid, Integer.parseInt(numSold));
+				_routes.sold(fid, Integer.parseInt(numSold));
+			}
+			return booking;
+		});
+	}
+
+	/**
+	 * Books for the one customer with the given name.
+	 *
+	 * @throws java.sql.SQLException when no customer or more than one has the name
+	 * @see #bookFlight(int, int)
+	 */
+	public List<List<String>> bookFlight(String first, String last, int fid) throws SQLException {
+		return operation("BookFlightByName", () -> {
+			int[] ids = _customers.resolve(first, last);
+			if (ids.length == 0) throw new SQLException("There is no customer named " + first + " " + last);
+			if (ids.length > 1) throw new SQLException(ids.length + " customers are named " + first + " " + last + ", book by customer id");
+			return bookFlight(ids[0], fid);
+		});
+	}
+
+	/**
+	 * @return the name to customer id lookup of the booking path
+	 */
+	public CustomerResolver getCustomers() {
+		return _customers;
+	}
+
+	/**
+	 * Cancels a reservation.  A confirmed or reserved seat goes back to the
+	 * flight, which lets the waitlist promoter confirm the next passenger.
+	 *
+	 * @return one record holding the flight, the cancelled status and the
+	 *         flight's num_sold afterwards (null if no seat was held), or no
+	 *         record when the reservation does not exist
+	 */
+	public List<List<String>> cancelReservation(int rnum) throws SQLException {
+		return operation("CancelReservation", () -> {
+			List<List<String>> cancelled = executeQueryAndReturnResult(CANCEL_RESERVATION, rnum);
+			if (!cancelled.isEmpty()){
+				int fid = Integer.parseInt(cancelled.get(0).get(0));
+				_seats.invalidateFlight(fid);
+				if (cancelled.get(0).get(2) != null) _routes.sold(fid, Integer.parseInt(cancelled.get(0).get(2)));
+			}
+			return cancelled;
+		});
+	}
+
+	/**
+	 * Confirms up to batch waitlisted reservations of a flight, lowest rnum
+	 * first, in one transaction.
+	 *
+	 * @return the promoted reservation numbers with the flight's num_sold
+	 */
+	public List<List<String>> promoteWaitlist(int fid, int batch) throws SQLException {
+		return operation("PromoteWaitlist", () -> {
+			List<List<String>> promoted = executeQueryAndReturnResult(PROMOTE_WAITLIST, fid, batch);
+			if (!promoted.isEmpty()){
+				_seats.sold(fid, Integer.parseInt(promoted.get(0).get(1)));
+				_routes.sold(fid, Integer.parseInt(promoted.get(0).get(1)));
+			}
+			return promoted;
+		});
+	}
+
+	public List<List<String>> flightsOnDate(String ddate) throws SQLException {
+		return operation("FlightsOnDate", () -> executeQueryAndReturnResult(FLIGHTS_ON_DATE, ddate, ddate));
+	}
+
+	/**
+	 * One page of the flights departing between two days, see FlightSearch.
+	 *
+	 * @param departureAirport departure airport code, or null for any
+	 * @param arrivalAirport arrival airport code, or null for any
+	 * @param from first departure day (YYYY-MM-DD)
+	 * @param to last departure day (YYYY-MM-DD), inclusive
+	 * @param after FlightSearch.Page.getNext() of the previous page, or null
+	 * @param limit maximum number of flights on the page
+	 */
+	public FlightSearch.Page searchFlights(String departureAirport, String arrivalAirport, String from, String to,
+			FlightSearch.Key after, int limit) throws SQLException {
+		return operation("SearchFlights", () -> _flights.search(departureAirport, arrivalAirport,
+			LocalDate.parse(from), LocalDate.parse(to), after, limit));
+	}
+
+	/**
+	 * Answers from the seat cache, which only goes to the database on a miss.
+	 *
+	 * @return plane seats minus num_sold, or null when the flight has no plane
+	 */
+	public Integer availableSeats(int fid) throws SQLException {//6
+		return operation("ListNumberOfAvailableSeats", () -> {
+			try {
+				return _seats.available(fid);
+			}catch (SQLException e){
+				throw e;
+			}catch (Exception e){
+				throw new SQLException(e.getMessage(), e);
+			}
+		});
+	}
+
+	/**
+	 * @return the seat cache, for its hit/miss counters and for invalidation
+	 */
+	public SeatCache getSeatCache() {
+		return _seats;
+	}
+
+	public ColumnarResult repairsPerPlane() throws SQLException {//7
+		return operation("ListsTotalNumberOfRepairsPerPlane", () -> executeQueryAndReturnColumnar(REPAIRS_PER_PLANE));
+	}
+
+	/**
+	 * @param limit number of planes to return
+	 * @return plane_id and number of repairs of the most repaired planes
+	 */
+	public ColumnarResult topRepairedPlanes(int limit) throws SQLException {
+		return operation("TopRepairedPlanes", () -> executeQueryAndReturnColumnar(TOP_REPAIRED_PLANES, limit));
+	}
+
+	public ColumnarResult repairsPerYear() throws SQLException {//8
+		return operation("ListTotalNumberOfRepairsPerYear", () -> executeQueryAndReturnColumnar(REPAIRS_PER_YEAR));
+	}
+
+	public List<List<String>> passengersWithStatus(int fid, char stat) throws SQLException {//9
+		return operation("FindPassengersCountWithStatus",
+			() -> executeQueryAndReturnResult(PASSENGERS_WITH_STATUS, fid, String.valueOf(Character.toUpperCase(stat))));
+	}
+
 	/**
 	 * The main execution method
 	 * 
@@ -374,13 +935,7 @@ public class DBproject{
 					}
 				}
 
-			String query = "INSERT INTO Plane (make, model, age, seats) VALUES ";
-			query += "('" + make + "', '" + model + "', " + age + ", " + seats + ");";
-			
-
-			//System.out.println(query);
-
-			esql.executeUpdate(query);
+			esql.addPlane(make, model, age, seats);
 		}catch(Exception e){
 			System.err.println(e.getMessage());
 		}
@@ -396,13 +951,7 @@ public class DBproject{
 				nation = readString();
 
 
-			String query = "INSERT INTO Pilot (fullname, nationality) VALUES ";
-			query += "( '" + name + "', '" + nation + "');";
-
-
-			//System.out.println(query);
-
-			esql.executeUpdate(query);
+			esql.addPilot(name, nation);
 		}catch(Exception e){
 			System.out.println(e.getMessage());
 		}
@@ -466,12 +1015,36 @@ public class DBproject{
 					d_airport = readString();
 				}
 
-			String query = "INSERT INTO Flight (cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport) VALUES ";
-			query += "(" + cost + ", " + num_sold + ", " + num_stops + ", cast('" + depart_date + "' as date), cast('" + arrive_date + "' as date), '" + a_airport.toUpperCase() + "', '" + d_airport.toUpperCase() + "');";
-			
-			//System.out.println(query);
+			int fnum = esql.addFlight(cost, num_sold, num_stops, depart_date, arrive_date, a_airport, d_airport);
+			System.out.println("\tAdded flight " + fnum + ".");
 
-			esql.executeUpdate(query);
+			System.out.println("\tEnter the pilot id (0 to leave the flight unassigned): ");
+				int pilot = readInt();
+			if(pilot == 0){
+				return;
+			}
+			System.out.println("\tEnter the plane id: ");
+				int plane = readInt();
+
+			List<ScheduleConflictIndex.Conflict> conflicts = esql.assignFlight(fnum, pilot, plane, false);
+			if(!conflicts.isEmpty()){
+				System.out.println("\tThe assignment double-books:");
+				for(ScheduleConflictIndex.Conflict conflict : conflicts){
+					System.out.println("\t\t" + conflict);
+				}
+				System.out.println("\tAssign anyway: (Y/N)?");
+				char c = readChar();
+				while(c != 'y' && c != 'n' && c != 'Y' && c != 'N'){
+					System.out.println("\tInput is invalid, try again: ");
+					c = readChar();
+				}
+				if(c == 'n' || c == 'N'){
+					System.out.println("\tFlight " + fnum + " was left unassigned.");
+					return;
+				}
+				esql.assignFlight(fnum, pilot, plane, true);
+			}
+			System.out.println("\tAssigned pilot " + pilot + " and plane " + plane + " to flight " + fnum + ".");
 		}catch(Exception e){
 			System.err.println(e.getMessage());
 		}
@@ -484,12 +1057,7 @@ public class DBproject{
 			System.out.println("\tEnter full name of technician: ");
 				name = readString();
 
-			String query = "INSERT INTO Technician (full_name) VALUES ";
-			query += "('" + name + "');";
-
-			//System.out.println(query);
-
-			esql.executeUpdate(query);
+			esql.addTechnician(name);
 		}catch(Exception e){
 			System.err.println(e.getMessage());
 		}
@@ -499,7 +1067,7 @@ public class DBproject{
 		// Given a customer and a flight that he/she wants to book, add a reservation to the DB
 		try{
 			int fid = 0, x = 0;
-			String first, last, ddate, query, q1, q2;
+			String first, last, query;
 			char stat, c;
 
 			System.out.println("\tEnter first name: ");
@@ -516,50 +1084,151 @@ public class DBproject{
 				c = readChar();
 			}
 
+			//looks the customer up while the flight is being chosen
+			CompletableFuture<int[]> customer =
+				esql.getAsync().call(LOOKUP_TIMEOUT_MILLIS, () -> esql.getCustomers().resolve(first, last));
+
 			if(c == 'y'){
 				System.out.println("Enter flight number: ");
 				fid = readInt();
-
-				q1 = "THEN INSERT INTO Reservation (cid, fid, status) VALUES ((Select id from Customer Where fname = '" + first + "' and lname = '" + last + "'), " + fid + ", 'C');";
-				q2 = " ELSE INSERT INTO Reservation (cid, fid, status) VALUES ((Select id from Customer Where fname = '" + first + "' and lname = '" + last + "'), " + fid + ", 'W'); END IF; END $$;";
-				query = "DO $$ BEGIN IF (Select P.seats From Plane P, FlightInfo I Where I.plane_id = P.id and I.flight_id = " + fid + ") > (Select F.num_sold From Flight F, FlightInfo I Where F.fnum = I.flight_id and F.fnum = " + fid + ") ";
-
-				query += q1 + q2;
-
-				esql.executeUpdate(query);
 			} else {
-				System.out.println("Enter departure date (YYYY-MM-DD): ");
-				ddate = readString();
+				fid = chooseFlight(esql);
+			}
 
+			//checks the seats at the same time as the customer lookup completes
+			final int flight = fid;
+			CompletableFuture<Integer> seats = esql.getAsync().call(LOOKUP_TIMEOUT_MILLIS, () -> esql.availableSeats(flight));
 
-				while(dateCheck(ddate)){
-					ddate = readString();
+			int[] ids = await(customer);
+			if(ids.length == 0){
+				seats.cancel(true);
+				System.out.println("\tThere is no customer named " + first + " " + last + ".");
+				return;
+			}
+			int cid = ids[0];
+			if(ids.length > 1){
+				System.out.println("\tThere are " + ids.length + " customers named " + first + " " + last + ": " + Arrays.toString(ids));
+				System.out.println("\tEnter the customer id of the traveler: ");
+				cid = readInt();
+				while(Arrays.binarySearch(ids, cid) < 0){
+					System.out.println("\tInput is not one of the ids above, try again: ");
+					cid = readInt();
 				}
+			}
+			Integer free = await(seats);
+			if(free == null){
+				System.out.println("\tFlight " + fid + " has no plane assigned.");
+				return;
+			}
+			if(free <= 0){
+				System.out.println("\tFlight " + fid + " is full, the reservation goes on the waitlist.");
+			}
 
-				query = "Select * From Flight Where actual_departure_date::date >= '" + ddate + "' and actual_departure_date < ('"  + ddate + "'::date + '1 day'::interval);";
-				x = esql.executeQueryAndPrintResult(query);
+			printBooking(esql.bookFlight(cid, fid));
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}
+	}
 
-				System.out.println("Enter the flight number of the desired flight: ");
-				fid = readInt();
+	/**
+	 * Waits for an asynchronous call and rethrows its own exception.
+	 */
+	private static <T> T await(CompletableFuture<T> future) throws Exception {
+		try{
+			return future.get();
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) throw (Exception) cause;
+			throw e;
+		}
+	}
 
-				q1 = "THEN INSERT INTO Reservation (cid, fid, status) VALUES ((Select id from Customer Where fname = '" + first + "' and lname = '" + last + "'), " + fid + ", 'C');";
-				q2 = " ELSE INSERT INTO Reservation (cid, fid, status) VALUES ((Select id from Customer Where fname = '" + first + "' and lname = '" + last + "'), " + fid + ", 'W'); END IF; END $$;";
-				query = "DO $$ BEGIN IF (Select P.seats From Plane P, FlightInfo I Where I.plane_id = P.id and I.flight_id = " + fid + ") > (Select F.num_sold From Flight F, FlightInfo I Where F.fnum = I.flight_id and F.fnum = " + fid + ") ";
+	/**
+	 * Lists the flights of a departure day, optionally from one airport, a
+	 * page at a time, until the user picks one.
+	 *
+	 * @return the chosen flight number
+	 */
+	private static int chooseFlight(DBproject esql) throws SQLException {
+		System.out.println("\tEnter flight departure date (YYYY-MM-DD): ");
+		String ddate = readString();
+		while(dateCheck(ddate)){
+			ddate = readString();
+		}
+		System.out.println("\tEnter the code for the departure airport (5 letters), or press Enter for all airports: ");
+		String airport = readString().trim();
+		while(!airport.isEmpty() && codeCheck(airport)){
+			airport = readString().trim();
+		}
 
-				query += q1 + q2;
+		FlightSearch.Key after = null;
+		while(true){
+			FlightSearch.Page page = esql.searchFlights(airport.isEmpty() ? null : airport, null, ddate, ddate, after, FLIGHT_PAGE_SIZE);
+			if(after == null && page.getRows().isEmpty()){
+				System.out.println("\tNo flights depart on " + ddate + ".");
+			}else{
+				System.out.println("fnum\tfrom\tto\tdeparture\tarrival\tcost\tstops");
+				for(List<String> row : page.getRows()){
+					System.out.println(String.join("\t", row));
+				}
+			}
+			after = page.getNext();
+			if(after == null){
+				System.out.println("\nEnter the flight number of the desired flight: ");
+				return readInt();
+			}
+			System.out.println("\nEnter the flight number of the desired flight, or press Enter for more flights: ");
+			String choice = readString().trim();
+			while(!choice.isEmpty()){
+				try{
+					return Integer.parseInt(choice);
+				}catch(NumberFormatException e){
+					System.out.println("Your input is invalid!");
+					choice = readString().trim();
+				}
+			}
+		}
+	}//end chooseFlight
+
+	private static void printBooking(List<List<String>> booking) {
+		List<String> record = booking.get(0);
+		if (record.get(1).equals("C"))
+			System.out.println("\tReservation " + record.get(0) + " is confirmed.");
+		else
+			System.out.println("\tThe flight is full, reservation " + record.get(0) + " is on the waitlist.");
+	}
 
-				esql.executeUpdate(query);
+	//header line, then one line per record, as executeQueryAndPrintResult prints them
+	private static void printRecords(List<String> header, List<List<String>> records) {
+		StringBuilder sb = new StringBuilder(String.join("\t", header)).append('\n');
+		for (List<String> record : records) {
+			for (int i = 0; i < record.size(); ++i) {
+				if (i > 0) sb.append('\t');
+				sb.append(record.get(i) == null ? "\\N" : record.get(i));
 			}
-		}catch(Exception e){
-			System.err.println(e.getMessage());
+			sb.append('\n');
 		}
+		System.out.print(sb);
+	}
+
+	private static void printResult(ColumnarResult result) {
+		List<String> header = new ArrayList<String>();
+		for (int col = 1; col <= result.getColumnCount(); ++col) header.add(result.getColumnName(col));
+		printRecords(header, result.toRecords());
+	}
+
+	private static void printAvailableSeats(DBproject esql, int fid) throws SQLException {
+		Integer seats = esql.availableSeats(fid);
+		if (seats == null)
+			System.out.println("\tFlight " + fid + " has no plane assigned.");
+		else
+			System.out.println("Available Seats\t\n" + seats + "\t");
 	}
 
 	public static void ListNumberOfAvailableSeats(DBproject esql) {//6
 		// For flight number and date, find the number of availalbe seats (i.e. total plane capacity minus booked seats )
 		try{
 			int fid = 0;
-			String ddate, query;
 			char c;
 
 
@@ -577,28 +1246,13 @@ public class DBproject{
 				System.out.println("\tEnter flight number: ");
 				fid = readInt();
 
-				query = "Select (P.seats - F.num_sold) as \"Available Seats\" From Plane P, Flight F, FlightInfo I Where P.id = I.plane_id and F.fnum = I.flight_id and F.fnum = " + fid + ";";
-
-				int x = esql.executeQueryAndPrintResult(query);
+				printAvailableSeats(esql, fid);
 				System.out.println("\n");	
 			} else {
 				//System.out.println("\nFailed\n");
-				System.out.println("\tEnter flight departure date (YYYY-MM-DD): ");
-				ddate = readString();
+				fid = chooseFlight(esql);
 
-				while(dateCheck(ddate)){
-					ddate = readString();
-				}
-
-				query = "Select * From Flight Where actual_departure_date::date >= '" + ddate + "' and actual_departure_date < ('"  + ddate + "'::date + '1 day'::interval);";
-				int x = esql.executeQueryAndPrintResult(query);
-
-				System.out.println("\nEnter the flight number of the desired flight: ");
-				fid = readInt();
-
-				query = "Select (P.seats - F.num_sold) as \"Available Seats\" From Plane P, Flight F, FlightInfo I Where P.id = I.plane_id and F.fnum = I.flight_id and F.fnum = " + fid + ";";
-
-				x = esql.executeQueryAndPrintResult(query);
+				printAvailableSeats(esql, fid);
 			}
 		}catch(Exception e){
 			System.err.println(e.getMessage());
@@ -608,9 +1262,7 @@ public class DBproject{
 	public static void ListsTotalNumberOfRepairsPerPlane(DBproject esql) {//7
 		// Count number of repairs per planes and list them in descending order
 		try{
-			String query = "Select R.plane_id, COUNT(*) as n From Repairs R Group by R.plane_id Order by n desc;";
-
-			int x = esql.executeQueryAndPrintResult(query);
+			printResult(esql.repairsPerPlane());
 		}catch(Exception e){
 			System.err.println(e.getMessage());
 		}
@@ -619,9 +1271,7 @@ public class DBproject{
 	public static void ListTotalNumberOfRepairsPerYear(DBproject esql) {//8
 		// Count repairs per year and list them in ascending order
 		try{
-			String query = "Select extract(year from repair_date) as Year, COUNT(*) as Sum From Repairs Group by Year Order by Sum;";
-
-			int x = esql.executeQueryAndPrintResult(query);
+			printResult(esql.repairsPerYear());
 		}catch(Exception e){
 			System.err.println(e.getMessage());
 		}
@@ -632,7 +1282,6 @@ public class DBproject{
 		try{
 			int fid = 0;
 			char stat, c;
-			String ddate;
 
 			System.out.println("Do you know flight number? (y/n): ");
 			c = readChar();
@@ -655,24 +1304,11 @@ public class DBproject{
 					stat = readChar();
 				}
 
-				String query = "Select COUNT(*) From Flight F, Reservation R Where F.fnum = " + fid + " and R.status = '" + stat + "' and F.fnum = R.fid;";
-
-				int x = esql.executeQueryAndPrintResult(query);
+				printRecords(Arrays.asList("count"), esql.passengersWithStatus(fid, stat));
 				System.out.println("\n");	
 			} else {
 				//System.out.println("\nFailed\n");
-				System.out.println("\tEnter flight departure date (YYYY-MM-DD): ");
-				ddate = readString();
-
-				while(dateCheck(ddate)){
-					ddate = readString();
-				}
-
-				String query = "Select * From Flight Where actual_departure_date::date >= '" + ddate + "' and actual_departure_date < ('"  + ddate + "'::date + '1 day'::interval);";
-				int x = esql.executeQueryAndPrintResult(query);
-
-				System.out.println("\nEnter the flight number of the desired flight: ");
-				fid = readInt();
+				fid = chooseFlight(esql);
 
 
 				System.out.println("\tEnter the passenger status (W, R, C): ");
@@ -683,9 +1319,7 @@ public class DBproject{
 					stat = readChar();
 				}
 
-				query = "Select COUNT(*) From Flight F, Reservation R Where F.fnum = " + fid + " and R.status = '" + stat + "' and F.fnum = R.fid;";
-
-				x = esql.executeQueryAndPrintResult(query);
+				printRecords(Arrays.asList("count"), esql.passengersWithStatus(fid, stat));
 			}
 		}catch(Exception e){
 			System.err.println(e.getMessage());
@@ -0,0 +1,406 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates the data/*.csv files at any scale factor, in the formats the
+ * COPY statements of create.sql and BulkLoader expect.  Scale factor 1 gives
+ * the size of the fixtures (250 customers, 2000 flights, 10000 reservations);
+ * scale factor 10000 gives 100M reservations.
+ *
+ * Every row is computed from its id alone, with a random generator seeded by
+ * (seed, table, id).  That keeps memory use constant and lets the rows of one
+ * table be produced by several threads in parallel, each writing a part file
+ * that is concatenated in id order at the end.  It also keeps the tables
+ * consistent without holding any of them in memory: the plane of flight f is
+ * recomputed wherever it is needed, so Schedule matches the flight's dates,
+ * and so are the reservations of a flight, as follows.
+ *
+ * The reservations are laid out in one block per flight, hottest flight
+ * first, with block sizes from the Zipf distribution (exponent 1.1) of the
+ * flight popularity; rnum is a scrambled position in that layout and the
+ * flight order is scrambled as well.  The first Plane.seats positions of a
+ * block are confirmed, C or R about 70:30, and the rest are waitlisted, so
+ * num_sold is the number of C and R rows of the flight, never above its
+ * seats, and only full flights have a waitlist.  Airports are Zipf-skewed
+ * over a pool of codes, and repair dates are spread over 2010 to 2024.
+ */
+public class DataGenerator {
+	static final int CUSTOMER = 1, PILOT = 2, PLANE = 3, TECHNICIAN = 4, FLIGHT = 5,
+		RESERVATION = 6, FLIGHTINFO = 7, REPAIRS = 8, SCHEDULE = 9, AIRPORT = 10;
+	static final int CHUNK_ROWS = 1000000;
+
+	static final String[] FIRST_NAMES = {"Armand", "Alberto", "Wyatt", "Ina", "Maria", "Chen", "Fatima", "Olga", "Kenji", "Amara",
+		"Luis", "Grace", "Noah", "Priya", "Sven", "Aiko", "Omar", "Lena", "Mateo", "Zoe", "Ivan", "Nia", "Hugo", "Leila"};
+	static final String[] LAST_NAMES = {"Enderle", "Scarlett", "Ruoff", "Lecroy", "Garcia", "Nguyen", "Okafor", "Petrov", "Tanaka",
+		"Silva", "Muller", "Kowalski", "Haddad", "Johansson", "Rossi", "Dubois", "Kim", "Patel", "Smith", "Mbeki", "Novak", "Costa"};
+	static final String[] STREETS = {"Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Oak Lane", "Maple Road", "Sunset Blvd.",
+		"Lakeview Court", "Hillcrest Way"};
+	static final String[] CITIES = {"Melbourne", "Baton Rouge", "Cockeysville", "Riverside", "Springfield", "Fairview", "Madison"};
+	static final String[] STATES = {"FL", "LA", "MD", "CA", "TX", "NY", "WA", "IL", "OH", "GA"};
+	static final String[] COUNTRIES = {"Australia", "Morocco", "India", "Brazil", "Canada", "Germany", "Japan", "Kenya", "Mexico",
+		"Norway", "Peru", "Spain", "United States"};
+	static final String[][] PLANE_MODELS = {{"Airbus", "AirbusA300"}, {"Airbus", "AirbusA320"}, {"Airbus", "AirbusA350"},
+		{"Boeing", "Boeing737"}, {"Boeing", "Boeing767"}, {"Boeing", "Boeing787"}, {"Embraer", "EmbraerE190"},
+		{"Bombadier", "BombardierCRJ900"}};
+	static final LocalDate FIRST_DEPARTURE = LocalDate.of(2014, 1, 1);
+	static final LocalDate FIRST_REPAIR = LocalDate.of(2010, 1, 1);
+	static final int REPAIR_DAYS = 15 * 365;
+
+	private final long seed;
+	private final long customers, pilots, planes, technicians, flights, reservations, repairs;
+	private final int airports;
+	private final int departureDays;
+	private final ZipfSampler flightPopularity;
+	private final ZipfSampler airportPopularity;
+	private final long flightScramble, flightUnscramble;
+	private final long reservationScramble;
+
+	public DataGenerator(double scale, long seed) {
+		if (scale <= 0) throw new IllegalArgumentException("scale factor must be positive");
+		this.seed = seed;
+		this.customers = count(250, scale);
+		this.pilots = count(250, scale);
+		this.planes = count(67, scale);
+		this.technicians = count(250, scale);
+		this.flights = count(2000, scale);
+		this.reservations = count(10000, scale);
+		this.repairs = count(550, scale);
+		this.airports = (int) Math.min(20000, Math.max(20, 200 * Math.sqrt(scale)));
+		this.departureDays = (int) Math.max(30, Math.min(3650, 30 * Math.sqrt(scale)));
+		if (flights > Integer.MAX_VALUE) throw new IllegalArgumentException("scale factor too large");
+		this.flightPopularity = new ZipfSampler((int) flights, 1.1);
+		this.airportPopularity = new ZipfSampler(airports, 0.8);
+		this.flightScramble = coprime(flights);
+		this.flightUnscramble = inverse(flightScramble, flights);
+		this.reservationScramble = coprime(reservations);
+	}
+
+	static long count(long base, double scale) {
+		return Math.max(1, Math.round(base * scale));
+	}
+
+	/**
+	 * @return a large multiplier coprime to n, so that rank * multiplier mod n
+	 *         is a permutation that scatters the popular flights over the ids
+	 */
+	static long coprime(long n) {
+		long m = 2654435761L % Math.max(n, 2);
+		while (m < 2 || gcd(m, n) != 1) ++m;
+		return m;
+	}
+
+	/**
+	 * @return x with a * x mod n = 1, for a coprime to n
+	 */
+	static long inverse(long a, long n) {
+		long r0 = n, r1 = a % n, x0 = 0, x1 = 1;
+		while (r1 != 0) {
+			long q = r0 / r1, t = r0 - q * r1;
+			r0 = r1;
+			r1 = t;
+			t = x0 - q * x1;
+			x0 = x1;
+			x1 = t;
+		}
+		return Math.floorMod(x0, n);
+	}
+
+	/**
+	 * @return a * b mod m without overflow, for a and b below m
+	 */
+	static long mulMod(long a, long b, long m) {
+		if (a == 0 || b <= Long.MAX_VALUE / a) return a * b % m;
+		long result = 0;
+		for (a %= m; b > 0; b >>= 1) {
+			if ((b & 1) != 0) result = (result + a) % m;
+			a = (a << 1) % m;
+		}
+		return result;
+	}
+
+	static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	private SplittableRandom random(int table, long id) {
+		long h = seed * 0x9E3779B97F4A7C15L + table * 0xC2B2AE3D27D4EB4FL + id;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		return new SplittableRandom(h);
+	}
+
+	/**
+	 * A table to generate: the file it goes to and how one row is written.
+	 */
+	abstract class Table {
+		final String file;
+		final long rows;
+
+		Table(String file, long rows) {
+			this.file = file;
+			this.rows = rows;
+		}
+
+		abstract void row(long id, StringBuilder sb);
+	}
+
+	List<Table> tables() {
+		List<Table> tables = new ArrayList<Table>();
+		tables.add(new Table("customer.csv", customers) {
+			void row(long id, StringBuilder sb) {
+				SplittableRandom r = random(CUSTOMER, id);
+				LocalDate dob = LocalDate.of(1930, 1, 1).plusDays(r.nextInt(75 * 365));
+				sb.append(id).append(',').append(pick(r, FIRST_NAMES)).append(',').append(pick(r, LAST_NAMES)).append(',')
+					.append(r.nextBoolean() ? 'M' : 'F').append(',')
+					.append(dob.getMonthValue()).append('/').append(dob.getDayOfMonth()).append('/').append(dob.getYear()).append(',')
+					.append(1 + r.nextInt(9999)).append(' ').append(pick(r, STREETS)).append(' ').append(pick(r, CITIES)).append(',')
+					.append(1000000000L + r.nextLong(9000000000L)).append(',')
+					.append(' ').append(pick(r, STATES)).append(' ').append(10000 + r.nextInt(90000));
+			}
+		});
+		tables.add(new Table("pilots.csv", pilots) {
+			void row(long id, StringBuilder sb) {
+				SplittableRandom r = random(PILOT, id);
+				sb.append(id).append(',').append(pick(r, FIRST_NAMES)).append(' ').append(pick(r, LAST_NAMES)).append(',').append(pick(r, COUNTRIES));
+			}
+		});
+		tables.add(new Table("planes.csv", planes) {
+			void row(long id, StringBuilder sb) {
+				SplittableRandom r = random(PLANE, id);
+				String[] model = pick(r, PLANE_MODELS);
+				sb.append(id).append(',').append(model[0]).append(',').append(model[1]).append(',').append(r.nextInt(31)).append(',').append(seats(id));
+			}
+		});
+		tables.add(new Table("technician.csv", technicians) {
+			void row(long id, StringBuilder sb) {
+				SplittableRandom r = random(TECHNICIAN, id);
+				sb.append(id).append(',').append(pick(r, FIRST_NAMES)).append(' ').append(pick(r, LAST_NAMES));
+			}
+		});
+		tables.add(new Table("flights.csv", flights) {
+			void row(long id, StringBuilder sb) {
+				SplittableRandom r = random(FLIGHT, id);
+				long departure = departureMinute(id);
+				int from = airport(r), to = airport(r);
+				if (to == from) to = (to + 1) % airports;
+				sb.append(id).append(',').append(100 + r.nextInt(900)).append(',').append(numSold(id)).append(',')
+					.append(r.nextInt(4)).append(',');
+				timestamp(departure, sb);
+				sb.append(',');
+				timestamp(departure + duration(id), sb);
+				sb.append(',');
+				airportCode(to, sb);
+				sb.append(',');
+				airportCode(from, sb);
+			}
+		});
+		tables.add(new Table("flightinfo.csv", flights) {
+			void row(long id, StringBuilder sb) {
+				SplittableRandom r = random(FLIGHTINFO, id);
+				sb.append(id).append(',').append(id).append(',').append(r.nextLong(pilots)).append(',').append(plane(id));
+			}
+		});
+		tables.add(new Table("schedule.csv", flights) {
+			void row(long id, StringBuilder sb) {
+				long departure = departureMinute(id);
+				sb.append(id).append(',').append(id).append(',');
+				timestamp(departure, sb);
+				sb.append(',');
+				timestamp(departure + duration(id), sb);
+			}
+		});
+		tables.add(new Table("reservation.csv", reservations) {
+			void row(long id, StringBuilder sb) {
+				SplittableRandom r = random(RESERVATION, id);
+				long position = mulMod(id, reservationScramble, reservations);
+				long rank = rankAt(position);
+				long fid = (rank - 1) * flightScramble % flights;
+				char status = position - blockStart(rank - 1) >= seats(plane(fid)) ? 'W' : r.nextInt(100) < 70 ? 'C' : 'R';
+				sb.append(id).append(',').append(r.nextLong(customers)).append(',').append(fid).append(',').append(status);
+			}
+		});
+		tables.add(new Table("repairs.csv", repairs) {
+			void row(long id, StringBuilder sb) {
+				SplittableRandom r = random(REPAIRS, id);
+				int p = r.nextInt(100);
+				sb.append(id).append(',').append(FIRST_REPAIR.plusDays(r.nextInt(REPAIR_DAYS))).append(',')
+					.append(p < 60 ? "SV" : p < 90 ? "MN" : "MJ").append(',')
+					.append(r.nextLong(pilots)).append(',').append(r.nextLong(planes)).append(',').append(r.nextLong(technicians));
+			}
+		});
+		return tables;
+	}//end tables
+
+	/* values shared by several tables, recomputed from the id */
+
+	int seats(long planeId) {
+		return 50 + random(PLANE, -planeId - 1).nextInt(400);
+	}
+
+	long plane(long flightId) {
+		return random(FLIGHTINFO, -flightId - 1).nextLong(planes);
+	}
+
+	/**
+	 * @return the first reservation position of the flights of popularity
+	 *         rank above k, i.e. the number of reservations of ranks 1..k
+	 */
+	long blockStart(long k) {
+		return Math.round(reservations * flightPopularity.cumulative(k));
+	}
+
+	/**
+	 * @return the popularity rank whose block holds a reservation position
+	 */
+	long rankAt(long position) {
+		long k = Math.max(1, Math.min(flights, (long) Math.ceil(flightPopularity.inverseCumulative((position + 0.5) / reservations))));
+		while (k > 1 && blockStart(k - 1) > position) --k;
+		while (k < flights && blockStart(k) <= position) ++k;
+		return k;
+	}
+
+	/**
+	 * @return the confirmed reservations of a flight: its block, up to the seats
+	 */
+	long numSold(long flightId) {
+		long rank = flightId * flightUnscramble % flights + 1;
+		return Math.min(blockStart(rank) - blockStart(rank - 1), seats(plane(flightId)));
+	}
+
+	long departureMinute(long flightId) {
+		SplittableRandom r = random(SCHEDULE, flightId);
+		return (FIRST_DEPARTURE.toEpochDay() + r.nextInt(departureDays)) * 1440 + r.nextInt(1440);
+	}
+
+	long duration(long flightId) {
+		return 60 + random(SCHEDULE, -flightId - 1).nextInt(14 * 60);
+	}
+
+	int airport(SplittableRandom r) {
+		return airportPopularity.sample(r) - 1;
+	}
+
+	void airportCode(int airport, StringBuilder sb) {
+		SplittableRandom r = random(AIRPORT, airport);
+		// distinct airports may share a code by chance; that only merges routes
+		for (int i = 0; i < 5; ++i) sb.append((char) ('A' + r.nextInt(26)));
+	}
+
+	static void timestamp(long epochMinute, StringBuilder sb) {
+		LocalDate day = LocalDate.ofEpochDay(Math.floorDiv(epochMinute, 1440));
+		int minute = (int) Math.floorMod(epochMinute, 1440L);
+		sb.append(day).append(' ');
+		if (minute / 60 < 10) sb.append('0');
+		sb.append(minute / 60).append(':');
+		if (minute % 60 < 10) sb.append('0');
+		sb.append(minute % 60);
+	}
+
+	static <T> T pick(SplittableRandom r, T[] values) {
+		return values[r.nextInt(values.length)];
+	}
+
+	/**
+	 * Writes every table into the output directory.
+	 *
+	 * @param dir the output directory
+	 * @param threads number of chunks generated at the same time
+	 * @throws Exception when a file cannot be written
+	 */
+	public void generate(File dir, int threads) throws Exception {
+		dir.mkdirs();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (final Table t : tables()) {
+				long begin = System.nanoTime();
+				final List<Future<File>> parts = new ArrayList<Future<File>>();
+				for (long from = 0; from < t.rows; from += CHUNK_ROWS) {
+					final long start = from, end = Math.min(t.rows, from + CHUNK_ROWS);
+					final File part = new File(dir, t.file + ".part" + (from / CHUNK_ROWS));
+					parts.add(executor.submit(() -> writePart(t, start, end, part)));
+				}
+				concat(parts, new File(dir, t.file));
+				double seconds = (System.nanoTime() - begin) / 1e9;
+				System.out.printf("%s: %d rows in %.1f s (%.0f rows/s)%n", t.file, t.rows, seconds, t.rows / seconds);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}//end generate
+
+	private static File writePart(Table t, long from, long to, File part) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(part), StandardCharsets.UTF_8), 1 << 20);
+		try {
+			StringBuilder sb = new StringBuilder(256);
+			for (long id = from; id < to; ++id) {
+				sb.setLength(0);
+				t.row(id, sb);
+				sb.append('\n');
+				out.append(sb);
+			}
+		} finally {
+			out.close();
+		}
+		return part;
+	}
+
+	private static void concat(List<Future<File>> parts, File target) throws Exception {
+		FileOutputStream out = new FileOutputStream(target);
+		try {
+			FileChannel channel = out.getChannel();
+			for (Future<File> f : parts) {
+				File part = f.get();
+				FileInputStream in = new FileInputStream(part);
+				try {
+					FileChannel src = in.getChannel();
+					long pos = 0, size = src.size();
+					while (pos < size) pos += src.transferTo(pos, size - pos, channel);
+				} finally {
+					in.close();
+				}
+				part.delete();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param args &lt;output dir&gt; &lt;scale factor&gt; [threads] [seed]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + DataGenerator.class.getName () +
+					" <output dir> <scale factor> [threads] [seed]");
+			return;
+		}//end if
+		try {
+			int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+			long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+			new DataGenerator(Double.parseDouble(args[1]), seed).generate(new File(args[0]), threads);
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		}
+	}
+}
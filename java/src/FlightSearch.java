@@ -0,0 +1,125 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Flight search by departure date window and optionally by departure and
+ * arrival airport, paged with a keyset on (actual_departure_date, fnum): each
+ * page starts after the last row of the previous one, so fetching page n
+ * costs the same as fetching the first page.
+ *
+ * The predicates compare the bare columns, so they match the indexes of
+ * migrations V002 and V004.  Every combination of filters has its own query
+ * text, which keeps each prepared statement's plan specific to its filters.
+ */
+public class FlightSearch {
+	static final String COLUMNS =
+		"Select fnum, departure_airport, arrival_airport, actual_departure_date, actual_arrival_date, cost, num_stops From Flight ";
+
+	//[departure airport given][arrival airport given]
+	private static final String[][] QUERIES = new String[2][2];
+	static {
+		for (int d = 0; d < 2; ++d) {
+			for (int a = 0; a < 2; ++a) {
+				QUERIES[d][a] = COLUMNS + "Where actual_departure_date >= ? and actual_departure_date < ?" +
+					(d == 1 ? " and departure_airport = ?" : "") +
+					(a == 1 ? " and arrival_airport = ?" : "") +
+					" and (actual_departure_date, fnum) > (?, ?) Order by actual_departure_date, fnum Limit ?;";
+			}
+		}
+	}
+
+	/**
+	 * Position after a row, (actual_departure_date, fnum).
+	 */
+	public static class Key {
+		private final LocalDate departure;
+		private final int fnum;
+
+		public Key(LocalDate departure, int fnum) {
+			this.departure = departure;
+			this.fnum = fnum;
+		}
+
+		public LocalDate getDeparture() {
+			return departure;
+		}
+
+		public int getFnum() {
+			return fnum;
+		}
+
+		@Override
+		public String toString() {
+			return departure + "/" + fnum;
+		}
+	}
+
+	/**
+	 * One page of results: fnum, departure_airport, arrival_airport,
+	 * actual_departure_date, actual_arrival_date, cost, num_stops.
+	 */
+	public static class Page {
+		private final List<List<String>> rows;
+		private final Key next;
+
+		Page(List<List<String>> rows, Key next) {
+			this.rows = rows;
+			this.next = next;
+		}
+
+		public List<List<String>> getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return the key to pass for the following page, or null when this is
+		 *         the last one
+		 */
+		public Key getNext() {
+			return next;
+		}
+	}
+
+	private final DBproject esql;
+
+	public FlightSearch(DBproject esql) {
+		this.esql = esql;
+	}
+
+	/**
+	 * @param departureAirport departure airport code, or null for any
+	 * @param arrivalAirport arrival airport code, or null for any
+	 * @param from first departure day
+	 * @param to last departure day, inclusive
+	 * @param after the key of the previous page, or null for the first page
+	 * @param limit maximum number of rows of the page
+	 * @return the page
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public Page search(String departureAirport, String arrivalAirport, LocalDate from, LocalDate to, Key after, int limit) throws SQLException {
+		if (limit < 1) throw new IllegalArgumentException("page size must be positive");
+		List<Object> params = new ArrayList<Object>(7);
+		params.add(Date.valueOf(from));
+		params.add(Date.valueOf(to.plusDays(1)));
+		if (departureAirport != null) params.add(departureAirport.toUpperCase());
+		if (arrivalAirport != null) params.add(arrivalAirport.toUpperCase());
+		if (after == null) after = new Key(from, Integer.MIN_VALUE);
+		params.add(Date.valueOf(after.departure));
+		params.add(after.fnum);
+		//one row more than asked tells whether there is a next page
+		params.add(limit + 1);
+
+		String query = QUERIES[departureAirport != null ? 1 : 0][arrivalAirport != null ? 1 : 0];
+		List<List<String>> rows = esql.executeQueryAndReturnResult(query, params.toArray());
+		Key next = null;
+		if (rows.size() > limit) {
+			rows = new ArrayList<List<String>>(rows.subList(0, limit));
+			List<String> last = rows.get(limit - 1);
+			next = new Key(LocalDate.parse(last.get(3)), Integer.parseInt(last.get(0)));
+		}
+		return new Page(rows, next);
+	}//end search
+}
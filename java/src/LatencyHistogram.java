@@ -0,0 +1,131 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative long values (typically latencies in
+ * nanoseconds) with log-linear buckets, in the style of HdrHistogram: every
+ * power of two is split into 64 linear sub-buckets, so any recorded value is
+ * reported with a relative error below 1.6%, from 1 ns up to Long.MAX_VALUE,
+ * in a fixed 30 KB of counters.  record() may be called from any thread.
+ */
+public class LatencyHistogram {
+	static final int SUB_BITS = 7;
+	static final int SUB_COUNT = 1 << SUB_BITS;
+	static final int HALF = SUB_COUNT >> 1;
+	static final int BUCKETS = SUB_COUNT + (64 - SUB_BITS) * HALF;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong(0);
+
+	static int index(long value) {
+		if (value < SUB_COUNT) return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+		return SUB_COUNT + (shift - 1) * HALF + (int) ((value >>> shift) - HALF);
+	}
+
+	/** @return the highest value that falls into the bucket */
+	static long highestValue(int index) {
+		if (index < SUB_COUNT) return index;
+		int shift = (index - SUB_COUNT) / HALF + 1;
+		long sub = (index - SUB_COUNT) % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * Records one value; negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		if (value < 0) value = 0;
+		counts.incrementAndGet(index(value));
+		total.increment();
+		sum.add(value);
+		long m;
+		while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+			// retry
+		}
+	}
+
+	public long getCount() {
+		return total.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public double getMean() {
+		long n = total.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return a value that at least the given percentage of the recorded
+	 *         values are less than or equal to, or 0 when nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0) return 0;
+		long rank = (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * n);
+		if (rank < 1) rank = 1;
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += snapshot[i];
+			if (seen >= rank) return Math.min(highestValue(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Calls the visitor for every non-empty bucket, in increasing order,
+	 * with the bucket's highest value and its count.
+	 */
+	public void forEachBucket(BucketVisitor visitor) {
+		for (int i = 0; i < BUCKETS; ++i) {
+			long c = counts.get(i);
+			if (c > 0) visitor.bucket(highestValue(i), c);
+		}
+	}
+
+	/**
+	 * Adds the values recorded by another histogram to this one.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; ++i) {
+			long c = other.counts.get(i);
+			if (c > 0) counts.addAndGet(i, c);
+		}
+		total.add(other.total.sum());
+		sum.add(other.sum.sum());
+		long m, o = other.max.get();
+		while (o > (m = max.get()) && !max.compareAndSet(m, o)) {
+			// retry
+		}
+	}
+
+	public interface BucketVisitor {
+		void bucket(long highestValue, long count);
+	}
+
+	/**
+	 * Clears the histogram.  Values recorded concurrently may be lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; ++i) counts.set(i, 0);
+		total.reset();
+		sum.reset();
+		max.set(0);
+	}
+}
@@ -0,0 +1,134 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Housekeeping jobs for the summary tables that triggers keep next to the
+ * base tables.  The triggers update them in the same transaction as the
+ * base rows, so these jobs should find nothing to fix; they exist to prove
+ * that, and to repair the summaries after the triggers were bypassed (e.g.
+ * with session_replication_role = replica during a restore).
+ *
+ * The partitions job keeps the partitioned tables of migration V009 ready.
+ * Run it from cron, e.g. daily; it only acts when a new period comes in
+ * sight, a period expires, or rows landed in a default partition.
+ *
+ *	reconcile-status [--fix]	compares ReservationStatusCount with Reservation
+ *	refresh-repairs			recomputes RepairsPerPlane and RepairsPerYear
+ *	partitions			creates, fills and archives partitions per PartitionPolicy
+ */
+public class Maintenance {
+	private final Connection conn;
+
+	public Maintenance(Connection conn) {
+		this.conn = conn;
+	}
+
+	/**
+	 * Lists the per flight status counters that disagree with Reservation.
+	 *
+	 * @param fix whether to correct them
+	 * @return the number of wrong counters
+	 * @throws java.sql.SQLException when the check fails
+	 */
+	public int reconcileStatusCounts(boolean fix) throws SQLException {
+		int wrong = 0;
+		PreparedStatement stmt = conn.prepareStatement("Select fid, status, counted, actual From reconcile_reservation_status_counts(?);");
+		try {
+			stmt.setBoolean(1, fix);
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				if (wrong == 0) System.out.println("fid\tstatus\tcounted\tactual");
+				System.out.println(rs.getInt(1) + "\t" + rs.getString(2) + "\t" + rs.getLong(3) + "\t" + rs.getLong(4));
+				++wrong;
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+		return wrong;
+	}//end reconcileStatusCounts
+
+	/**
+	 * Recomputes the repair summaries from Repairs.
+	 *
+	 * @return the number of counters that were wrong
+	 * @throws java.sql.SQLException when the refresh fails
+	 */
+	public long refreshRepairSummaries() throws SQLException {
+		PreparedStatement stmt = conn.prepareStatement("Select refresh_repair_summaries();");
+		try {
+			ResultSet rs = stmt.executeQuery();
+			rs.next();
+			return rs.getLong(1);
+		} finally {
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Runs maintain_partitions() and lists what it did.
+	 *
+	 * @return the number of partitions created, filled or archived
+	 * @throws java.sql.SQLException when the job fails; it is rolled back
+	 */
+	public int maintainPartitions() throws SQLException {
+		int actions = 0;
+		PreparedStatement stmt = conn.prepareStatement("Select table_name, partition_name, action From maintain_partitions();");
+		try {
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				if (actions == 0) System.out.println("table\tpartition\taction");
+				System.out.println(rs.getString(1) + "\t" + rs.getString(2) + "\t" + rs.getString(3));
+				++actions;
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+		return actions;
+	}//end maintainPartitions
+
+	public static void main(String[] args) {
+		if (args.length < 4) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + Maintenance.class.getName () +
+					" <dbname> <port> <user> <reconcile-status [--fix] | refresh-repairs | partitions>");
+			return;
+		}//end if
+
+		Connection conn = null;
+		try {
+			Class.forName("org.postgresql.Driver");
+			conn = DriverManager.getConnection(DBproject.connectionUrl(args[0], args[1]), args[2], "");
+			Maintenance maintenance = new Maintenance(conn);
+			switch (args[3]) {
+				case "reconcile-status":
+					boolean fix = args.length > 4 && args[4].equals("--fix");
+					int wrong = maintenance.reconcileStatusCounts(fix);
+					if (wrong == 0) System.out.println("Status counters match Reservation");
+					else System.out.println(wrong + " status counter(s) " + (fix ? "corrected" : "differ, run with --fix to correct them"));
+					break;
+				case "refresh-repairs":
+					long n = maintenance.refreshRepairSummaries();
+					System.out.println(n == 0 ? "Repair summaries match Repairs" : "Corrected " + n + " repair counter(s)");
+					break;
+				case "partitions":
+					if (maintenance.maintainPartitions() == 0) System.out.println("Partitions are up to date");
+					break;
+				default:
+					System.err.println("Unknown job " + args[3]);
+			}
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		} finally {
+			try {
+				if (conn != null) conn.close();
+			} catch (SQLException e) {
+				// ignored.
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies the versioned schema migrations of sql/migrations on top of the
+ * schema created by create.sql.  Migration files are named
+ * V&lt;version&gt;__&lt;description&gt;.sql and applied in version order, each in
+ * its own transaction.  Applied versions are recorded in the schema_version
+ * table, so running the migrator again only applies the new ones.
+ */
+public class Migrator {
+	static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
+	private final Connection conn;
+
+	public Migrator(Connection conn) {
+		this.conn = conn;
+	}
+
+	/**
+	 * Applies every migration of the directory that is not recorded yet.
+	 *
+	 * @param dir the migrations directory
+	 * @return the number of migrations applied
+	 * @throws java.sql.SQLException when a migration fails; it is rolled back
+	 *         and the later ones are not attempted
+	 * @throws java.io.IOException when a migration file cannot be read
+	 */
+	public int migrate(File dir) throws SQLException, IOException {
+		Statement stmt = conn.createStatement();
+		stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+			"version INTEGER PRIMARY KEY, description TEXT NOT NULL, applied_at TIMESTAMPTZ NOT NULL DEFAULT now());");
+
+		int applied = 0;
+		conn.setAutoCommit(false);
+		try {
+			for (File f : migrations(dir)) {
+				Matcher m = FILE_NAME.matcher(f.getName());
+				m.matches();
+				int version = Integer.parseInt(m.group(1));
+				String description = m.group(2).replace('_', ' ');
+
+				// serializes concurrent migrators, the second one sees the version as applied
+				stmt.execute("LOCK TABLE schema_version IN EXCLUSIVE MODE;");
+				if (appliedVersions(stmt).contains(version)) {
+					conn.rollback();
+					continue;
+				}
+				System.out.print("Applying V" + version + " " + description + "...");
+				try {
+					stmt.execute(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+					stmt.execute("INSERT INTO schema_version (version, description) VALUES (" + version + ", " + quote(description) + ");");
+					conn.commit();
+				} catch (SQLException e) {
+					conn.rollback();
+					System.out.println("failed");
+					throw e;
+				}
+				System.out.println("Done");
+				++applied;
+			}
+		} finally {
+			conn.setAutoCommit(true);
+			stmt.close();
+		}
+		return applied;
+	}//end migrate
+
+	/**
+	 * Prints the applied and pending migrations.
+	 */
+	public void status(File dir) throws SQLException {
+		Statement stmt = conn.createStatement();
+		Set<Integer> applied = new HashSet<Integer>();
+		ResultSet rs = stmt.executeQuery("Select to_regclass('schema_version') is not null;");
+		rs.next();
+		if (rs.getBoolean(1)) applied = appliedVersions(stmt);
+		stmt.close();
+		for (File f : migrations(dir)) {
+			Matcher m = FILE_NAME.matcher(f.getName());
+			m.matches();
+			System.out.println((applied.contains(Integer.parseInt(m.group(1))) ? "applied\t" : "pending\t") + f.getName());
+		}
+	}
+
+	static File[] migrations(File dir) {
+		File[] files = dir.listFiles((d, name) -> FILE_NAME.matcher(name).matches());
+		if (files == null) throw new IllegalArgumentException(dir + " is not a directory");
+		Arrays.sort(files, Comparator.comparingInt((File f) -> {
+			Matcher m = FILE_NAME.matcher(f.getName());
+			m.matches();
+			return Integer.parseInt(m.group(1));
+		}));
+		return files;
+	}
+
+	private static Set<Integer> appliedVersions(Statement stmt) throws SQLException {
+		Set<Integer> versions = new HashSet<Integer>();
+		ResultSet rs = stmt.executeQuery("Select version From schema_version;");
+		while (rs.next()) versions.add(rs.getInt(1));
+		rs.close();
+		return versions;
+	}
+
+	private static String quote(String s) {
+		return "'" + s.replace("'", "''") + "'";
+	}
+
+	/**
+	 * @param args &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [migrations dir] [--status]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + Migrator.class.getName () +
+					" <dbname> <port> <user> [migrations dir] [--status]");
+			return;
+		}//end if
+
+		Connection conn = null;
+		try {
+			Class.forName("org.postgresql.Driver");
+			File dir = new File("../sql/migrations");
+			boolean status = false;
+			for (int i = 3; i < args.length; ++i) {
+				if (args[i].equals("--status")) status = true;
+				else dir = new File(args[i]);
+			}
+			conn = DriverManager.getConnection(DBproject.connectionUrl(args[0], args[1]), args[2], "");
+			Migrator migrator = new Migrator(conn);
+			if (status) {
+				migrator.status(dir);
+			} else {
+				int n = migrator.migrate(dir);
+				System.out.println(n == 0 ? "Schema is up to date" : "Applied " + n + " migration(s)");
+			}
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		} finally {
+			try {
+				if (conn != null) conn.close();
+			} catch (SQLException e) {
+				// ignored.
+			}
+		}
+	}
+}
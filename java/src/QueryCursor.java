@@ -0,0 +1,224 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A forward-only cursor over the result of a query.  The driver fetches
+ * fetchSize rows per round trip (this needs autocommit off, so the cursor
+ * runs inside its own read transaction), and rows are handed out one at a
+ * time, so memory use does not depend on the size of the result.
+ *
+ * The cursor holds a pooled connection until it is closed; it closes itself
+ * once the last row has been read.  The Row returned by next() is a view of
+ * the current row and is only valid until the following call to next().
+ * When given QueryMetrics, the cursor records its query on close, with the
+ * time from execution until close and the number of rows read.
+ */
+public class QueryCursor implements Iterator<QueryCursor.Row>, AutoCloseable {
+
+	/**
+	 * Unchecked wrapper for the SQLExceptions raised while iterating, since
+	 * Iterator and Stream methods cannot throw checked exceptions.
+	 */
+	public static class CursorException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public CursorException(SQLException cause) {
+			super(cause.getMessage(), cause);
+		}
+
+		@Override
+		public SQLException getCause() {
+			return (SQLException) super.getCause();
+		}
+	}
+
+	/**
+	 * Typed accessors for the current row.  Columns are numbered from 1.
+	 * The primitive accessors return 0 for SQL NULL, use isNull to tell.
+	 */
+	public class Row {
+		public int getColumnCount() {
+			return numCol;
+		}
+
+		public int getInt(int i) {
+			try {
+				return rs.getInt(i);
+			} catch (SQLException e) {
+				throw new CursorException(e);
+			}
+		}
+
+		public long getLong(int i) {
+			try {
+				return rs.getLong(i);
+			} catch (SQLException e) {
+				throw new CursorException(e);
+			}
+		}
+
+		public double getDouble(int i) {
+			try {
+				return rs.getDouble(i);
+			} catch (SQLException e) {
+				throw new CursorException(e);
+			}
+		}
+
+		public String getString(int i) {
+			try {
+				return rs.getString(i);
+			} catch (SQLException e) {
+				throw new CursorException(e);
+			}
+		}
+
+		public LocalDate getDate(int i) {
+			try {
+				java.sql.Date d = rs.getDate(i);
+				return d == null ? null : d.toLocalDate();
+			} catch (SQLException e) {
+				throw new CursorException(e);
+			}
+		}
+
+		/**
+		 * @return whether the column read last was SQL NULL
+		 */
+		public boolean wasNull() {
+			try {
+				return rs.wasNull();
+			} catch (SQLException e) {
+				throw new CursorException(e);
+			}
+		}
+
+		public boolean isNull(int i) {
+			try {
+				return rs.getObject(i) == null;
+			} catch (SQLException e) {
+				throw new CursorException(e);
+			}
+		}
+	}
+
+	private final ConnectionPool pool;
+	private final QueryMetrics metrics;
+	private final String query;
+	private final Object[] params;
+	private final long start = System.nanoTime();
+	private long rows = 0;
+	private boolean failed = false;
+	private ConnectionPool.PooledConnection pc;
+	private final ResultSet rs;
+	private final ResultSetMetaData rsmd;
+	private final int numCol;
+	private final Row row = new Row();
+	private boolean advanced = false;
+	private boolean hasRow = false;
+
+	/**
+	 * Runs the query and positions the cursor before the first row.
+	 *
+	 * @param pool where the connection comes from
+	 * @param metrics where the query is recorded, or null
+	 * @param fetchSize number of rows fetched per round trip
+	 * @param query the query, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	QueryCursor(ConnectionPool pool, QueryMetrics metrics, int fetchSize, String query, Object... params) throws SQLException {
+		this.pool = pool;
+		this.metrics = metrics;
+		this.query = query;
+		this.params = params;
+		this.pc = pool.borrow();
+		try {
+			Connection conn = pc.getConnection();
+			conn.setAutoCommit(false);
+			PreparedStatement stmt = pc.prepare(query);
+			stmt.setFetchSize(fetchSize);
+			DBproject.bind(stmt, params);
+			this.rs = stmt.executeQuery();
+			this.rsmd = rs.getMetaData();
+			this.numCol = rsmd.getColumnCount();
+		} catch (SQLException e) {
+			pool.release(pc);
+			pc = null;
+			if (metrics != null) metrics.query(query, params, start, 0, 0, true);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the metadata of the result, available before the first row
+	 */
+	public ResultSetMetaData getMetaData() {
+		return rsmd;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!advanced) {
+			if (pc == null) return false;
+			try {
+				hasRow = rs.next();
+			} catch (SQLException e) {
+				failed = true;
+				close();
+				throw new CursorException(e);
+			}
+			advanced = true;
+			if (hasRow) ++rows;
+			if (!hasRow) close();
+		}
+		return hasRow;
+	}
+
+	@Override
+	public Row next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		advanced = false;
+		return row;
+	}
+
+	/**
+	 * @return the remaining rows as a sequential stream; closing the stream
+	 *         closes the cursor
+	 */
+	public Stream<Row> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+			.onClose(this::close);
+	}
+
+	/**
+	 * Ends the read transaction and gives the connection back to the pool.
+	 * Closing twice is harmless.
+	 */
+	@Override
+	public void close() {
+		if (pc == null) return;
+		try {
+			rs.close();
+			pc.getConnection().commit();
+		} catch (SQLException e) {
+			// ignored, release() rolls back.
+		} finally {
+			pool.release(pc);
+			pc = null;
+			hasRow = false;
+			advanced = true;
+			if (metrics != null) metrics.query(query, params, start, rows, 0, failed);
+		}
+	}
+}
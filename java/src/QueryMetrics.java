@@ -0,0 +1,299 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Per query shape and per menu operation statistics of a DBproject: latency
+ * histograms, call, row, byte and error counts, plus the time spent waiting
+ * for a pooled connection.  A query shape is the SQL text with ? placeholders,
+ * so all calls of one prepared statement share their statistics.
+ *
+ * The metrics are exposed through JMX (DBproject:type=QueryMetrics), as
+ * Prometheus text on http://127.0.0.1:&lt;port&gt;/metrics once
+ * startHttpServer() was called, and as a file written by dump().  Queries
+ * slower than the slow query threshold are logged with their bind
+ * parameters, to System.err or to the file named by -Ddbproject.slowQueryLog.
+ */
+public class QueryMetrics implements QueryMetricsMBean {
+	static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	/**
+	 * Statistics of one query shape or operation.
+	 */
+	static class Stats {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder calls = new LongAdder();
+		final LongAdder errors = new LongAdder();
+		final LongAdder rows = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+	}
+
+	private final Map<String, Stats> queries = new ConcurrentHashMap<String, Stats>();
+	private final Map<String, Stats> operations = new ConcurrentHashMap<String, Stats>();
+	private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+	private final Map<String, String> help = new ConcurrentHashMap<String, String>();
+	private final ConnectionPool pool;
+	private final SeatCache seats;
+	private volatile long slowQueryNanos;
+	private final PrintWriter slowLog;
+	private ObjectName jmxName = null;
+	private HttpServer http = null;
+
+	public QueryMetrics(ConnectionPool pool, SeatCache seats) {
+		this.pool = pool;
+		this.seats = seats;
+		this.slowQueryNanos = Long.getLong("dbproject.slowQueryMillis", 1000L) * 1000000L;
+		PrintWriter log = null;
+		String file = System.getProperty("dbproject.slowQueryLog");
+		if (file != null) {
+			try {
+				log = new PrintWriter(new FileWriter(file, true), true);
+			} catch (IOException e) {
+				System.err.println("Cannot open slow query log " + file + ": " + e.getMessage());
+			}
+		}
+		this.slowLog = log != null ? log : new PrintWriter(System.err, true);
+	}
+
+	private static Stats stats(Map<String, Stats> map, String key) {
+		Stats s = map.get(key);
+		if (s == null) {
+			s = new Stats();
+			Stats raced = ((ConcurrentHashMap<String, Stats>) map).putIfAbsent(key, s);
+			if (raced != null) s = raced;
+		}
+		return s;
+	}
+
+	/**
+	 * Records one execution of a query.
+	 *
+	 * @param sql the query shape
+	 * @param params the bind parameters, written to the slow query log
+	 * @param startNanos System.nanoTime() before the query was sent
+	 * @param rows number of rows returned or updated
+	 * @param bytes number of characters of text fetched, 0 if not known
+	 * @param error whether the query failed
+	 */
+	public void query(String sql, Object[] params, long startNanos, long rows, long bytes, boolean error) {
+		long nanos = System.nanoTime() - startNanos;
+		Stats s = stats(queries, sql);
+		s.latency.record(nanos);
+		s.calls.increment();
+		s.rows.add(rows);
+		s.bytes.add(bytes);
+		if (error) s.errors.increment();
+		if (nanos >= slowQueryNanos) {
+			synchronized (slowLog) {
+				slowLog.printf("%s slow query %.1f ms, %d rows%s: %s params=%s%n", Instant.now(), nanos / 1e6, rows,
+					error ? ", failed" : "", sql, Arrays.toString(params));
+			}
+		}
+	}//end query
+
+	/**
+	 * Records one call of a menu operation.
+	 */
+	public void operation(String name, long startNanos, boolean error) {
+		Stats s = stats(operations, name);
+		s.latency.record(System.nanoTime() - startNanos);
+		s.calls.increment();
+		if (error) s.errors.increment();
+	}
+
+	/**
+	 * Adds a histogram of nanosecond values kept by another component, e.g.
+	 * the waitlist promotion lag, to the exported metrics as the summary
+	 * dbproject_&lt;name&gt;_seconds.
+	 */
+	public void register(String name, String description, LatencyHistogram histogram) {
+		histograms.put(name, histogram);
+		help.put(name, description);
+	}
+
+	@Override
+	public long getTotalQueries() {
+		long n = 0;
+		for (Stats s : queries.values()) n += s.calls.sum();
+		return n;
+	}
+
+	@Override
+	public long getTotalErrors() {
+		long n = 0;
+		for (Stats s : queries.values()) n += s.errors.sum();
+		return n;
+	}
+
+	@Override
+	public int getQueryShapeCount() {
+		return queries.size();
+	}
+
+	@Override
+	public long getSlowQueryThresholdMillis() {
+		return slowQueryNanos / 1000000L;
+	}
+
+	@Override
+	public void setSlowQueryThresholdMillis(long millis) {
+		slowQueryNanos = millis * 1000000L;
+	}
+
+	@Override
+	public void reset() {
+		queries.clear();
+		operations.clear();
+		pool.getWaitHistogram().reset();
+	}
+
+	@Override
+	public String getPrometheusText() {
+		StringBuilder sb = new StringBuilder(4096);
+		summary(sb, "dbproject_query_duration_seconds", "Query latency per query shape", "shape", queries);
+		counter(sb, "dbproject_query_rows_total", "Rows returned or updated per query shape", "shape", queries, 'r');
+		counter(sb, "dbproject_query_bytes_total", "Characters of text fetched per query shape", "shape", queries, 'b');
+		counter(sb, "dbproject_query_errors_total", "Failed executions per query shape", "shape", queries, 'e');
+		summary(sb, "dbproject_operation_duration_seconds", "Latency per menu operation", "operation", operations);
+		counter(sb, "dbproject_operation_errors_total", "Failed calls per menu operation", "operation", operations, 'e');
+
+		LatencyHistogram wait = pool.getWaitHistogram();
+		sb.append("# HELP dbproject_connection_wait_seconds Time spent waiting for a pooled connection\n");
+		sb.append("# TYPE dbproject_connection_wait_seconds summary\n");
+		for (double q : QUANTILES) {
+			sb.append("dbproject_connection_wait_seconds{quantile=\"").append(q).append("\"} ")
+				.append(wait.getValueAtPercentile(q * 100) / 1e9).append('\n');
+		}
+		sb.append("dbproject_connection_wait_seconds_sum ").append(wait.getSum() / 1e9).append('\n');
+		sb.append("dbproject_connection_wait_seconds_count ").append(wait.getCount()).append('\n');
+
+		for (Map.Entry<String, LatencyHistogram> e : new TreeMap<String, LatencyHistogram>(histograms).entrySet()) {
+			String name = "dbproject_" + e.getKey() + "_seconds";
+			LatencyHistogram h = e.getValue();
+			sb.append("# HELP ").append(name).append(' ').append(help.get(e.getKey())).append('\n');
+			sb.append("# TYPE ").append(name).append(" summary\n");
+			for (double q : QUANTILES) {
+				sb.append(name).append("{quantile=\"").append(q).append("\"} ")
+					.append(h.getValueAtPercentile(q * 100) / 1e9).append('\n');
+			}
+			sb.append(name).append("_sum ").append(h.getSum() / 1e9).append('\n');
+			sb.append(name).append("_count ").append(h.getCount()).append('\n');
+		}
+
+		sb.append("# TYPE dbproject_seat_cache_hits_total counter\n");
+		sb.append("dbproject_seat_cache_hits_total ").append(seats.getHits()).append('\n');
+		sb.append("# TYPE dbproject_seat_cache_misses_total counter\n");
+		sb.append("dbproject_seat_cache_misses_total ").append(seats.getMisses()).append('\n');
+		sb.append("# TYPE dbproject_seat_cache_evictions_total counter\n");
+		sb.append("dbproject_seat_cache_evictions_total ").append(seats.getEvictions()).append('\n');
+		return sb.toString();
+	}//end getPrometheusText
+
+	private static void summary(StringBuilder sb, String name, String help, String label, Map<String, Stats> map) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(" summary\n");
+		for (Map.Entry<String, Stats> e : new TreeMap<String, Stats>(map).entrySet()) {
+			String l = label + "=\"" + escape(e.getKey()) + "\"";
+			LatencyHistogram h = e.getValue().latency;
+			for (double q : QUANTILES) {
+				sb.append(name).append('{').append(l).append(",quantile=\"").append(q).append("\"} ")
+					.append(h.getValueAtPercentile(q * 100) / 1e9).append('\n');
+			}
+			sb.append(name).append("_sum{").append(l).append("} ").append(h.getSum() / 1e9).append('\n');
+			sb.append(name).append("_count{").append(l).append("} ").append(h.getCount()).append('\n');
+		}
+	}
+
+	private static void counter(StringBuilder sb, String name, String help, String label, Map<String, Stats> map, char which) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(" counter\n");
+		for (Map.Entry<String, Stats> e : new TreeMap<String, Stats>(map).entrySet()) {
+			Stats s = e.getValue();
+			long v = which == 'r' ? s.rows.sum() : which == 'b' ? s.bytes.sum() : s.errors.sum();
+			sb.append(name).append('{').append(label).append("=\"").append(escape(e.getKey())).append("\"} ").append(v).append('\n');
+		}
+	}
+
+	private static String escape(String label) {
+		return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", " ").replace("\r", "");
+	}
+
+	/**
+	 * Registers the JMX bean.  Failures are reported and otherwise ignored,
+	 * metrics keep being collected.
+	 */
+	public void registerMBean() {
+		try {
+			ObjectName name = new ObjectName("DBproject:type=QueryMetrics");
+			if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+				name = new ObjectName("DBproject:type=QueryMetrics,instance=" + System.identityHashCode(this));
+			}
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			jmxName = name;
+		} catch (Exception e) {
+			System.err.println("Cannot register metrics MBean: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Serves the Prometheus text on http://127.0.0.1:port/metrics.
+	 */
+	public void startHttpServer(int port) throws IOException {
+		http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		http.createContext("/metrics", exchange -> {
+			byte[] body = getPrometheusText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		});
+		http.start();
+	}
+
+	/**
+	 * Writes the Prometheus text to a file, e.g. for the node exporter's
+	 * textfile collector.  The file is replaced atomically.
+	 */
+	public void dump(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			out.write(getPrometheusText().getBytes(StandardCharsets.UTF_8));
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Stops the HTTP endpoint and unregisters the JMX bean.
+	 */
+	public void close() {
+		if (http != null) http.stop(0);
+		try {
+			if (jmxName != null) ManagementFactory.getPlatformMBeanServer().unregisterMBean(jmxName);
+		} catch (Exception e) {
+			// ignored.
+		}
+		if (slowLog != null) slowLog.flush();
+	}
+}
@@ -0,0 +1,21 @@
+/**
+ * JMX view of QueryMetrics, registered as DBproject:type=QueryMetrics.
+ */
+public interface QueryMetricsMBean {
+	long getTotalQueries();
+
+	long getTotalErrors();
+
+	int getQueryShapeCount();
+
+	long getSlowQueryThresholdMillis();
+
+	void setSlowQueryThresholdMillis(long millis);
+
+	/**
+	 * @return every metric in the Prometheus text exposition format
+	 */
+	String getPrometheusText();
+
+	void reset();
+}
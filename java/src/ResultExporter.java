@@ -0,0 +1,333 @@
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Streams a query result into a file or stdout as tab separated text, CSV
+ * or JSON lines.  Rows come from a QueryCursor, so memory use does not
+ * depend on the size of the result, and go through one large buffer that is
+ * written to a FileChannel (or the stdout file descriptor, bypassing the
+ * synchronized System.out) only when it is full.
+ *
+ * The column metadata is read once: every column gets a writer for its SQL
+ * type, which reads the value with the matching typed getter and writes it
+ * without per-cell lookups.  The formats:
+ *
+ *	TAB	header line, then one line per row; NULL is \N and backslash, tab,
+ *		newline and carriage return are escaped as in PostgreSQL's COPY
+ *	CSV	RFC 4180: header line, fields quoted when they contain a comma,
+ *		quote or line break, quotes doubled, CRLF line ends; NULL is an
+ *		empty field and the empty string is ""
+ *	JSONL	one JSON object per row, keyed by column name; numbers and
+ *		booleans unquoted, NULL is null
+ *
+ * CHAR(n) columns are written without their blank padding.
+ */
+public class ResultExporter implements AutoCloseable {
+	public enum Format { TAB, CSV, JSONL }
+
+	static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Writes one column of the current row.
+	 */
+	private interface ColumnWriter {
+		void write(QueryCursor.Row row, int col) throws IOException;
+	}
+
+	private final Writer out;
+	private final Format format;
+	private final boolean closeOut;
+	private final char[] digits = new char[20];
+
+	/**
+	 * @param out where the rows go; should be buffered
+	 * @param format the output format
+	 * @param closeOut whether close() closes out, or only flushes it
+	 */
+	public ResultExporter(Writer out, Format format, boolean closeOut) {
+		this.out = out;
+		this.format = format;
+		this.closeOut = closeOut;
+	}
+
+	/**
+	 * Opens a file for export, replacing its contents.
+	 */
+	public static ResultExporter toFile(Path file, Format format) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		Writer w = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE);
+		return new ResultExporter(new BufferedWriter(w, BUFFER_SIZE), format, true);
+	}
+
+	/**
+	 * Exports to standard output.  close() flushes but leaves stdout open.
+	 */
+	public static ResultExporter toStdout(Format format) {
+		//whatever System.out still buffers goes first
+		System.out.flush();
+		Writer w = new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8);
+		return new ResultExporter(new BufferedWriter(w, BUFFER_SIZE), format, false);
+	}
+
+	/**
+	 * @return the format named by s: tab, csv or jsonl, in any case
+	 */
+	public static Format format(String s) {
+		try {
+			return Format.valueOf(s.toUpperCase());
+		}catch (IllegalArgumentException e){
+			throw new IllegalArgumentException("format must be one of tab, csv, jsonl");
+		}
+	}
+
+	/**
+	 * Writes the header, if the format has one, and all remaining rows of
+	 * the cursor, then closes it.
+	 *
+	 * @return the number of rows written
+	 * @throws java.io.IOException when writing fails
+	 * @throws java.sql.SQLException when reading the result fails
+	 */
+	public long export(QueryCursor cursor) throws IOException, SQLException {
+		try {
+			ResultSetMetaData rsmd = cursor.getMetaData();
+			int numCol = rsmd.getColumnCount();
+			ColumnWriter[] writers = new ColumnWriter[numCol + 1];
+			String[] keys = new String[numCol + 1];
+			for (int i = 1; i <= numCol; ++i) {
+				writers[i] = writer(rsmd.getColumnType(i));
+				if (format == Format.JSONL) keys[i] = (i == 1 ? "{" : ",") + json(rsmd.getColumnName(i)) + ":";
+			}
+			if (format != Format.JSONL) {
+				for (int i = 1; i <= numCol; ++i) {
+					if (i > 1) out.write(format == Format.TAB ? '\t' : ',');
+					text(rsmd.getColumnName(i));
+				}
+				endRow();
+			}
+
+			long rows = 0;
+			while (cursor.hasNext()) {
+				QueryCursor.Row row = cursor.next();
+				for (int i = 1; i <= numCol; ++i) {
+					if (format == Format.JSONL) out.write(keys[i]);
+					else if (i > 1) out.write(format == Format.TAB ? '\t' : ',');
+					writers[i].write(row, i);
+				}
+				if (format == Format.JSONL) out.write('}');
+				endRow();
+				++rows;
+			}
+			return rows;
+		}catch (QueryCursor.CursorException e){
+			throw e.getCause();
+		}finally{
+			cursor.close();
+		}
+	}//end export
+
+	private ColumnWriter writer(int sqlType) {
+		switch (sqlType) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+				return (row, col) -> {
+					int v = row.getInt(col);
+					if (row.wasNull()) nul();
+					else number(v);
+				};
+			case Types.BIGINT:
+				return (row, col) -> {
+					long v = row.getLong(col);
+					if (row.wasNull()) nul();
+					else number(v);
+				};
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+				//the text form, so NUMERIC keeps its exact digits
+				return (row, col) -> {
+					String v = row.getString(col);
+					if (v == null) nul();
+					else if (format == Format.JSONL && !Character.isDigit(v.charAt(v.length() - 1))) text(v);	// NaN, Infinity
+					else out.write(v);
+				};
+			case Types.BIT:
+			case Types.BOOLEAN:
+				return (row, col) -> {
+					String v = row.getString(col);
+					if (v == null) nul();
+					else if (format == Format.JSONL) out.write(v.equals("t") || v.equals("true") ? "true" : "false");
+					else out.write(v);
+				};
+			case Types.CHAR:
+				return (row, col) -> {
+					String v = row.getString(col);
+					if (v == null) {
+						nul();
+						return;
+					}
+					int end = v.length();
+					while (end > 0 && v.charAt(end - 1) == ' ') --end;
+					text(end == v.length() ? v : v.substring(0, end));
+				};
+			default:
+				return (row, col) -> {
+					String v = row.getString(col);
+					if (v == null) nul();
+					else text(v);
+				};
+		}
+	}//end writer
+
+	private void endRow() throws IOException {
+		if (format == Format.CSV) out.write("\r\n");
+		else out.write('\n');
+	}
+
+	private void nul() throws IOException {
+		switch (format) {
+			case TAB: out.write("\\N"); break;
+			case JSONL: out.write("null"); break;
+			default: // CSV: empty field
+		}
+	}
+
+	private void number(long v) throws IOException {
+		if (v == Long.MIN_VALUE) {
+			out.write(Long.toString(v));
+			return;
+		}
+		int pos = digits.length;
+		boolean negative = v < 0;
+		if (negative) v = -v;
+		do {
+			digits[--pos] = (char) ('0' + v % 10);
+			v /= 10;
+		} while (v != 0);
+		if (negative) digits[--pos] = '-';
+		out.write(digits, pos, digits.length - pos);
+	}
+
+	private void text(String s) throws IOException {
+		switch (format) {
+			case TAB: tab(s); break;
+			case CSV: csv(s); break;
+			default: out.write(json(s));
+		}
+	}
+
+	private void tab(String s) throws IOException {
+		int from = 0;
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			String escape;
+			switch (c) {
+				case '\\': escape = "\\\\"; break;
+				case '\t': escape = "\\t"; break;
+				case '\n': escape = "\\n"; break;
+				case '\r': escape = "\\r"; break;
+				default: continue;
+			}
+			out.write(s, from, i - from);
+			out.write(escape);
+			from = i + 1;
+		}
+		out.write(s, from, s.length() - from);
+	}
+
+	private void csv(String s) throws IOException {
+		boolean quote = s.isEmpty();
+		for (int i = 0; i < s.length() && !quote; ++i) {
+			char c = s.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			out.write(s);
+			return;
+		}
+		out.write('"');
+		int from = 0;
+		for (int i = 0; i < s.length(); ++i) {
+			if (s.charAt(i) != '"') continue;
+			out.write(s, from, i + 1 - from);
+			out.write('"');
+			from = i + 1;
+		}
+		out.write(s, from, s.length() - from);
+		out.write('"');
+	}
+
+	/**
+	 * @return s as a quoted JSON string
+	 */
+	static String json(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+					else sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closeOut) out.close();
+		else out.flush();
+	}
+
+	/**
+	 * Exports the result of a query to a file, e.g.
+	 *	java ResultExporter flightDB 5432 user csv flights.csv "Select * From Flight"
+	 */
+	public static void main(String[] args) {
+		if (args.length != 6) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + ResultExporter.class.getName () +
+					" <dbname> <port> <user> <tab|csv|jsonl> <file> <query>");
+			return;
+		}//end if
+
+		DBproject esql = null;
+		try {
+			Class.forName("org.postgresql.Driver");
+			Format format = format(args[3]);
+			esql = new DBproject(args[0], args[1], args[2], "", 1);
+			long start = System.nanoTime();
+			long rows = esql.exportQuery(Paths.get(args[4]), format, args[5]);
+			System.out.printf("%d rows in %.1f s%n", rows, (System.nanoTime() - start) / 1e9);
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+	}
+}
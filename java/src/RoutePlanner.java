@@ -0,0 +1,685 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds multi-leg itineraries between two airports over the flights in
+ * memory: the cheapest one, the one with the fewest legs, and the one that
+ * arrives first.  Airports are numbered, and the flights are kept in
+ * primitive arrays with a compressed adjacency list (CSR) of the flights
+ * leaving each airport, sorted by departure day.  Together with the times
+ * of the flights this is the time-expanded graph: a connection from flight
+ * f to flight g exists when g leaves the airport f arrives at no earlier
+ * than the minimum connection time after f's arrival.
+ *
+ * Fewest legs and earliest arrival come from one round-based scan (one
+ * round per leg, as in RAPTOR).  The cheapest itinerary is a Dijkstra
+ * search over (flight, legs) labels; a label only scans the departures
+ * that no cheaper label with as few legs, arriving earlier at the same
+ * airport, has already scanned, so each departure is looked at about once
+ * per leg count.
+ *
+ * The schedule only has dates, so times are whole days and the minimum
+ * connection time is a number of days, 0 for a same-day connection.  A
+ * flight can be used when its plane has at least the requested number of
+ * free seats (Plane.seats - num_sold); flights without a plane cannot.
+ *
+ * Flights added later go to a per-airport overflow list until there are
+ * enough of them to rebuild the arrays.  DBproject reports its own changes;
+ * with a ChangeFeed, changes of other processes are applied on the next
+ * query.  Reporting a change never waits for a search or a load: num_sold
+ * values, removed and changed flights are only recorded, and the next query
+ * applies them.  A full load reads into a new planner without holding this
+ * one's lock and swaps the arrays in at the end, so searches wait for it
+ * but bookings and the feed thread do not.
+ */
+public class RoutePlanner implements ChangeFeed.Listener {
+
+	/**
+	 * Loads flights into the planner.
+	 */
+	public interface Loader {
+		/**
+		 * Calls planner.put() for one flight, or for all flights when fnum
+		 * is -1.
+		 */
+		void load(RoutePlanner planner, int fnum) throws SQLException;
+	}
+
+	/**
+	 * Limits of a search.
+	 */
+	public static class Constraints {
+		final int days;
+		final int maxLegs;
+		final int minConnectionDays;
+		final int seats;
+
+		/**
+		 * @param days every leg departs within this many days from the first day
+		 * @param maxLegs maximum number of flights of the itinerary
+		 * @param minConnectionDays days between arriving and leaving an airport
+		 * @param seats seats that must be free on every leg
+		 */
+		public Constraints(int days, int maxLegs, int minConnectionDays, int seats) {
+			if (days < 1 || maxLegs < 1 || maxLegs > MAX_LEGS || minConnectionDays < 0 || seats < 1)
+				throw new IllegalArgumentException("invalid search limits");
+			this.days = days;
+			this.maxLegs = maxLegs;
+			this.minConnectionDays = minConnectionDays;
+			this.seats = seats;
+		}
+	}
+
+	/**
+	 * An itinerary: its legs in order, as they were when it was found.
+	 */
+	public static class Itinerary {
+		private final List<List<String>> legs;
+		private final int[] flights;
+		private final int cost;
+		private final LocalDate departure, arrival;
+
+		Itinerary(List<List<String>> legs, int[] flights, int cost, LocalDate departure, LocalDate arrival) {
+			this.legs = legs;
+			this.flights = flights;
+			this.cost = cost;
+			this.departure = departure;
+			this.arrival = arrival;
+		}
+
+		public int getLegs() {
+			return flights.length;
+		}
+
+		public int[] getFlights() {
+			return flights.clone();
+		}
+
+		public int getCost() {
+			return cost;
+		}
+
+		public LocalDate getDeparture() {
+			return departure;
+		}
+
+		public LocalDate getArrival() {
+			return arrival;
+		}
+
+		/**
+		 * @return one record per leg: fnum, departure_airport, arrival_airport,
+		 *         departure date, arrival date, cost, free seats
+		 */
+		public List<List<String>> toRecords() {
+			return legs;
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(flights) + " cost=" + cost + " " + departure + " to " + arrival;
+		}
+	}
+
+	static final int MAX_LEGS = 8;
+	static final int INF = Integer.MAX_VALUE;
+
+	private final Loader loader;
+	//replaced as a whole by a full load
+	private Map<String, Integer> airportIds = new HashMap<String, Integer>();
+	private List<String> codes = new ArrayList<String>();
+	private Map<Integer, Integer> slotOf = new HashMap<Integer, Integer>();
+
+	//one slot per flight; a removed flight keeps its slot until the next rebuild
+	private int n = 0;
+	private int[] fnum = new int[1024], from = new int[1024], to = new int[1024];
+	private int[] dep = new int[1024], arr = new int[1024], price = new int[1024];
+	private int[] seats = new int[1024], sold = new int[1024];
+	private boolean[] gone = new boolean[1024];
+
+	//CSR over the slots below built: the departures of airport a are
+	//out[first[a]] .. out[first[a + 1] - 1], by departure day
+	private int built = 0;
+	private int[] first = new int[1];
+	private int[] out = new int[0];
+	//slots from built on, as a linked list per airport
+	private int[] extraHead = new int[0];
+	private int[] extraNext = new int[1024];
+
+	//changes for the next query: reload everything, reload the listed
+	//flights, drop flights, or set num_sold, the latest value per flight
+	private volatile boolean stale;
+	private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+	private final Set<Integer> removed = ConcurrentHashMap.newKeySet();
+	private final Map<Integer, Integer> pendingSold = new ConcurrentHashMap<Integer, Integer>();
+	//held by the query that applies them, so that one loads at a time
+	private final Object loading = new Object();
+
+	//scratch state of a search, valid where the stamp matches the search
+	private int search = 0;
+	private int[] labelStamp = new int[0], labelCost = new int[0], labelParent = new int[0];
+	private int[] airportStamp = new int[0], airportValue = new int[0], airportParent = new int[0];
+	private long[] heap = new long[64];
+	private int heapSize = 0;
+
+	/**
+	 * @param loader reads flights from the database, or null for a planner
+	 *        that only holds what is put into it
+	 */
+	public RoutePlanner(Loader loader) {
+		this.loader = loader;
+		this.stale = loader != null;
+	}
+
+	/**
+	 * Builds a planner that loads the flights through DBproject.
+	 */
+	public static RoutePlanner forDatabase(final DBproject esql) {
+		final String all =
+			"Select F.fnum, F.departure_airport, F.arrival_airport, F.actual_departure_date, F.actual_arrival_date, F.cost, " +
+			"coalesce((Select max(P.seats) From FlightInfo I, Plane P Where I.flight_id = F.fnum and P.id = I.plane_id), 0), F.num_sold " +
+			"From Flight F";
+		return new RoutePlanner(new Loader() {
+			public void load(final RoutePlanner planner, int fnum) throws SQLException {
+				DBproject.RowHandler put = row -> planner.put(row.getInt(1), row.getString(2).trim(), row.getString(3).trim(),
+					row.getDate(4), row.getDate(5), row.getInt(6), row.getInt(7), row.getInt(8));
+				if (fnum < 0) esql.forEachRow(all + ";", put);
+				else esql.forEachRow(all + " Where F.fnum = ?;", put, fnum);
+			}
+		});
+	}
+
+	/*
+	 * Loading and updates
+	 */
+
+	private int airport(String code) {
+		Integer id = airportIds.get(code);
+		if (id == null) {
+			id = codes.size();
+			airportIds.put(code, id);
+			codes.add(code);
+		}
+		return id;
+	}
+
+	/**
+	 * Adds or replaces a flight; called by the loader.
+	 *
+	 * @param seats seats of the flight's plane, 0 when it has none
+	 */
+	public synchronized void put(int flight, String departureAirport, String arrivalAirport, LocalDate departure,
+			LocalDate arrival, int cost, int seats, int numSold) {
+		int a = airport(departureAirport.trim().toUpperCase()), b = airport(arrivalAirport.trim().toUpperCase());
+		int d = (int) departure.toEpochDay(), e = (int) Math.max(departure.toEpochDay(), arrival.toEpochDay());
+		Integer old = slotOf.get(flight);
+		if (old != null && from[old] == a && dep[old] == d) {
+			//the position in the adjacency list is unchanged
+			to[old] = b;
+			arr[old] = e;
+			price[old] = cost;
+			this.seats[old] = seats;
+			sold[old] = numSold;
+			return;
+		}
+		if (old != null) gone[old] = true;
+		if (n == fnum.length) grow(n * 2);
+		int s = n++;
+		fnum[s] = flight;
+		from[s] = a;
+		to[s] = b;
+		dep[s] = d;
+		arr[s] = e;
+		price[s] = cost;
+		this.seats[s] = seats;
+		sold[s] = numSold;
+		gone[s] = false;
+		slotOf.put(flight, s);
+		if (a >= extraHead.length) {
+			int len = extraHead.length;
+			extraHead = Arrays.copyOf(extraHead, Math.max(codes.size(), len * 2));
+			Arrays.fill(extraHead, len, extraHead.length, -1);
+		}
+		extraNext[s] = extraHead[a];
+		extraHead[a] = s;
+		if (n - built > Math.max(1024, built / 8)) rebuild();
+	}//end put
+
+	private void grow(int capacity) {
+		fnum = Arrays.copyOf(fnum, capacity);
+		from = Arrays.copyOf(from, capacity);
+		to = Arrays.copyOf(to, capacity);
+		dep = Arrays.copyOf(dep, capacity);
+		arr = Arrays.copyOf(arr, capacity);
+		price = Arrays.copyOf(price, capacity);
+		seats = Arrays.copyOf(seats, capacity);
+		sold = Arrays.copyOf(sold, capacity);
+		gone = Arrays.copyOf(gone, capacity);
+		extraNext = Arrays.copyOf(extraNext, capacity);
+	}
+
+	/**
+	 * Drops removed flights and moves the overflow lists into the arrays.
+	 */
+	private void rebuild() {
+		//compact the slots
+		int m = 0;
+		for (int s = 0; s < n; ++s) {
+			if (gone[s]) continue;
+			fnum[m] = fnum[s];
+			from[m] = from[s];
+			to[m] = to[s];
+			dep[m] = dep[s];
+			arr[m] = arr[s];
+			price[m] = price[s];
+			seats[m] = seats[s];
+			sold[m] = sold[s];
+			gone[m] = false;
+			slotOf.put(fnum[m], m);
+			++m;
+		}
+		n = m;
+
+		//counting sort by airport, then by departure day within each airport
+		int airports = codes.size();
+		first = new int[airports + 1];
+		for (int s = 0; s < n; ++s) ++first[from[s] + 1];
+		for (int a = 0; a < airports; ++a) first[a + 1] += first[a];
+		out = new int[n];
+		int[] next = Arrays.copyOf(first, airports);
+		for (int s = 0; s < n; ++s) out[next[from[s]]++] = s;
+		for (int a = 0; a < airports; ++a) sortByDeparture(first[a], first[a + 1]);
+
+		built = n;
+		extraHead = new int[airports];
+		Arrays.fill(extraHead, -1);
+	}//end rebuild
+
+	private void sortByDeparture(int lo, int hi) {
+		if (hi - lo < 2) return;
+		long[] keys = new long[hi - lo];
+		for (int i = lo; i < hi; ++i) keys[i - lo] = (long) dep[out[i]] << 32 | out[i];
+		Arrays.sort(keys);
+		for (int i = lo; i < hi; ++i) out[i] = (int) keys[i - lo];
+	}
+
+	/**
+	 * Records the num_sold of a flight as reported by the booking path; the
+	 * next query applies it.
+	 */
+	public void sold(int flight, int numSold) {
+		pendingSold.put(flight, numSold);
+	}
+
+	/**
+	 * Drops a flight before the next query.
+	 */
+	public void remove(int flight) {
+		removed.add(flight);
+	}
+
+	/**
+	 * Reloads a flight before the next query, e.g. after it was added or its
+	 * plane changed.
+	 */
+	public void changed(int flight) {
+		dirty.add(flight);
+	}
+
+	private void drop(int flight) {
+		Integer s = slotOf.remove(flight);
+		if (s != null) gone[s] = true;
+	}
+
+	/*
+	 * Applies the recorded changes; called by every query before it takes
+	 * the lock.  Changes recorded during a full load are newer than the rows
+	 * it read, so they are applied after the swap.
+	 */
+	private void refresh() throws SQLException {
+		synchronized (loading) {
+			if (stale && loader != null) {
+				stale = false;
+				dirty.clear();
+				removed.clear();
+				pendingSold.clear();
+				RoutePlanner fresh = new RoutePlanner(null);
+				try {
+					loader.load(fresh, -1);
+				} catch (SQLException e) {
+					stale = true;
+					throw e;
+				}
+				fresh.rebuild();
+				adopt(fresh);
+			}
+			applyPending();
+			if (loader == null) {
+				dirty.clear();
+				return;
+			}
+			for (Integer flight : dirty) {
+				dirty.remove(flight);
+				synchronized (this) {
+					drop(flight);
+				}
+				try {
+					loader.load(this, flight);
+				} catch (SQLException e) {
+					dirty.add(flight);
+					throw e;
+				}
+			}
+		}
+	}//end refresh
+
+	private synchronized void adopt(RoutePlanner fresh) {
+		airportIds = fresh.airportIds;
+		codes = fresh.codes;
+		slotOf = fresh.slotOf;
+		n = fresh.n;
+		fnum = fresh.fnum;
+		from = fresh.from;
+		to = fresh.to;
+		dep = fresh.dep;
+		arr = fresh.arr;
+		price = fresh.price;
+		seats = fresh.seats;
+		sold = fresh.sold;
+		gone = fresh.gone;
+		built = fresh.built;
+		first = fresh.first;
+		out = fresh.out;
+		extraHead = fresh.extraHead;
+		extraNext = fresh.extraNext;
+	}
+
+	private synchronized void applyPending() {
+		for (Integer flight : removed) {
+			removed.remove(flight);
+			drop(flight);
+		}
+		for (Map.Entry<Integer, Integer> e : pendingSold.entrySet()) {
+			//a newer value reported meanwhile stays for the next query
+			if (!pendingSold.remove(e.getKey(), e.getValue())) continue;
+			Integer s = slotOf.get(e.getKey());
+			if (s != null) sold[s] = e.getValue();
+		}
+	}
+
+	//ChangeFeed.Listener, called on the feed's thread; only records
+
+	public void flight(ChangeFeed.FlightChange c) {
+		if (c.op == ChangeFeed.Op.UPDATE) sold(c.fnum, c.numSold);
+		//an update may also have moved the flight; that is not in the payload
+		if (c.op == ChangeFeed.Op.DELETE) remove(c.fnum);
+		else if (c.op == ChangeFeed.Op.INSERT) dirty.add(c.fnum);
+	}
+
+	public void flightInfo(ChangeFeed.FlightInfoChange c) {
+		dirty.add(c.flightId);
+	}
+
+	public void plane(ChangeFeed.PlaneChange c) {
+		if (c.op == ChangeFeed.Op.UPDATE && c.seats != c.oldSeats && loader != null) stale = true;
+	}
+
+	public void reset() {
+		if (loader != null) stale = true;
+	}
+
+	public synchronized int size() {
+		return slotOf.size();
+	}
+
+	public synchronized int airports() {
+		return codes.size();
+	}
+
+	/*
+	 * Searches
+	 */
+
+	/**
+	 * Calls visitor.departure(slot) for every usable flight leaving airport a
+	 * between the two days, inclusive.
+	 */
+	private interface Departures {
+		void departure(int slot);
+	}
+
+	private void departures(int a, int fromDay, int toDay, int seatsNeeded, Departures visitor) {
+		if (fromDay > toDay) return;
+		if (a + 1 < first.length) {
+			int lo = first[a], hi = first[a + 1];
+			//first departure on or after fromDay
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (dep[out[mid]] < fromDay) lo = mid + 1;
+				else hi = mid;
+			}
+			for (int i = lo, end = first[a + 1]; i < end; ++i) {
+				int s = out[i];
+				if (dep[s] > toDay) break;
+				if (!gone[s] && seats[s] - sold[s] >= seatsNeeded) visitor.departure(s);
+			}
+		}
+		if (a < extraHead.length) {
+			for (int s = extraHead[a]; s >= 0; s = extraNext[s]) {
+				if (dep[s] >= fromDay && dep[s] <= toDay && !gone[s] && seats[s] - sold[s] >= seatsNeeded) visitor.departure(s);
+			}
+		}
+	}
+
+	private void startSearch(int labels, int airportLabels) {
+		if (++search == Integer.MAX_VALUE) {
+			search = 1;
+			Arrays.fill(labelStamp, 0);
+			Arrays.fill(airportStamp, 0);
+		}
+		if (labelStamp.length < labels) {
+			labelStamp = new int[labels];
+			labelCost = new int[labels];
+			labelParent = new int[labels];
+		}
+		if (airportStamp.length < airportLabels) {
+			airportStamp = new int[airportLabels];
+			airportValue = new int[airportLabels];
+			airportParent = new int[airportLabels];
+		}
+		heapSize = 0;
+	}
+
+	private int airportValue(int i) {
+		return airportStamp[i] == search ? airportValue[i] : INF;
+	}
+
+	private void setAirport(int i, int value, int parent) {
+		airportStamp[i] = search;
+		airportValue[i] = value;
+		airportParent[i] = parent;
+	}
+
+	/**
+	 * @return the itinerary that reaches the destination first, the one with
+	 *         the fewest legs breaking ties, or null when there is none
+	 * @throws java.sql.SQLException when the flights have to be loaded and that fails
+	 */
+	public Itinerary earliestArrival(String origin, String destination, LocalDate day, Constraints c) throws SQLException {
+		refresh();
+		return rounds(origin, destination, day, c, false);
+	}
+
+	/**
+	 * @return the itinerary with the fewest legs, the earliest arrival
+	 *         breaking ties, or null when there is none
+	 * @throws java.sql.SQLException when the flights have to be loaded and that fails
+	 */
+	public Itinerary fewestLegs(String origin, String destination, LocalDate day, Constraints c) throws SQLException {
+		refresh();
+		return rounds(origin, destination, day, c, true);
+	}
+
+	/**
+	 * Round k finds, for every airport, the earliest arrival with k legs that
+	 * beats every arrival with fewer legs; only airports improved in round
+	 * k - 1 are scanned in round k.
+	 */
+	private synchronized Itinerary rounds(String origin, String destination, LocalDate day, final Constraints c, boolean fewest) {
+		Integer o = airportIds.get(origin.trim().toUpperCase()), t = airportIds.get(destination.trim().toUpperCase());
+		if (o == null || t == null || o.equals(t)) return null;
+		final int airports = codes.size();
+		final int target = t;
+		final int firstDay = (int) day.toEpochDay(), lastDay = firstDay + c.days - 1;
+		//airport labels: round k at k * airports + a, the best of all rounds at (maxLegs + 1) * airports + a
+		final int best = (c.maxLegs + 1) * airports;
+		startSearch(0, best + airports);
+
+		List<Integer> marked = new ArrayList<Integer>();
+		marked.add(o);
+		setAirport(o, firstDay, -1);
+		setAirport(best + o, firstDay, -1);
+		int found = -1;
+		for (int k = 1; k <= c.maxLegs && !marked.isEmpty(); ++k) {
+			final int round = k;
+			final List<Integer> improved = new ArrayList<Integer>();
+			for (int a : marked) {
+				int ready = airportValue((k - 1) * airports + a);
+				if (k > 1) ready += c.minConnectionDays;
+				departures(a, ready, lastDay, c.seats, s -> {
+					int b = to[s];
+					//only arrivals that beat every earlier one, here and at the target
+					if (arr[s] >= airportValue(best + b) || arr[s] >= airportValue(best + target)) return;
+					if (airportValue(round * airports + b) == INF) improved.add(b);
+					setAirport(round * airports + b, arr[s], s);
+					setAirport(best + b, arr[s], s);
+				});
+			}
+			if (airportValue(k * airports + target) != INF) {
+				found = k;
+				if (fewest) break;
+			}
+			improved.remove(Integer.valueOf(target));
+			marked = improved;
+		}
+		if (found < 0) return null;
+
+		int[] slots = new int[found];
+		int a = target;
+		for (int k = found; k >= 1; --k) {
+			int s = airportParent[k * airports + a];
+			slots[k - 1] = s;
+			a = from[s];
+		}
+		return itinerary(slots);
+	}//end rounds
+
+	/**
+	 * @return the cheapest itinerary, the fewest legs breaking ties, or null
+	 *         when there is none
+	 * @throws java.sql.SQLException when the flights have to be loaded and that fails
+	 */
+	public Itinerary cheapest(String origin, String destination, LocalDate day, final Constraints c) throws SQLException {
+		refresh();
+		return dijkstra(origin, destination, day, c);
+	}
+
+	private synchronized Itinerary dijkstra(String origin, String destination, LocalDate day, final Constraints c) {
+		Integer o = airportIds.get(origin.trim().toUpperCase()), t = airportIds.get(destination.trim().toUpperCase());
+		if (o == null || t == null || o.equals(t)) return null;
+		final int airports = codes.size();
+		final int capacity = n;
+		final int firstDay = (int) day.toEpochDay(), lastDay = firstDay + c.days - 1;
+		//labels (legs, slot) at (legs - 1) * capacity + slot; airport labels
+		//(legs, airport) hold the earliest arrival already scanned from there
+		startSearch(c.maxLegs * capacity, (c.maxLegs + 1) * airports);
+
+		departures(o, firstDay, lastDay, c.seats, s -> relax(s, price[s], -1));
+		while (heapSize > 0) {
+			long top = pop();
+			int label = (int) top;
+			int cost = (int) (top >>> 32);
+			if (labelCost[label] != cost) continue;
+			int legs = label / capacity + 1, s = label % capacity;
+			int b = to[s];
+			if (b == t) {
+				int[] slots = new int[legs];
+				for (int l = label, i = legs - 1; l >= 0; l = labelParent[l], --i) slots[i] = l % capacity;
+				return itinerary(slots);
+			}
+			if (legs == c.maxLegs) continue;
+			//departures after an earlier arrival here with as few legs were scanned by a cheaper label
+			int scanned = airportValue(legs * airports + b);
+			int until = scanned == INF ? lastDay : Math.min(lastDay, scanned + c.minConnectionDays - 1);
+			final int next = legs * capacity;
+			departures(b, arr[s] + c.minConnectionDays, until, c.seats, g -> relax(next + g, cost + price[g], label));
+			for (int l = legs; l <= c.maxLegs; ++l) {
+				if (arr[s] < airportValue(l * airports + b)) setAirport(l * airports + b, arr[s], -1);
+			}
+		}
+		return null;
+	}//end dijkstra
+
+	private Itinerary itinerary(int[] slots) {
+		List<List<String>> legs = new ArrayList<List<String>>(slots.length);
+		int[] flights = new int[slots.length];
+		int total = 0;
+		for (int i = 0; i < slots.length; ++i) {
+			int s = slots[i];
+			flights[i] = fnum[s];
+			total += price[s];
+			legs.add(Arrays.asList(Integer.toString(fnum[s]), codes.get(from[s]), codes.get(to[s]),
+				LocalDate.ofEpochDay(dep[s]).toString(), LocalDate.ofEpochDay(arr[s]).toString(),
+				Integer.toString(price[s]), Integer.toString(seats[s] - sold[s])));
+		}
+		return new Itinerary(legs, flights, total, LocalDate.ofEpochDay(dep[slots[0]]), LocalDate.ofEpochDay(arr[slots[slots.length - 1]]));
+	}
+
+	private void relax(int label, int cost, int parent) {
+		if (labelStamp[label] == search && labelCost[label] <= cost) return;
+		labelStamp[label] = search;
+		labelCost[label] = cost;
+		labelParent[label] = parent;
+		push((long) cost << 32 | label);
+	}
+
+	private void push(long v) {
+		if (heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+		int i = heapSize++;
+		while (i > 0) {
+			int p = (i - 1) >>> 1;
+			if (heap[p] <= v) break;
+			heap[i] = heap[p];
+			i = p;
+		}
+		heap[i] = v;
+	}
+
+	private long pop() {
+		long top = heap[0];
+		long v = heap[--heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && heap[child + 1] < heap[child]) ++child;
+			if (heap[child] >= v) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = v;
+		return top;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "flights=" + slotOf.size() + " airports=" + codes.size() + " unindexed=" + (n - built);
+	}
+}
@@ -0,0 +1,418 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Finds pilots and planes that are assigned to overlapping flights.  Every
+ * pilot and every plane has an interval tree of the flights it is assigned
+ * to through FlightInfo, so "is this assignment free?" costs O(log n + k)
+ * for n flights of the pilot or plane and k overlaps, instead of a self-join
+ * in SQL.  The double-bookings found on the way are kept in a set, so
+ * listing all of them costs only the size of the answer.
+ *
+ * The schedule only has dates, so a flight occupies every day from its
+ * departure through its arrival date, both included, and two flights of a
+ * pilot or plane on the same day count as a conflict.  The departure and
+ * arrival dates are those of the flight, widened to its Schedule rows if
+ * it has any.
+ *
+ * The index is loaded on first use.  DBproject reports its own assignments
+ * through add(); with a ChangeFeed, FlightInfo changes of other processes
+ * are reloaded flight by flight on the next query, and a reset reloads
+ * everything.  Changes to the dates of an existing flight are not followed.
+ */
+public class ScheduleConflictIndex implements ChangeFeed.Listener {
+
+	/**
+	 * Loads assignments into the index.
+	 */
+	public interface Loader {
+		/**
+		 * Calls index.put() for the assignment of one flight, or of all
+		 * flights when flightId is -1.
+		 */
+		void load(ScheduleConflictIndex index, int flightId) throws SQLException;
+	}
+
+	/**
+	 * Two flights that share a pilot or a plane on at least one day.
+	 */
+	public static class Conflict {
+		public final String resource;
+		public final int resourceId;
+		public final int flight1, flight2;
+
+		Conflict(String resource, int resourceId, int flight1, int flight2) {
+			this.resource = resource;
+			this.resourceId = resourceId;
+			this.flight1 = Math.min(flight1, flight2);
+			this.flight2 = Math.max(flight1, flight2);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Conflict)) return false;
+			Conflict c = (Conflict) o;
+			return resource.equals(c.resource) && resourceId == c.resourceId && flight1 == c.flight1 && flight2 == c.flight2;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((resource.hashCode() * 31 + resourceId) * 31 + flight1) * 31 + flight2;
+		}
+
+		@Override
+		public String toString() {
+			return resource + " " + resourceId + ": flights " + flight1 + " and " + flight2;
+		}
+	}
+
+	/**
+	 * Pilot, plane and days of one assigned flight.
+	 */
+	private static class Assignment {
+		final int pilotId, planeId;
+		final long start, end;
+
+		Assignment(int pilotId, int planeId, long start, long end) {
+			this.pilotId = pilotId;
+			this.planeId = planeId;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Node of a treap ordered by (start, flight), augmented with the
+	 * largest end of its subtree so that subtrees ending before a query
+	 * interval are skipped.
+	 */
+	private static class Node {
+		final long start, end;
+		final int flight;
+		final int priority;
+		long maxEnd;
+		Node left, right;
+
+		Node(long start, long end, int flight, int priority) {
+			this.start = start;
+			this.end = end;
+			this.flight = flight;
+			this.priority = priority;
+			this.maxEnd = end;
+		}
+
+		void update() {
+			long m = end;
+			if (left != null && left.maxEnd > m) m = left.maxEnd;
+			if (right != null && right.maxEnd > m) m = right.maxEnd;
+			maxEnd = m;
+		}
+	}
+
+	/**
+	 * Interval tree of one pilot or plane.
+	 */
+	static class IntervalTree {
+		private Node root = null;
+		private int size = 0;
+
+		private static boolean before(long start, int flight, Node n) {
+			return start < n.start || start == n.start && flight < n.flight;
+		}
+
+		void insert(long start, long end, int flight, int priority) {
+			root = insert(root, new Node(start, end, flight, priority));
+			++size;
+		}
+
+		private static Node insert(Node t, Node n) {
+			if (t == null) return n;
+			if (n.priority > t.priority) {
+				Node[] parts = split(t, n.start, n.flight);
+				n.left = parts[0];
+				n.right = parts[1];
+				n.update();
+				return n;
+			}
+			if (before(n.start, n.flight, t)) t.left = insert(t.left, n);
+			else t.right = insert(t.right, n);
+			t.update();
+			return t;
+		}
+
+		//splits into the nodes before (start, flight) and the rest
+		private static Node[] split(Node t, long start, int flight) {
+			if (t == null) return new Node[2];
+			if (before(start, flight, t)) {
+				Node[] parts = split(t.left, start, flight);
+				t.left = parts[1];
+				t.update();
+				parts[1] = t;
+				return parts;
+			}
+			Node[] parts = split(t.right, start, flight);
+			t.right = parts[0];
+			t.update();
+			parts[0] = t;
+			return parts;
+		}
+
+		private static Node merge(Node a, Node b) {
+			if (a == null) return b;
+			if (b == null) return a;
+			if (a.priority > b.priority) {
+				a.right = merge(a.right, b);
+				a.update();
+				return a;
+			}
+			b.left = merge(a, b.left);
+			b.update();
+			return b;
+		}
+
+		boolean remove(long start, int flight) {
+			int before = size;
+			root = remove(root, start, flight);
+			return size < before;
+		}
+
+		private Node remove(Node t, long start, int flight) {
+			if (t == null) return null;
+			if (t.start == start && t.flight == flight) {
+				--size;
+				return merge(t.left, t.right);
+			}
+			if (before(start, flight, t)) t.left = remove(t.left, start, flight);
+			else t.right = remove(t.right, start, flight);
+			t.update();
+			return t;
+		}
+
+		/**
+		 * Adds the flights overlapping [start, end] to out, except the given one.
+		 */
+		void overlapping(long start, long end, int except, List<Integer> out) {
+			overlapping(root, start, end, except, out);
+		}
+
+		private static void overlapping(Node t, long start, long end, int except, List<Integer> out) {
+			if (t == null || t.maxEnd < start) return;
+			overlapping(t.left, start, end, except, out);
+			if (t.start > end) return;
+			if (t.end >= start && t.flight != except) out.add(t.flight);
+			overlapping(t.right, start, end, except, out);
+		}
+
+		/**
+		 * @return whether any flight but the given one overlaps [start, end]
+		 */
+		boolean overlaps(long start, long end, int except) {
+			//interval search along one path (Cormen et al.): when the left
+			//subtree reaches start but holds no overlap, the right one cannot
+			//hold one either, since all of its intervals start later
+			Node t = root;
+			while (t != null) {
+				if (t.start <= end && t.end >= start) {
+					if (t.flight != except) return true;
+					//the path argument does not hold around the excluded flight
+					return overlapsAny(root, start, end, except);
+				}
+				t = t.left != null && t.left.maxEnd >= start ? t.left : t.right;
+			}
+			return false;
+		}
+
+		private static boolean overlapsAny(Node t, long start, long end, int except) {
+			if (t == null || t.maxEnd < start) return false;
+			if (t.start <= end && t.end >= start && t.flight != except) return true;
+			if (overlapsAny(t.left, start, end, except)) return true;
+			return t.start <= end && overlapsAny(t.right, start, end, except);
+		}
+
+		int size() {
+			return size;
+		}
+	}
+
+	private final Loader loader;
+	private final Map<Integer, Assignment> flights = new HashMap<Integer, Assignment>();
+	private final Map<Integer, IntervalTree> pilots = new HashMap<Integer, IntervalTree>();
+	private final Map<Integer, IntervalTree> planes = new HashMap<Integer, IntervalTree>();
+	private final Set<Conflict> conflicts = new LinkedHashSet<Conflict>();
+	private final SplittableRandom priorities = new SplittableRandom(1);
+	//reload everything, or the listed flights, before the next query
+	private boolean stale = true;
+	private final Set<Integer> dirty = new LinkedHashSet<Integer>();
+
+	/**
+	 * @param loader reads assignments from the database, or null for an
+	 *        index that only holds what is put into it
+	 */
+	public ScheduleConflictIndex(Loader loader) {
+		this.loader = loader;
+		this.stale = loader != null;
+	}
+
+	/**
+	 * Builds an index that loads the assignments through DBproject.
+	 */
+	public static ScheduleConflictIndex forDatabase(final DBproject esql) {
+		final String all =
+			"Select I.flight_id, I.pilot_id, I.plane_id, " +
+			"least(F.actual_departure_date, min(S.departure_time)), greatest(F.actual_arrival_date, max(S.arrival_time)) " +
+			"From FlightInfo I join Flight F on F.fnum = I.flight_id left join Schedule S on S.flightNum = F.fnum ";
+		//put() keeps the first row of a flight; of rows left from before assignments updated FlightInfo, that is the newest
+		final String group = "Group by I.fiid, I.flight_id, I.pilot_id, I.plane_id, F.actual_departure_date, F.actual_arrival_date Order by I.fiid desc;";
+		return new ScheduleConflictIndex(new Loader() {
+			public void load(final ScheduleConflictIndex index, int flightId) throws SQLException {
+				DBproject.RowHandler put = row -> index.put(row.getInt(1), row.getInt(2), row.getInt(3),
+					row.getDate(4), row.getDate(5));
+				if (flightId < 0) esql.forEachRow(all + group, put);
+				else esql.forEachRow(all + "Where I.flight_id = ? " + group, put, flightId);
+			}
+		});
+	}
+
+	private synchronized void refresh() throws SQLException {
+		if (loader == null) return;
+		if (stale) {
+			flights.clear();
+			pilots.clear();
+			planes.clear();
+			conflicts.clear();
+			dirty.clear();
+			loader.load(this, -1);
+			stale = false;
+		}
+		while (!dirty.isEmpty()) {
+			Integer flightId = dirty.iterator().next();
+			dirty.remove(flightId);
+			remove(flightId);
+			loader.load(this, flightId);
+		}
+	}
+
+	/**
+	 * Checks a prospective assignment.
+	 *
+	 * @param flightId the flight to assign, ignored when it overlaps itself
+	 * @return the conflicts the assignment would create, empty when it is free
+	 * @throws java.sql.SQLException when the index has to be loaded and that fails
+	 */
+	public synchronized List<Conflict> check(int flightId, int pilotId, int planeId, LocalDate departure, LocalDate arrival) throws SQLException {
+		refresh();
+		List<Conflict> found = new ArrayList<Conflict>();
+		List<Integer> overlapping = new ArrayList<Integer>();
+		long start = departure.toEpochDay(), end = arrival.toEpochDay();
+		IntervalTree t = pilots.get(pilotId);
+		if (t != null) t.overlapping(start, end, flightId, overlapping);
+		for (int other : overlapping) found.add(new Conflict("pilot", pilotId, flightId, other));
+		overlapping.clear();
+		t = planes.get(planeId);
+		if (t != null) t.overlapping(start, end, flightId, overlapping);
+		for (int other : overlapping) found.add(new Conflict("plane", planeId, flightId, other));
+		return found;
+	}
+
+	/**
+	 * @return whether neither the pilot nor the plane flies between the two
+	 *         dates, other than on the given flight
+	 * @throws java.sql.SQLException when the index has to be loaded and that fails
+	 */
+	public synchronized boolean isFree(int flightId, int pilotId, int planeId, LocalDate departure, LocalDate arrival) throws SQLException {
+		refresh();
+		long start = departure.toEpochDay(), end = arrival.toEpochDay();
+		IntervalTree t = pilots.get(pilotId);
+		if (t != null && t.overlaps(start, end, flightId)) return false;
+		t = planes.get(planeId);
+		return t == null || !t.overlaps(start, end, flightId);
+	}
+
+	/**
+	 * @return every pair of flights that share a pilot or a plane on a day
+	 * @throws java.sql.SQLException when the index has to be loaded and that fails
+	 */
+	public synchronized List<Conflict> doubleBookings() throws SQLException {
+		refresh();
+		return new ArrayList<Conflict>(conflicts);
+	}
+
+	/**
+	 * Records a committed assignment, replacing an earlier one of the flight.
+	 */
+	public synchronized void add(int flightId, int pilotId, int planeId, LocalDate departure, LocalDate arrival) {
+		//a stale index is reloaded with the assignment anyway
+		if (stale) return;
+		remove(flightId);
+		put(flightId, pilotId, planeId, departure, arrival);
+	}
+
+	/**
+	 * Adds an assignment; called by the loader and add().
+	 */
+	synchronized void put(int flightId, int pilotId, int planeId, LocalDate departure, LocalDate arrival) {
+		long start = departure.toEpochDay(), end = Math.max(start, arrival.toEpochDay());
+		if (flights.containsKey(flightId)) return;
+		flights.put(flightId, new Assignment(pilotId, planeId, start, end));
+		insert(pilots, "pilot", pilotId, flightId, start, end);
+		insert(planes, "plane", planeId, flightId, start, end);
+	}
+
+	private void insert(Map<Integer, IntervalTree> trees, String resource, int id, int flightId, long start, long end) {
+		IntervalTree t = trees.get(id);
+		if (t == null) {
+			t = new IntervalTree();
+			trees.put(id, t);
+		}
+		List<Integer> overlapping = new ArrayList<Integer>();
+		t.overlapping(start, end, flightId, overlapping);
+		for (int other : overlapping) conflicts.add(new Conflict(resource, id, flightId, other));
+		t.insert(start, end, flightId, priorities.nextInt());
+	}
+
+	/**
+	 * Drops the assignment of a flight and its conflicts.
+	 */
+	public synchronized void remove(int flightId) {
+		Assignment a = flights.remove(flightId);
+		if (a == null) return;
+		delete(pilots, "pilot", a.pilotId, flightId, a);
+		delete(planes, "plane", a.planeId, flightId, a);
+	}
+
+	private void delete(Map<Integer, IntervalTree> trees, String resource, int id, int flightId, Assignment a) {
+		IntervalTree t = trees.get(id);
+		if (t == null) return;
+		t.remove(a.start, flightId);
+		List<Integer> overlapping = new ArrayList<Integer>();
+		t.overlapping(a.start, a.end, flightId, overlapping);
+		for (int other : overlapping) conflicts.remove(new Conflict(resource, id, flightId, other));
+		if (t.size() == 0) trees.remove(id);
+	}
+
+	public synchronized int size() {
+		return flights.size();
+	}
+
+	//ChangeFeed.Listener, called on the feed's thread; the work is left to the next query
+
+	public synchronized void flightInfo(ChangeFeed.FlightInfoChange c) {
+		dirty.add(c.flightId);
+	}
+
+	public synchronized void reset() {
+		if (loader != null) stale = true;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "flights=" + flights.size() + " pilots=" + pilots.size() + " planes=" + planes.size() + " conflicts=" + conflicts.size();
+	}
+}
@@ -0,0 +1,284 @@
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory answer to "how many seats are left on flight fnum".  It caches,
+ * per flight, the plane assigned through FlightInfo, and per plane its number
+ * of seats, plus the flight's num_sold.  Both maps are bounded and evict
+ * with the CLOCK algorithm: a hand goes round each map, and an entry read
+ * since the hand last passed it gets a second chance, so hot flights stay.
+ *
+ * A hit takes no lock.  Writes to one flight, and the load of a missing
+ * flight, serialize on one of a fixed set of locks picked by fid, so
+ * bookings of different flights do not wait for each other.
+ *
+ * The cache is write-through: the booking path reports the num_sold that
+ * the database returned, and AddFlight invalidates the new flight.  It only
+ * serves reads; whether a booking is confirmed is still decided by the
+ * database, so a stale entry can never oversell a flight.
+ *
+ * With a ChangeFeed, changes made by other processes reach the cache too:
+ * update() sets the num_sold a commit left behind, and a change that
+ * arrives while the same flight is being loaded keeps the loaded answer out
+ * of the cache, since it may predate the change.
+ */
+public class SeatCache {
+
+	/**
+	 * Loads the plane and num_sold of a flight on a cache miss.
+	 */
+	public interface Loader {
+		/**
+		 * @return {plane_id, seats, num_sold}, or null when the flight has no plane
+		 */
+		int[] load(int fid) throws Exception;
+	}
+
+	//set on every hit, cleared by the clock hand when it spares the entry
+	private static class Entry {
+		volatile boolean used = true;
+	}
+
+	private static class FlightSeats extends Entry {
+		final int planeId;
+		volatile int numSold;
+
+		FlightSeats(int planeId, int numSold) {
+			this.planeId = planeId;
+			this.numSold = numSold;
+		}
+	}
+
+	private static class PlaneSeats extends Entry {
+		final int seats;
+
+		PlaneSeats(int seats) {
+			this.seats = seats;
+		}
+	}
+
+	private static final int STRIPES = 64;
+
+	private final ConcurrentHashMap<Integer, FlightSeats> flights = new ConcurrentHashMap<Integer, FlightSeats>();
+	private final ConcurrentHashMap<Integer, PlaneSeats> planeSeats = new ConcurrentHashMap<Integer, PlaneSeats>();
+	private final Clock<FlightSeats> flightClock;
+	private final Clock<PlaneSeats> planeClock;
+	private final Loader loader;
+	//flights being loaded; false once a change arrived during the load
+	private final ConcurrentHashMap<Integer, Boolean> loading = new ConcurrentHashMap<Integer, Boolean>();
+	private final Object[] locks = new Object[STRIPES];
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	public SeatCache(final int maxFlights, final int maxPlanes, Loader loader) {
+		this.flightClock = new Clock<FlightSeats>(flights, maxFlights);
+		this.planeClock = new Clock<PlaneSeats>(planeSeats, maxPlanes);
+		this.loader = loader;
+		for (int i = 0; i < STRIPES; ++i) locks[i] = new Object();
+	}
+
+	private Object lock(int fid) {
+		return locks[fid & (STRIPES - 1)];
+	}
+
+	/**
+	 * Builds a cache that loads missing flights through DBproject.
+	 */
+	public static SeatCache forDatabase(final DBproject esql, int maxFlights, int maxPlanes) {
+		return new SeatCache(maxFlights, maxPlanes, new Loader() {
+			public int[] load(int fid) throws Exception {
+				List<List<String>> r = esql.executeQueryAndReturnResult(
+					"Select I.plane_id, P.seats, F.num_sold From Plane P, Flight F, FlightInfo I Where P.id = I.plane_id and F.fnum = I.flight_id and F.fnum = ?;", fid);
+				if (r.isEmpty()) return null;
+				return new int[] {Integer.parseInt(r.get(0).get(0)), Integer.parseInt(r.get(0).get(1)), Integer.parseInt(r.get(0).get(2))};
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of free seats of a flight, loading it on a miss.
+	 *
+	 * @param fid the flight number
+	 * @return seats minus num_sold, or null when the flight has no plane
+	 * @throws Exception when the loader fails
+	 */
+	public Integer available(int fid) throws Exception {
+		FlightSeats f = flights.get(fid);
+		if (f != null) {
+			PlaneSeats p = planeSeats.get(f.planeId);
+			if (p != null) {
+				f.used = true;
+				p.used = true;
+				hits.increment();
+				return p.seats - f.numSold;
+			}
+		}
+		misses.increment();
+		//a concurrent load of the same flight keeps its marker, so a change seen by either keeps both out
+		loading.putIfAbsent(fid, Boolean.TRUE);
+		int[] loaded;
+		try {
+			loaded = loader.load(fid);
+		} catch (Exception e) {
+			loading.remove(fid);
+			throw e;
+		}
+		int numSold;
+		synchronized (lock(fid)) {
+			boolean fresh = Boolean.TRUE.equals(loading.remove(fid));
+			if (loaded == null) return null;
+			if (!fresh) return loaded[1] - loaded[2];
+			// a booking may have reported a newer num_sold while we were loading
+			f = flights.get(fid);
+			numSold = f != null && f.planeId == loaded[0] ? Math.max(f.numSold, loaded[2]) : loaded[2];
+			flights.put(fid, new FlightSeats(loaded[0], numSold));
+			planeSeats.put(loaded[0], new PlaneSeats(loaded[1]));
+		}
+		flightClock.trim();
+		planeClock.trim();
+		return loaded[1] - numSold;
+	}//end available
+
+	/**
+	 * The clock hand of one map.  It is an iterator that keeps its place
+	 * between evictions and starts over at the end of the map; the map's
+	 * iterators are weakly consistent, so entries added behind the hand are
+	 * met on the next revolution.
+	 */
+	private class Clock<V extends Entry> {
+		private final ConcurrentHashMap<Integer, V> map;
+		private final int max;
+		private Iterator<V> hand;
+
+		Clock(ConcurrentHashMap<Integer, V> map, int max) {
+			this.map = map;
+			this.max = max;
+		}
+
+		/**
+		 * Evicts entries until the map is within its bound.  Concurrent
+		 * misses may overshoot the bound by a few entries for a moment.
+		 */
+		synchronized void trim() {
+			//two revolutions at most: the first may only clear used bits
+			for (long steps = 2L * map.size() + 2; steps > 0 && map.size() > max; --steps) {
+				if (hand == null || !hand.hasNext()) {
+					hand = map.values().iterator();
+					if (!hand.hasNext()) return;
+				}
+				V v = hand.next();
+				if (v.used) {
+					v.used = false;
+				} else {
+					hand.remove();
+					evictions.increment();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write-through from the booking path.  Only moves num_sold up, since
+	 * concurrent bookings of one flight may report back out of order.  A
+	 * load of the flight that is still running may predate the booking, so
+	 * its answer is not cached.
+	 *
+	 * @param fid the flight that was booked
+	 * @param numSold num_sold as returned by the database
+	 */
+	public void sold(int fid, int numSold) {
+		synchronized (lock(fid)) {
+			changed(fid);
+			FlightSeats f = flights.get(fid);
+			if (f != null && numSold > f.numSold) f.numSold = numSold;
+		}
+	}
+
+	/**
+	 * Sets the num_sold of a cached flight to what a committed change left
+	 * behind.  Changes arrive in commit order, so unlike sold() this may
+	 * move num_sold down, e.g. after a cancellation.
+	 */
+	public void update(int fid, int numSold) {
+		synchronized (lock(fid)) {
+			changed(fid);
+			FlightSeats f = flights.get(fid);
+			if (f != null) f.numSold = numSold;
+		}
+	}
+
+	/**
+	 * Drops a flight, e.g. after AddFlight or a change of its plane.
+	 */
+	public void invalidateFlight(int fid) {
+		synchronized (lock(fid)) {
+			changed(fid);
+			if (flights.remove(fid) != null) invalidations.increment();
+		}
+	}
+
+	/**
+	 * Drops a plane's capacity, e.g. after its number of seats changed.
+	 * Loads in progress are marked first; one that finished just before
+	 * may have cached the old capacity, which the removal then drops.
+	 */
+	public void invalidatePlane(int planeId) {
+		changedAll();
+		if (planeSeats.remove(planeId) != null) invalidations.increment();
+	}
+
+	//callers hold lock(fid), which a finishing load of fid takes as well
+	private void changed(int fid) {
+		loading.replace(fid, Boolean.FALSE);
+	}
+
+	private void changedAll() {
+		for (Integer fid : loading.keySet()) loading.replace(fid, Boolean.FALSE);
+	}
+
+	public void clear() {
+		changedAll();
+		flights.clear();
+		planeSeats.clear();
+		invalidations.increment();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	public int size() {
+		return flights.size();
+	}
+
+	/**
+	 * @return hit ratio between 0 and 1, or 0 before the first lookup
+	 */
+	public double hitRatio() {
+		long h = hits.sum(), m = misses.sum();
+		return h + m == 0 ? 0 : (double) h / (h + m);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("flights=%d hits=%d misses=%d hitRatio=%.3f evictions=%d invalidations=%d",
+			size(), getHits(), getMisses(), hitRatio(), getEvictions(), getInvalidations());
+	}
+}
@@ -0,0 +1,241 @@
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves waitlisted passengers to confirmed when seats open on their flight.
+ * The promoter follows the ChangeFeed of the DBproject: a flight whose
+ * num_sold went down, whose plane was assigned or changed, or whose plane
+ * got more seats, is queued, and a worker thread calls promote_waitlist in
+ * batches until the flight is full or its waitlist is empty.  Each batch is
+ * one transaction that locks the Flight row, so it cannot oversell against
+ * concurrent bookings.
+ *
+ * Changes made while the feed was not listening are lost, so on start and
+ * on every reset of the feed it sweeps the flights that have both
+ * waitlisted reservations and free seats.  Promotion lag is the time from
+ * the change that freed the seats until the promotion commit.
+ */
+public class WaitlistPromoter implements Runnable, ChangeFeed.Listener {
+	static final String FLIGHTS_TO_PROMOTE =
+		"Select S.fid From ReservationStatusCount S, Flight F, FlightInfo I, Plane P " +
+		"Where S.status = 'W' and F.fnum = S.fid and I.flight_id = F.fnum and P.id = I.plane_id and P.seats > F.num_sold;";
+	static final String FLIGHTS_OF_PLANE =
+		"Select flight_id From FlightInfo Where plane_id = ?;";
+
+	private final DBproject esql;
+	private final int batch;
+	private final LatencyHistogram lag = new LatencyHistogram();
+	private final AtomicLong promoted = new AtomicLong();
+	private final AtomicLong notifications = new AtomicLong();
+	//flights to look at, with the time of the earliest event not handled yet;
+	//planes whose flights still have to be looked up are kept as negative ids
+	private final Map<Integer, Long> pending = new LinkedHashMap<Integer, Long>();
+	private boolean sweep = true;
+	private ChangeFeed feed = null;
+	private volatile boolean running = false;
+	private Thread thread = null;
+
+	/**
+	 * @param esql runs the promotions over its pooled connections and
+	 *        provides the change feed
+	 * @param batch maximum number of reservations promoted per transaction
+	 */
+	public WaitlistPromoter(DBproject esql, int batch) {
+		if (batch < 1) throw new IllegalArgumentException("batch size must be positive");
+		this.esql = esql;
+		this.batch = batch;
+		esql.getMetrics().register("waitlist_promotion_lag", "Time from freed seats to the promotion of a waitlisted reservation", lag);
+	}
+
+	/**
+	 * Subscribes to the change feed and starts promoting on a daemon thread.
+	 *
+	 * @throws java.sql.SQLException when the change feed cannot be started
+	 */
+	public synchronized void start() throws SQLException {
+		if (running) return;
+		feed = esql.getChangeFeed();
+		feed.subscribe(this);
+		running = true;
+		thread = new Thread(this, "waitlist-promoter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Unsubscribes and stops the promoter thread.
+	 */
+	public void stop() throws InterruptedException {
+		Thread t;
+		ChangeFeed f;
+		synchronized (this) {
+			running = false;
+			t = thread;
+			thread = null;
+			f = feed;
+			feed = null;
+			notifyAll();
+		}
+		if (f != null) f.unsubscribe(this);
+		if (t != null) t.join();
+	}
+
+	//ChangeFeed.Listener, called on the feed's thread
+
+	public void flight(ChangeFeed.FlightChange c) {
+		if (c.op == ChangeFeed.Op.UPDATE && c.numSold < c.oldNumSold) enqueue(c.fnum, c.millis);
+	}
+
+	public void flightInfo(ChangeFeed.FlightInfoChange c) {
+		if (c.op != ChangeFeed.Op.DELETE) enqueue(c.flightId, c.millis);
+	}
+
+	public void plane(ChangeFeed.PlaneChange c) {
+		if (c.op == ChangeFeed.Op.UPDATE && c.seats > c.oldSeats) enqueue(-c.id, c.millis);
+	}
+
+	public synchronized void reset() {
+		sweep = true;
+		notifyAll();
+	}
+
+	private synchronized void enqueue(int id, long millis) {
+		notifications.incrementAndGet();
+		if (!pending.containsKey(id)) pending.put(id, millis);
+		notifyAll();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				Map<Integer, Long> work;
+				boolean sweepNow;
+				synchronized (this) {
+					while (running && pending.isEmpty() && !sweep) wait();
+					if (!running) return;
+					work = new LinkedHashMap<Integer, Long>(pending);
+					pending.clear();
+					sweepNow = sweep;
+					sweep = false;
+				}
+				if (sweepNow) {
+					//catch up on what happened while nobody was listening
+					for (List<String> row : esql.executeQueryAndReturnResult(FLIGHTS_TO_PROMOTE)) {
+						Integer fid = Integer.valueOf(row.get(0));
+						if (!work.containsKey(fid)) work.put(fid, -1L);
+					}
+				}
+				promoteAll(work);
+			}catch (InterruptedException e){
+				return;
+			}catch (SQLException e){
+				System.err.println("Waitlist promoter: " + e.getMessage());
+				//retry everything on the next round
+				reset();
+				sleep(1000);
+			}
+		}
+	}//end run
+
+	private void promoteAll(Map<Integer, Long> work) throws SQLException {
+		Iterator<Map.Entry<Integer, Long>> it = work.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Integer, Long> e = it.next();
+			if (e.getKey() < 0) {
+				for (List<String> row : esql.executeQueryAndReturnResult(FLIGHTS_OF_PLANE, -e.getKey())) {
+					promote(Integer.parseInt(row.get(0)), e.getValue());
+				}
+			} else {
+				promote(e.getKey(), e.getValue());
+			}
+			it.remove();
+		}
+	}
+
+	/**
+	 * Promotes batches of one flight's waitlist until a batch comes back
+	 * short, i.e. the plane is full or nobody is left waiting.
+	 *
+	 * @param eventMillis when the seats were freed, or -1 if not known
+	 * @return the number of promoted reservations
+	 */
+	int promote(int fid, long eventMillis) throws SQLException {
+		int total = 0;
+		int n;
+		do {
+			List<List<String>> rows = esql.promoteWaitlist(fid, batch);
+			n = rows.size();
+			total += n;
+			if (n > 0 && eventMillis > 0) {
+				long nanos = (System.currentTimeMillis() - eventMillis) * 1000000L;
+				for (int i = 0; i < n; ++i) lag.record(nanos);
+			}
+		} while (n == batch);
+		promoted.addAndGet(total);
+		return total;
+	}//end promote
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return time from freed seats to promotion, in nanoseconds
+	 */
+	public LatencyHistogram getLag() {
+		return lag;
+	}
+
+	public long getPromoted() {
+		return promoted.get();
+	}
+
+	public long getNotifications() {
+		return notifications.get();
+	}
+
+	@Override
+	public String toString() {
+		return "promoted=" + promoted.get() + " notifications=" + notifications.get() +
+			String.format(" lag p50=%.1fms p99=%.1fms max=%.1fms", lag.getValueAtPercentile(50) / 1e6,
+				lag.getValueAtPercentile(99) / 1e6, lag.getMax() / 1e6);
+	}
+
+	/**
+	 * Runs the promoter on its own until the process is stopped, printing
+	 * its counters every minute.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 3) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + WaitlistPromoter.class.getName () +
+					" <dbname> <port> <user>");
+			return;
+		}//end if
+
+		DBproject esql = null;
+		try {
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "");
+			WaitlistPromoter promoter = new WaitlistPromoter(esql, Integer.getInteger("dbproject.waitlist.batch", 100));
+			promoter.start();
+			while (true) {
+				Thread.sleep(60000);
+				System.out.println(promoter);
+			}
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+import java.util.SplittableRandom;
+
+/**
+ * Draws ranks 1..n from a Zipf distribution with exponent s, in constant time
+ * and memory per draw, using the rejection-inversion method of Hormann and
+ * Derflinger ("Rejection-inversion to generate variates from monotone
+ * discrete distributions", 1996).  Rank 1 is the most frequent one.
+ */
+public class ZipfSampler {
+	private final int n;
+	private final double s;
+	private final double hIntegralX1;
+	private final double hIntegralN;
+	private final double threshold;
+
+	public ZipfSampler(int n, double s) {
+		if (n < 1) throw new IllegalArgumentException("n must be positive");
+		if (s <= 0) throw new IllegalArgumentException("exponent must be positive");
+		this.n = n;
+		this.s = s;
+		this.hIntegralX1 = hIntegral(1.5) - 1.0;
+		this.hIntegralN = hIntegral(n + 0.5);
+		this.threshold = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2));
+	}
+
+	/**
+	 * @return a rank between 1 and n
+	 */
+	public int sample(SplittableRandom random) {
+		while (true) {
+			double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+			double x = hIntegralInverse(u);
+			int k = (int) (x + 0.5);
+			if (k < 1) k = 1;
+			else if (k > n) k = n;
+			if (k - x <= threshold || u >= hIntegral(k + 0.5) - h(k)) return k;
+		}
+	}
+
+	public int getN() {
+		return n;
+	}
+
+	/**
+	 * The share of all draws that have a rank of at most k, from the same
+	 * integral of x^-s that sample() inverts, so it follows the sampled
+	 * frequencies closely but not exactly.
+	 *
+	 * @return 0 for k below 1, 1 for k of n and above, increasing in between
+	 */
+	public double cumulative(double k) {
+		if (k < 1) return 0;
+		if (k >= n) return 1;
+		double h0 = hIntegral(0.5);
+		return (hIntegral(k + 0.5) - h0) / (hIntegralN - h0);
+	}
+
+	/**
+	 * @return the k, not rounded, at which cumulative(k) is q
+	 */
+	public double inverseCumulative(double q) {
+		double h0 = hIntegral(0.5);
+		return hIntegralInverse(h0 + q * (hIntegralN - h0)) - 0.5;
+	}
+
+	private double h(double x) {
+		return Math.exp(-s * Math.log(x));
+	}
+
+	private double hIntegral(double x) {
+		double logX = Math.log(x);
+		return helper2((1.0 - s) * logX) * logX;
+	}
+
+	private double hIntegralInverse(double x) {
+		double t = x * (1.0 - s);
+		if (t < -1.0) t = -1.0;
+		return Math.exp(helper1(t) * x);
+	}
+
+	/** log(1 + x) / x, accurate near 0 */
+	private static double helper1(double x) {
+		if (Math.abs(x) > 1e-8) return Math.log1p(x) / x;
+		return 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+	}
+
+	/** (exp(x) - 1) / x, accurate near 0 */
+	private static double helper2(double x) {
+		if (Math.abs(x) > 1e-8) return Math.expm1(x) / x;
+		return 1.0 + x * 0.5 * (1.0 + x * (1.0 / 3.0) * (1.0 + 0.25 * x));
+	}
+}
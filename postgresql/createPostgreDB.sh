@@ -10,3 +10,9 @@ cp ../data/*.csv /tmp/$USER/myDB/data/.
 echo "Initializing tables .. "
 sleep 1
 psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
+
+# explainBenchmark.sh sets SKIP_MIGRATIONS to measure the schema without them
+if [ -z "$SKIP_MIGRATIONS" ]; then
+	echo "Applying migrations ... "
+	(cd ../java && { [ -f bin/Migrator.class ] || ./compile.sh; } && java -cp lib/*:bin/ Migrator $USER"_DB" $PGPORT $USER ../sql/migrations)
+fi
@@ -0,0 +1,21 @@
+#! /bin/bash
+# Before/after comparison of the migrations in ../sql/migrations on a
+# scaled-up copy of the data.  Recreates the database, so run it on a
+# scratch instance.
+SCALE=${1:-100}
+DB=$USER"_DB"
+
+SKIP_MIGRATIONS=1 source ./createPostgreDB.sh
+
+echo "Scaling data up x"$SCALE" ... "
+psql -h localhost -p $PGPORT -v scale=$SCALE -f ../sql/bench/scale_up.sql $DB
+
+echo "Plans before migrations ... "
+psql -h localhost -p $PGPORT -v fid=54 -v day="'2014-04-28'" -f ../sql/bench/hot_paths.sql -f ../sql/bench/hot_paths_before.sql $DB > explain_before.txt
+
+(cd ../java && java -cp lib/*:bin/ Migrator $DB $PGPORT $USER ../sql/migrations)
+
+echo "Plans after migrations ... "
+psql -h localhost -p $PGPORT -v fid=54 -v day="'2014-04-28'" -f ../sql/bench/hot_paths.sql -f ../sql/bench/hot_paths_after.sql $DB > explain_after.txt
+
+echo "Wrote explain_before.txt and explain_after.txt"
@@ -0,0 +1,31 @@
+-- EXPLAIN ANALYZE of the queries DBproject runs on its hot paths, in the
+-- form the Java code sends them.  Run once before and once after the
+-- migrations to compare plans and timings, together with the queries that
+-- the migrations replace, e.g.
+--	psql -v fid=54 -v day="'2014-04-28'" -f hot_paths.sql -f hot_paths_before.sql
+--	psql -v fid=54 -v day="'2014-04-28'" -f hot_paths.sql -f hot_paths_after.sql
+
+\echo '--- BookFlight: customer lookup'
+EXPLAIN (ANALYZE, BUFFERS) Select id From Customer Where lower(btrim(fname)) = 'ina' and lower(btrim(lname)) = 'lecroy' Order by id;
+
+\echo '--- BookFlight / ListNumberOfAvailableSeats: seats of a flight'
+EXPLAIN (ANALYZE, BUFFERS) Select I.plane_id, P.seats, F.num_sold From Plane P, Flight F, FlightInfo I Where P.id = I.plane_id and F.fnum = I.flight_id and F.fnum = :fid;
+
+\echo '--- flights of one departure day'
+EXPLAIN (ANALYZE, BUFFERS) Select * From Flight Where actual_departure_date >= cast(:day as date) and actual_departure_date < cast(:day as date) + 1;
+
+\echo '--- FlightSearch: first page of one day from the busiest departure airport'
+Select departure_airport as airport From Flight Group by departure_airport Order by COUNT(*) desc Limit 1 \gset
+EXPLAIN (ANALYZE, BUFFERS) Select fnum, departure_airport, arrival_airport, actual_departure_date, actual_arrival_date, cost, num_stops From Flight
+	Where actual_departure_date >= cast(:day as date) and actual_departure_date < cast(:day as date) + 1 and departure_airport = :'airport'
+	and (actual_departure_date, fnum) > (cast(:day as date), -2147483648) Order by actual_departure_date, fnum Limit 21;
+
+\echo '--- passenger and repair counts straight from the base tables; one partition each once V009 is applied'
+EXPLAIN (ANALYZE, BUFFERS) Select COUNT(*) From Reservation Where fid = :fid and status = 'C';
+EXPLAIN (ANALYZE, BUFFERS) Select COUNT(*) From Repairs
+	Where repair_date >= date_trunc('year', cast(:day as date))::date and repair_date < (date_trunc('year', cast(:day as date)) + interval '1 year')::date;
+
+\echo '--- table sizes, with their partitions'
+Select C.relname, pg_size_pretty(pg_total_relation_size(C.oid) +
+	coalesce((Select sum(pg_total_relation_size(I.inhrelid)) From pg_inherits I Where I.inhparent = C.oid), 0)::bigint)
+From pg_class C Where C.relname in ('customer', 'flight', 'flightinfo', 'reservation', 'repairs', 'schedule') Order by C.relname;
@@ -0,0 +1,12 @@
+-- The hot path queries that read tables a migration adds: the repair
+-- summaries of V003 and the status counters of V005.  Run with
+-- hot_paths.sql once the migrations are applied.
+
+\echo '--- FindPassengersCountWithStatus'
+EXPLAIN (ANALYZE, BUFFERS) Select coalesce((Select n From ReservationStatusCount Where fid = :fid and status = 'C'), 0) as count;
+
+\echo '--- ListsTotalNumberOfRepairsPerPlane'
+EXPLAIN (ANALYZE, BUFFERS) Select plane_id, n From RepairsPerPlane Order by n desc;
+
+\echo '--- ListTotalNumberOfRepairsPerYear'
+EXPLAIN (ANALYZE, BUFFERS) Select year as Year, n as Sum From RepairsPerYear Order by Sum;
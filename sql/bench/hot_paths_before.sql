@@ -0,0 +1,12 @@
+-- The hot path queries as they were before the migrations, for queries
+-- that read tables a migration adds.  Run with hot_paths.sql on a database
+-- without the migrations applied.
+
+\echo '--- FindPassengersCountWithStatus'
+EXPLAIN (ANALYZE, BUFFERS) Select COUNT(*) From Flight F, Reservation R Where F.fnum = :fid and R.status = 'C' and F.fnum = R.fid;
+
+\echo '--- ListsTotalNumberOfRepairsPerPlane'
+EXPLAIN (ANALYZE, BUFFERS) Select R.plane_id, COUNT(*) as n From Repairs R Group by R.plane_id Order by n desc;
+
+\echo '--- ListTotalNumberOfRepairsPerYear'
+EXPLAIN (ANALYZE, BUFFERS) Select extract(year from repair_date)::int as Year, COUNT(*) as Sum From Repairs Group by Year Order by Sum;
@@ -0,0 +1,47 @@
+-- Multiplies the fixture data so the access paths of DBproject can be
+-- compared on a realistic table size.  Run after create.sql, e.g.
+--	psql -v scale=100 -f scale_up.sql
+-- scale=100 gives about 25k customers, 200k flights and 1M reservations.
+
+SELECT setseed(0.42);
+
+-- no per-row change feed notifications (migration V008); one reset at the end
+SET dbproject.change_feed = off;
+
+-- create.sql loads explicit ids without moving every SERIAL sequence past them
+SELECT setval(pg_get_serial_sequence('customer', 'id'), (Select max(id) From Customer));
+SELECT setval(pg_get_serial_sequence('flight', 'fnum'), (Select max(fnum) From Flight));
+SELECT setval(pg_get_serial_sequence('flightinfo', 'fiid'), (Select max(fiid) From FlightInfo));
+SELECT setval(pg_get_serial_sequence('reservation', 'rnum'), (Select max(rnum) From Reservation));
+SELECT setval(pg_get_serial_sequence('repairs', 'rid'), (Select max(rid) From Repairs));
+
+INSERT INTO Customer (fname, lname, gtype, dob, address, phone, zipcode)
+SELECT C.fname, left(rtrim(C.lname), 16) || g, C.gtype, C.dob, C.address, C.phone, C.zipcode
+FROM Customer C, generate_series(1, :scale - 1) g
+WHERE C.id < 250;
+
+INSERT INTO Flight (cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport)
+SELECT F.cost, F.num_sold, F.num_stops, F.actual_departure_date + 7 * g, F.actual_arrival_date + 7 * g, F.arrival_airport, F.departure_airport
+FROM Flight F, generate_series(1, :scale - 1) g
+WHERE F.fnum < 2000;
+
+INSERT INTO FlightInfo (flight_id, pilot_id, plane_id)
+SELECT F.fnum, (random() * 249)::int, (random() * 66)::int
+FROM Flight F
+WHERE NOT EXISTS (Select 1 From FlightInfo I Where I.flight_id = F.fnum);
+
+INSERT INTO Reservation (cid, fid, status)
+SELECT (random() * (Select max(id) From Customer))::int,
+	(Select min(fnum) From Flight) + (random() * (Select count(*) - 1 From Flight))::int,
+	(ARRAY['W', 'C', 'R'])[1 + (random() * 2)::int]
+FROM generate_series(1, 10000 * (:scale - 1));
+DELETE FROM Reservation R WHERE NOT EXISTS (Select 1 From Flight F Where F.fnum = R.fid);
+
+INSERT INTO Repairs (repair_date, repair_code, pilot_id, plane_id, technician_id)
+SELECT date '2010-01-01' + (random() * 5000)::int, (ARRAY['MJ', 'MN', 'SV'])[1 + (random() * 2)::int],
+	(random() * 249)::int, (random() * 66)::int, (random() * 249)::int
+FROM generate_series(1, 550 * (:scale - 1));
+
+VACUUM ANALYZE;
+
+NOTIFY dbproject_changes, 'X';
@@ -0,0 +1,24 @@
+-- Replaces the blank-padded CHAR(n) name and address columns with TEXT /
+-- VARCHAR.  CHAR(n) stores every value padded to n characters, so a
+-- Customer row carries 24 + 24 + 256 characters of mostly blanks; the
+-- variable width types only store the value itself.  rtrim drops the
+-- padding of the existing rows.  The airport codes are always 5 letters
+-- and stay CHAR(5).
+
+ALTER TABLE Customer
+	ALTER COLUMN fname TYPE TEXT USING rtrim(fname),
+	ALTER COLUMN lname TYPE TEXT USING rtrim(lname),
+	ALTER COLUMN address TYPE TEXT USING rtrim(address),
+	ALTER COLUMN phone TYPE VARCHAR(10) USING rtrim(phone),
+	ALTER COLUMN zipcode TYPE VARCHAR(10) USING rtrim(zipcode);
+
+ALTER TABLE Pilot
+	ALTER COLUMN fullname TYPE TEXT USING rtrim(fullname),
+	ALTER COLUMN nationality TYPE TEXT USING rtrim(nationality);
+
+ALTER TABLE Plane
+	ALTER COLUMN make TYPE TEXT USING rtrim(make),
+	ALTER COLUMN model TYPE TEXT USING rtrim(model);
+
+ALTER TABLE Technician
+	ALTER COLUMN full_name TYPE TEXT USING rtrim(full_name);
@@ -0,0 +1,24 @@
+-- Indexes for the predicates DBproject filters on.  The INCLUDE columns
+-- make the lookups index-only scans (PostgreSQL 11 or later).
+
+-- FindPassengersCountWithStatus: count of one status on one flight
+CREATE INDEX IF NOT EXISTS reservation_fid_status_idx ON Reservation (fid, status);
+
+-- BookFlight: customer id by first and last name
+CREATE INDEX IF NOT EXISTS customer_name_idx ON Customer (fname, lname) INCLUDE (id);
+
+-- every seat query: plane of a flight
+CREATE INDEX IF NOT EXISTS flightinfo_flight_idx ON FlightInfo (flight_id) INCLUDE (plane_id, pilot_id);
+
+-- the "don't know the flight number" flows: flights of one departure day
+CREATE INDEX IF NOT EXISTS flight_departure_idx ON Flight (actual_departure_date, fnum);
+
+-- repair reports and per-plane lookups
+CREATE INDEX IF NOT EXISTS repairs_plane_idx ON Repairs (plane_id);
+CREATE INDEX IF NOT EXISTS repairs_date_idx ON Repairs (repair_date) INCLUDE (plane_id);
+
+ANALYZE Reservation;
+ANALYZE Customer;
+ANALYZE FlightInfo;
+ANALYZE Flight;
+ANALYZE Repairs;
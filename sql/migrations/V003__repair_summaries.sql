@@ -0,0 +1,129 @@
+-- Incrementally maintained aggregates behind ListsTotalNumberOfRepairsPerPlane
+-- and ListTotalNumberOfRepairsPerYear, so the reports read one small table
+-- instead of grouping all of Repairs.  Statement level triggers with
+-- transition tables fold every INSERT, UPDATE, DELETE (and COPY) into the
+-- counters in the same transaction, and TRUNCATE clears them, so the
+-- summaries are always consistent with Repairs (PostgreSQL 10 or later).
+
+CREATE TABLE RepairsPerPlane
+(
+	plane_id INTEGER NOT NULL,
+	n BIGINT NOT NULL,
+	PRIMARY KEY (plane_id)
+);
+
+-- the top-N planes by number of repairs
+CREATE INDEX repairsperplane_n_idx ON RepairsPerPlane (n DESC);
+
+CREATE TABLE RepairsPerYear
+(
+	year INTEGER NOT NULL,
+	n BIGINT NOT NULL,
+	PRIMARY KEY (year)
+);
+
+-- Adds the per plane and per year deltas of a set of changed rows.  The
+-- keys are upserted in order so that concurrent writers lock the counter
+-- rows in the same order and cannot deadlock each other.
+CREATE FUNCTION repairs_apply_delta(delta_plane INTEGER[], delta_plane_n BIGINT[],
+	delta_year INTEGER[], delta_year_n BIGINT[]) RETURNS void AS $$
+BEGIN
+	INSERT INTO RepairsPerPlane AS S (plane_id, n)
+		Select plane_id, n From unnest(delta_plane, delta_plane_n) AS D(plane_id, n) Order by plane_id
+	ON CONFLICT (plane_id) DO UPDATE SET n = S.n + EXCLUDED.n;
+	DELETE FROM RepairsPerPlane Where plane_id = ANY (delta_plane) and n <= 0;
+
+	INSERT INTO RepairsPerYear AS S (year, n)
+		Select year, n From unnest(delta_year, delta_year_n) AS D(year, n) Order by year
+	ON CONFLICT (year) DO UPDATE SET n = S.n + EXCLUDED.n;
+	DELETE FROM RepairsPerYear Where year = ANY (delta_year) and n <= 0;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION repairs_summary_trigger() RETURNS trigger AS $$
+DECLARE
+	p INTEGER[]; pn BIGINT[]; y INTEGER[]; yn BIGINT[];
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		Select array_agg(plane_id), array_agg(c) INTO p, pn
+			From (Select plane_id, COUNT(*) as c From new_rows Group by plane_id) A;
+		Select array_agg(yr), array_agg(c) INTO y, yn
+			From (Select extract(year from repair_date)::int as yr, COUNT(*) as c From new_rows Group by yr) A;
+	ELSIF TG_OP = 'DELETE' THEN
+		Select array_agg(plane_id), array_agg(-c) INTO p, pn
+			From (Select plane_id, COUNT(*) as c From old_rows Group by plane_id) A;
+		Select array_agg(yr), array_agg(-c) INTO y, yn
+			From (Select extract(year from repair_date)::int as yr, COUNT(*) as c From old_rows Group by yr) A;
+	ELSE
+		Select array_agg(plane_id), array_agg(c) INTO p, pn From (
+			Select plane_id, SUM(c) as c From (
+				Select plane_id, 1 as c From new_rows
+				UNION ALL
+				Select plane_id, -1 From old_rows) D
+			Group by plane_id Having SUM(c) <> 0) A;
+		Select array_agg(yr), array_agg(c) INTO y, yn From (
+			Select yr, SUM(c) as c From (
+				Select extract(year from repair_date)::int as yr, 1 as c From new_rows
+				UNION ALL
+				Select extract(year from repair_date)::int, -1 From old_rows) D
+			Group by yr Having SUM(c) <> 0) A;
+	END IF;
+	IF p IS NOT NULL OR y IS NOT NULL THEN
+		PERFORM repairs_apply_delta(coalesce(p, '{}'), coalesce(pn, '{}'), coalesce(y, '{}'), coalesce(yn, '{}'));
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION repairs_summary_truncate() RETURNS trigger AS $$
+BEGIN
+	DELETE FROM RepairsPerPlane;
+	DELETE FROM RepairsPerYear;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER repairs_summary_insert AFTER INSERT ON Repairs
+	REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE repairs_summary_trigger();
+CREATE TRIGGER repairs_summary_update AFTER UPDATE ON Repairs
+	REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE repairs_summary_trigger();
+CREATE TRIGGER repairs_summary_delete AFTER DELETE ON Repairs
+	REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE repairs_summary_trigger();
+CREATE TRIGGER repairs_summary_truncate AFTER TRUNCATE ON Repairs
+	FOR EACH STATEMENT EXECUTE PROCEDURE repairs_summary_truncate();
+
+-- Recomputes both summaries from Repairs, e.g. after the triggers were
+-- disabled for a load.  Returns the number of counter rows that were wrong.
+CREATE FUNCTION refresh_repair_summaries() RETURNS BIGINT AS $$
+DECLARE
+	wrong BIGINT;
+BEGIN
+	LOCK TABLE Repairs IN SHARE MODE;
+	Select COUNT(*) INTO wrong From (
+		(Select 'p', plane_id, COUNT(*) From Repairs Group by plane_id
+		 EXCEPT Select 'p', plane_id, n From RepairsPerPlane)
+		UNION ALL
+		(Select 'p', plane_id, n From RepairsPerPlane
+		 EXCEPT Select 'p', plane_id, COUNT(*) From Repairs Group by plane_id)
+		UNION ALL
+		(Select 'y', extract(year from repair_date)::int, COUNT(*) From Repairs Group by 2
+		 EXCEPT Select 'y', year, n From RepairsPerYear)
+		UNION ALL
+		(Select 'y', year, n From RepairsPerYear
+		 EXCEPT Select 'y', extract(year from repair_date)::int, COUNT(*) From Repairs Group by 2)) D;
+	IF wrong > 0 THEN
+		DELETE FROM RepairsPerPlane;
+		DELETE FROM RepairsPerYear;
+		INSERT INTO RepairsPerPlane (plane_id, n) Select plane_id, COUNT(*) From Repairs Group by plane_id;
+		INSERT INTO RepairsPerYear (year, n) Select extract(year from repair_date)::int, COUNT(*) From Repairs Group by 1;
+	END IF;
+	RETURN wrong;
+END;
+$$ LANGUAGE plpgsql;
+
+-- backfill; the migration's transaction holds the lock until the triggers
+-- are in place, so no repair is counted twice or missed
+Select refresh_repair_summaries();
+
+ANALYZE RepairsPerPlane;
+ANALYZE RepairsPerYear;
@@ -0,0 +1,9 @@
+-- Indexes for FlightSearch: flights from (or to) one airport in a departure
+-- date window, read in (actual_departure_date, fnum) order so a page is a
+-- range scan that starts at the previous page's key.  Searches without an
+-- airport use flight_departure_idx of V002.
+
+CREATE INDEX IF NOT EXISTS flight_from_departure_idx ON Flight (departure_airport, actual_departure_date, fnum);
+CREATE INDEX IF NOT EXISTS flight_to_departure_idx ON Flight (arrival_airport, actual_departure_date, fnum);
+
+ANALYZE Flight;
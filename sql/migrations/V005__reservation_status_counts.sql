@@ -0,0 +1,99 @@
+-- Per flight counts of reservations by status, so FindPassengersCountWithStatus
+-- reads one row instead of counting the flight's reservations.  Statement
+-- level triggers with transition tables apply the deltas of every INSERT,
+-- UPDATE (status or flight changes), DELETE and COPY on Reservation in the
+-- same transaction, and TRUNCATE clears the counts.  Reservations without a
+-- status are not counted, as no status parameter can match them.
+
+CREATE TABLE ReservationStatusCount
+(
+	fid INTEGER NOT NULL,
+	status _STATUS NOT NULL,
+	n BIGINT NOT NULL,
+	PRIMARY KEY (fid, status)
+);
+
+-- Adds per (fid, status) deltas.  The keys are upserted in order so that
+-- concurrent writers lock the counter rows in the same order.
+CREATE FUNCTION reservation_status_apply_delta(delta_fid INTEGER[], delta_status TEXT[], delta_n BIGINT[]) RETURNS void AS $$
+BEGIN
+	INSERT INTO ReservationStatusCount AS S (fid, status, n)
+		Select fid, status, n From unnest(delta_fid, delta_status, delta_n) AS D(fid, status, n) Order by fid, status
+	ON CONFLICT (fid, status) DO UPDATE SET n = S.n + EXCLUDED.n;
+	DELETE FROM ReservationStatusCount S Using unnest(delta_fid, delta_status) AS D(fid, status)
+		Where S.fid = D.fid and S.status = D.status and S.n <= 0;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION reservation_status_trigger() RETURNS trigger AS $$
+DECLARE
+	f INTEGER[]; st TEXT[]; c BIGINT[];
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		Select array_agg(fid), array_agg(status), array_agg(k) INTO f, st, c
+			From (Select fid, status::text, COUNT(*) as k From new_rows Where status IS NOT NULL Group by 1, 2) A;
+	ELSIF TG_OP = 'DELETE' THEN
+		Select array_agg(fid), array_agg(status), array_agg(-k) INTO f, st, c
+			From (Select fid, status::text, COUNT(*) as k From old_rows Where status IS NOT NULL Group by 1, 2) A;
+	ELSE
+		Select array_agg(fid), array_agg(status), array_agg(k) INTO f, st, c From (
+			Select fid, status, SUM(k) as k From (
+				Select fid, status::text, 1 as k From new_rows Where status IS NOT NULL
+				UNION ALL
+				Select fid, status::text, -1 From old_rows Where status IS NOT NULL) D
+			Group by fid, status Having SUM(k) <> 0) A;
+	END IF;
+	IF f IS NOT NULL THEN
+		PERFORM reservation_status_apply_delta(f, st, c);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION reservation_status_truncate() RETURNS trigger AS $$
+BEGIN
+	DELETE FROM ReservationStatusCount;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER reservation_status_insert AFTER INSERT ON Reservation
+	REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE reservation_status_trigger();
+CREATE TRIGGER reservation_status_update AFTER UPDATE ON Reservation
+	REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE reservation_status_trigger();
+CREATE TRIGGER reservation_status_delete AFTER DELETE ON Reservation
+	REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE reservation_status_trigger();
+CREATE TRIGGER reservation_status_truncate AFTER TRUNCATE ON Reservation
+	FOR EACH STATEMENT EXECUTE PROCEDURE reservation_status_truncate();
+
+-- Compares the counters with Reservation and returns every (fid, status)
+-- whose counter is wrong, with the counted and the actual number.  With
+-- fix = true the wrong counters are corrected.  Reservation is locked in
+-- SHARE mode meanwhile, which blocks bookings but not reads.
+CREATE FUNCTION reconcile_reservation_status_counts(fix BOOLEAN)
+	RETURNS TABLE (fid INTEGER, status TEXT, counted BIGINT, actual BIGINT) AS $$
+BEGIN
+	LOCK TABLE Reservation IN SHARE MODE;
+	CREATE TEMP TABLE reservation_status_diff ON COMMIT DROP AS
+		Select coalesce(A.fid, S.fid) as fid, coalesce(A.status, S.status::text) as status,
+			coalesce(S.n, 0) as counted, coalesce(A.n, 0) as actual
+		From (Select R.fid, R.status::text as status, COUNT(*) as n From Reservation R
+			Where R.status IS NOT NULL Group by 1, 2) A
+		FULL JOIN ReservationStatusCount S On S.fid = A.fid and S.status = A.status
+		Where coalesce(S.n, 0) <> coalesce(A.n, 0);
+	IF fix THEN
+		DELETE FROM ReservationStatusCount S Using reservation_status_diff D
+			Where S.fid = D.fid and S.status = D.status;
+		INSERT INTO ReservationStatusCount (fid, status, n)
+			Select D.fid, D.status, D.actual From reservation_status_diff D Where D.actual > 0;
+	END IF;
+	RETURN QUERY Select D.fid, D.status, D.counted, D.actual From reservation_status_diff D Order by 1, 2;
+	DROP TABLE reservation_status_diff;
+END;
+$$ LANGUAGE plpgsql;
+
+-- backfill; the migration's transaction keeps Reservation locked until
+-- the triggers are in place
+Select COUNT(*) From reconcile_reservation_status_counts(true);
+
+ANALYZE ReservationStatusCount;
@@ -0,0 +1,86 @@
+-- Waitlist promotion.  Whenever seats may have opened on a flight (num_sold
+-- went down, the flight got a different plane, or a plane got more seats)
+-- a notification "<fnum>:<epoch millis>" is sent on the seats_freed channel
+-- when the transaction commits.  WaitlistPromoter listens on the channel
+-- and calls promote_waitlist for the flight.
+
+CREATE FUNCTION notify_seats_freed(p_fid INTEGER) RETURNS void AS $$
+BEGIN
+	PERFORM pg_notify('seats_freed', p_fid || ':' || (extract(epoch from clock_timestamp()) * 1000)::bigint);
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION flight_seats_freed_trigger() RETURNS trigger AS $$
+BEGIN
+	IF NEW.num_sold < OLD.num_sold THEN
+		PERFORM notify_seats_freed(NEW.fnum);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER flight_seats_freed AFTER UPDATE OF num_sold ON Flight
+	FOR EACH ROW EXECUTE PROCEDURE flight_seats_freed_trigger();
+
+CREATE FUNCTION flightinfo_seats_freed_trigger() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' OR NEW.plane_id IS DISTINCT FROM OLD.plane_id OR NEW.flight_id IS DISTINCT FROM OLD.flight_id THEN
+		PERFORM notify_seats_freed(NEW.flight_id);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER flightinfo_seats_freed AFTER INSERT OR UPDATE OF plane_id, flight_id ON FlightInfo
+	FOR EACH ROW EXECUTE PROCEDURE flightinfo_seats_freed_trigger();
+
+CREATE FUNCTION plane_seats_freed_trigger() RETURNS trigger AS $$
+BEGIN
+	IF NEW.seats > OLD.seats THEN
+		PERFORM notify_seats_freed(I.flight_id) From FlightInfo I Where I.plane_id = NEW.id;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER plane_seats_freed AFTER UPDATE OF seats ON Plane
+	FOR EACH ROW EXECUTE PROCEDURE plane_seats_freed_trigger();
+
+-- Confirms up to p_batch waitlisted reservations of a flight, oldest rnum
+-- first, as long as its plane has free seats.  It locks the Flight row
+-- first, the same row BookFlight updates, so bookers and the promoter take
+-- seats one after the other and never oversell.  Returns the promoted
+-- reservations and the flight's num_sold afterwards.
+CREATE FUNCTION promote_waitlist(p_fid INTEGER, p_batch INTEGER)
+	RETURNS TABLE (rnum INTEGER, num_sold INTEGER) AS $$
+#variable_conflict use_column
+DECLARE
+	free INTEGER;
+	sold INTEGER;
+	ids INTEGER[];
+BEGIN
+	Select P.seats - F.num_sold INTO free From Flight F, FlightInfo I, Plane P
+		Where F.fnum = p_fid and I.flight_id = F.fnum and P.id = I.plane_id
+		FOR UPDATE OF F;
+	IF free IS NULL OR free <= 0 THEN
+		RETURN;
+	END IF;
+
+	WITH w AS (
+		Select R.rnum From Reservation R Where R.fid = p_fid and R.status = 'W'
+		Order by R.rnum Limit least(free, p_batch) FOR UPDATE
+	), promoted AS (
+		UPDATE Reservation R Set status = 'C' From w Where R.rnum = w.rnum RETURNING R.rnum
+	)
+	Select array_agg(promoted.rnum Order by promoted.rnum) INTO ids From promoted;
+	IF ids IS NULL THEN
+		RETURN;
+	END IF;
+
+	UPDATE Flight F Set num_sold = F.num_sold + cardinality(ids) Where F.fnum = p_fid RETURNING F.num_sold INTO sold;
+	RETURN QUERY Select u, sold From unnest(ids) AS u;
+END;
+$$ LANGUAGE plpgsql;
+
+-- the waitlisted reservations of one flight, in promotion order
+CREATE INDEX IF NOT EXISTS reservation_waitlist_idx ON Reservation (fid, rnum) Where status = 'W';
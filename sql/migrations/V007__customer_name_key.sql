@@ -0,0 +1,8 @@
+-- Customer lookup by normalized name (trimmed, lower case), as done by
+-- CustomerResolver.  It replaces customer_name_idx of V002, which served
+-- the exact name comparison that BookFlight no longer uses.
+
+CREATE INDEX IF NOT EXISTS customer_name_key_idx ON Customer (lower(btrim(fname)), lower(btrim(lname)));
+DROP INDEX IF EXISTS customer_name_idx;
+
+ANALYZE Customer;
@@ -0,0 +1,136 @@
+-- Change feed for the in-process caches of DBproject.  Row triggers on
+-- Flight, FlightInfo, Plane, Reservation and Customer send one compact
+-- notification per changed row on the dbproject_changes channel when the
+-- transaction commits; ChangeFeed parses them into typed events.  Payloads
+-- are colon separated, table and operation letter first, the commit-side
+-- clock (epoch millis) last but for Customer, whose name key ends it:
+--
+--	F:<op>:<fnum>:<old num_sold>:<new num_sold>:<millis>
+--	I:<op>:<flight_id>:<plane_id>:<millis>
+--	P:<op>:<id>:<old seats>:<new seats>:<millis>
+--	R:<op>:<rnum>:<fid>:<old status>:<new status>:<millis>
+--	C:<op>:<id>:<millis>:<lower(btrim(fname))><tab><lower(btrim(lname))>
+--
+-- op is I, U or D; values that do not exist for the operation are empty.
+-- It replaces the seats_freed notifications of V006, the waitlist promoter
+-- now reads the same feed.
+--
+-- Bulk loads set dbproject.change_feed = off for their session, so that a
+-- COPY does not queue one notification per row, and send a single "X"
+-- notification at the end, which tells listeners to drop their caches.
+
+DROP TRIGGER IF EXISTS flight_seats_freed ON Flight;
+DROP TRIGGER IF EXISTS flightinfo_seats_freed ON FlightInfo;
+DROP TRIGGER IF EXISTS plane_seats_freed ON Plane;
+DROP FUNCTION IF EXISTS flight_seats_freed_trigger();
+DROP FUNCTION IF EXISTS flightinfo_seats_freed_trigger();
+DROP FUNCTION IF EXISTS plane_seats_freed_trigger();
+DROP FUNCTION IF EXISTS notify_seats_freed(INTEGER);
+
+CREATE FUNCTION change_feed_millis() RETURNS TEXT AS $$
+	Select ((extract(epoch from clock_timestamp()) * 1000)::bigint)::text;
+$$ LANGUAGE sql;
+
+CREATE FUNCTION change_feed_enabled() RETURNS BOOLEAN AS $$
+	Select coalesce(current_setting('dbproject.change_feed', true), '') <> 'off';
+$$ LANGUAGE sql;
+
+CREATE FUNCTION flight_change_trigger() RETURNS trigger AS $$
+BEGIN
+	IF NOT change_feed_enabled() THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP = 'INSERT' THEN
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'F', 'I', NEW.fnum, '', NEW.num_sold, change_feed_millis()));
+	ELSIF TG_OP = 'DELETE' THEN
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'F', 'D', OLD.fnum, OLD.num_sold, '', change_feed_millis()));
+	ELSIF NEW.num_sold IS DISTINCT FROM OLD.num_sold OR NEW.fnum <> OLD.fnum THEN
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'F', 'U', NEW.fnum, OLD.num_sold, NEW.num_sold, change_feed_millis()));
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER flight_change AFTER INSERT OR UPDATE OR DELETE ON Flight
+	FOR EACH ROW EXECUTE PROCEDURE flight_change_trigger();
+
+CREATE FUNCTION flightinfo_change_trigger() RETURNS trigger AS $$
+BEGIN
+	IF NOT change_feed_enabled() THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP = 'INSERT' THEN
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'I', 'I', NEW.flight_id, NEW.plane_id, change_feed_millis()));
+	ELSIF TG_OP = 'DELETE' THEN
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'I', 'D', OLD.flight_id, OLD.plane_id, change_feed_millis()));
+	ELSIF NEW.plane_id IS DISTINCT FROM OLD.plane_id OR NEW.flight_id IS DISTINCT FROM OLD.flight_id THEN
+		IF NEW.flight_id IS DISTINCT FROM OLD.flight_id THEN
+			PERFORM pg_notify('dbproject_changes', concat_ws(':', 'I', 'D', OLD.flight_id, OLD.plane_id, change_feed_millis()));
+		END IF;
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'I', 'U', NEW.flight_id, NEW.plane_id, change_feed_millis()));
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER flightinfo_change AFTER INSERT OR UPDATE OR DELETE ON FlightInfo
+	FOR EACH ROW EXECUTE PROCEDURE flightinfo_change_trigger();
+
+CREATE FUNCTION plane_change_trigger() RETURNS trigger AS $$
+BEGIN
+	IF NOT change_feed_enabled() THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP = 'INSERT' THEN
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'P', 'I', NEW.id, '', NEW.seats, change_feed_millis()));
+	ELSIF TG_OP = 'DELETE' THEN
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'P', 'D', OLD.id, OLD.seats, '', change_feed_millis()));
+	ELSIF NEW.seats IS DISTINCT FROM OLD.seats THEN
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'P', 'U', NEW.id, OLD.seats, NEW.seats, change_feed_millis()));
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER plane_change AFTER INSERT OR UPDATE OR DELETE ON Plane
+	FOR EACH ROW EXECUTE PROCEDURE plane_change_trigger();
+
+CREATE FUNCTION reservation_change_trigger() RETURNS trigger AS $$
+BEGIN
+	IF NOT change_feed_enabled() THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP = 'INSERT' THEN
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'R', 'I', NEW.rnum, NEW.fid, '', coalesce(NEW.status, ''), change_feed_millis()));
+	ELSIF TG_OP = 'DELETE' THEN
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'R', 'D', OLD.rnum, OLD.fid, coalesce(OLD.status, ''), '', change_feed_millis()));
+	ELSIF NEW.status IS DISTINCT FROM OLD.status OR NEW.fid <> OLD.fid THEN
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'R', 'U', NEW.rnum, NEW.fid, coalesce(OLD.status, ''), coalesce(NEW.status, ''), change_feed_millis()));
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER reservation_change AFTER INSERT OR UPDATE OR DELETE ON Reservation
+	FOR EACH ROW EXECUTE PROCEDURE reservation_change_trigger();
+
+-- a renamed customer is reported under the old and the new name
+CREATE FUNCTION customer_change_trigger() RETURNS trigger AS $$
+BEGIN
+	IF NOT change_feed_enabled() THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP <> 'INSERT' THEN
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'C', left(TG_OP, 1), OLD.id, change_feed_millis(),
+			lower(btrim(OLD.fname)) || E'\t' || lower(btrim(OLD.lname))));
+	END IF;
+	IF TG_OP = 'INSERT' OR NEW.fname IS DISTINCT FROM OLD.fname OR NEW.lname IS DISTINCT FROM OLD.lname THEN
+		PERFORM pg_notify('dbproject_changes', concat_ws(':', 'C', left(TG_OP, 1), NEW.id, change_feed_millis(),
+			lower(btrim(NEW.fname)) || E'\t' || lower(btrim(NEW.lname))));
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER customer_change AFTER INSERT OR UPDATE OF fname, lname OR DELETE ON Customer
+	FOR EACH ROW EXECUTE PROCEDURE customer_change_trigger();
@@ -0,0 +1,294 @@
+-- Partitions the three tables that only grow: Repairs by year of
+-- repair_date, Schedule by month of departure_time, and Reservation by a
+-- hash of fid.  The lookups that name a flight (seat checks, the waitlist)
+-- read one of eight equal sized partitions.  A cancellation names only the
+-- rnum, so it probes the (rnum, fid) key index of all eight partitions;
+-- each probe is one index lookup.  Status counts still come from the
+-- ReservationStatusCount counter of V005, not from a pruned count.
+-- Repairs and Schedule queries on a date range only read the periods they
+-- cover, and old periods can be detached without a DELETE.
+-- Needs PostgreSQL 11 or later (hash and default partitions, keys, indexes
+-- and row triggers on partitioned tables).
+--
+-- A primary key of a partitioned table must contain the partition key, so
+-- the keys become (rnum, fid), (rid, repair_date) and (id, departure_time).
+-- The ids still come from their SERIAL sequences and stay unique.
+--
+-- Range partitions are named <table>_<first day>, e.g. repairs_20150101, and
+-- a default partition catches rows outside all of them.  PartitionPolicy
+-- says how the range tables are cut; maintain_partitions(), run by
+-- "Maintenance partitions", moves rows out of the default partitions,
+-- creates the next periods ahead of time and, when the policy has a
+-- retention, detaches the periods that ended before it into the archive
+-- schema.
+
+CREATE SCHEMA IF NOT EXISTS archive;
+
+CREATE TABLE PartitionPolicy
+(
+	table_name TEXT NOT NULL,	-- as in pg_class, lower case
+	key_column TEXT NOT NULL,
+	unit TEXT NOT NULL,		-- one partition per unit: year, month or day
+	premake INTEGER NOT NULL,	-- periods after the current one kept ready
+	retention INTERVAL,		-- periods that ended longer ago are archived, NULL keeps all
+	PRIMARY KEY (table_name)
+);
+
+INSERT INTO PartitionPolicy (table_name, key_column, unit, premake, retention) VALUES
+	('repairs', 'repair_date', 'year', 1, NULL),
+	('schedule', 'departure_time', 'month', 3, NULL);
+
+-- Creates the partition of the period starting at p_lower, unless it
+-- exists.  Returns its name, or NULL when it existed.  The default
+-- partition must not hold rows of the period.
+CREATE FUNCTION create_range_partition(p_table TEXT, p_lower DATE) RETURNS TEXT AS $$
+DECLARE
+	pol PartitionPolicy%ROWTYPE;
+	part TEXT;
+BEGIN
+	Select * INTO STRICT pol From PartitionPolicy Where table_name = p_table;
+	part := p_table || '_' || to_char(p_lower, 'YYYYMMDD');
+	IF to_regclass(part) IS NOT NULL THEN
+		RETURN NULL;
+	END IF;
+	EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+		part, p_table, p_lower, (p_lower + ('1 ' || pol.unit)::interval)::date);
+	RETURN part;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Detaches a range partition and moves it to the archive schema.  Its
+-- repairs leave RepairsPerPlane and RepairsPerYear, which count the rows
+-- of Repairs.
+CREATE FUNCTION archive_range_partition(p_table TEXT, p_part TEXT) RETURNS void AS $$
+DECLARE
+	p INTEGER[]; pn BIGINT[]; y INTEGER[]; yn BIGINT[];
+BEGIN
+	EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', p_table, p_part);
+	IF p_table = 'repairs' THEN
+		EXECUTE format('Select array_agg(plane_id), array_agg(-c) From (Select plane_id, COUNT(*) as c From %I Group by plane_id) A', p_part)
+			INTO p, pn;
+		EXECUTE format('Select array_agg(yr), array_agg(-c) From (Select extract(year from repair_date)::int as yr, COUNT(*) as c From %I Group by yr) A', p_part)
+			INTO y, yn;
+		IF p IS NOT NULL THEN
+			PERFORM repairs_apply_delta(p, pn, y, yn);
+		END IF;
+	END IF;
+	EXECUTE format('ALTER TABLE %I SET SCHEMA archive', p_part);
+END;
+$$ LANGUAGE plpgsql;
+
+-- The partition housekeeping of every table in PartitionPolicy, returning
+-- what it did.  Rows in a default partition (inserted before their period
+-- had a partition) are moved into partitions of their own: copied aside,
+-- the default truncated, and written straight into the new partitions, so
+-- the statement triggers of the parent table do not count them twice.
+CREATE FUNCTION maintain_partitions()
+	RETURNS TABLE (table_name TEXT, partition_name TEXT, action TEXT) AS $$
+#variable_conflict use_column
+DECLARE
+	pol PartitionPolicy%ROWTYPE;
+	dflt TEXT;
+	part TEXT;
+	first_day DATE;
+	spilled BIGINT;
+	moved BIGINT;
+BEGIN
+	FOR pol IN Select * From PartitionPolicy Order by table_name LOOP
+		dflt := pol.table_name || '_default';
+		-- holds off inserts that would land in the default partition
+		EXECUTE format('LOCK TABLE %I IN EXCLUSIVE MODE', dflt);
+
+		EXECUTE format('CREATE TEMP TABLE partition_spill AS Select * From %I', dflt);
+		EXECUTE 'Select COUNT(*) From partition_spill' INTO spilled;
+		IF spilled > 0 THEN
+			EXECUTE format('TRUNCATE %I', dflt);
+			EXECUTE format('CREATE INDEX ON partition_spill (%I)', pol.key_column);
+			FOR first_day IN EXECUTE format('Select DISTINCT date_trunc(%L, %I)::date From partition_spill Order by 1', pol.unit, pol.key_column) LOOP
+				part := pol.table_name || '_' || to_char(first_day, 'YYYYMMDD');
+				IF create_range_partition(pol.table_name, first_day) IS NOT NULL THEN
+					RETURN QUERY Select pol.table_name, part, 'created'::text;
+				END IF;
+				EXECUTE format('INSERT INTO %I Select * From partition_spill Where %I >= $1 and %I < $2',
+					part, pol.key_column, pol.key_column) USING first_day, (first_day + ('1 ' || pol.unit)::interval)::date;
+				GET DIAGNOSTICS moved = ROW_COUNT;
+				RETURN QUERY Select pol.table_name, part, 'moved ' || moved || ' rows from ' || dflt;
+			END LOOP;
+		END IF;
+		DROP TABLE partition_spill;
+
+		FOR i IN 0 .. pol.premake LOOP
+			part := create_range_partition(pol.table_name, (date_trunc(pol.unit, current_date) + (i || ' ' || pol.unit)::interval)::date);
+			IF part IS NOT NULL THEN
+				RETURN QUERY Select pol.table_name, part, 'created'::text;
+			END IF;
+		END LOOP;
+
+		IF pol.retention IS NOT NULL THEN
+			FOR part, first_day IN Select C.relname::text, to_date(right(C.relname, 8), 'YYYYMMDD')
+				From pg_inherits I join pg_class C on C.oid = I.inhrelid
+				Where I.inhparent = pol.table_name::regclass and C.relname <> dflt Order by 2 LOOP
+				EXIT WHEN first_day + ('1 ' || pol.unit)::interval > current_date - pol.retention;
+				PERFORM archive_range_partition(pol.table_name, part);
+				RETURN QUERY Select pol.table_name, part, 'archived'::text;
+			END LOOP;
+		END IF;
+	END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The tables are rebuilt as partitioned tables and the rows copied over
+-- before the triggers of V003, V005 and V008 are recreated, so the
+-- summaries, which already count these rows, stay as they are and the copy
+-- sends no change notifications.  The sequences move to the new tables.
+
+LOCK TABLE Reservation, Repairs, Schedule IN ACCESS EXCLUSIVE MODE;
+
+ALTER SEQUENCE reservation_rnum_seq OWNED BY NONE;
+ALTER TABLE Reservation RENAME TO Reservation_unpartitioned;
+ALTER INDEX reservation_pkey RENAME TO reservation_unpartitioned_pkey;
+DROP INDEX IF EXISTS reservation_fid_status_idx, reservation_waitlist_idx;
+
+CREATE TABLE Reservation
+(
+	rnum INTEGER NOT NULL DEFAULT nextval('reservation_rnum_seq'),
+	cid INTEGER NOT NULL,
+	fid INTEGER NOT NULL,
+	status _STATUS,
+	PRIMARY KEY (rnum, fid),
+	FOREIGN KEY (cid) REFERENCES Customer(id),
+	FOREIGN KEY (fid) REFERENCES Flight(fnum)
+) PARTITION BY HASH (fid);
+
+ALTER SEQUENCE reservation_rnum_seq OWNED BY Reservation.rnum;
+
+DO $$
+BEGIN
+	FOR i IN 0 .. 7 LOOP
+		EXECUTE format('CREATE TABLE reservation_%s PARTITION OF Reservation FOR VALUES WITH (MODULUS 8, REMAINDER %s)', i, i);
+	END LOOP;
+END;
+$$;
+
+INSERT INTO Reservation (rnum, cid, fid, status) Select rnum, cid, fid, status From Reservation_unpartitioned;
+DROP TABLE Reservation_unpartitioned;
+
+ALTER SEQUENCE repairs_rid_seq OWNED BY NONE;
+ALTER TABLE Repairs RENAME TO Repairs_unpartitioned;
+ALTER INDEX repairs_pkey RENAME TO repairs_unpartitioned_pkey;
+DROP INDEX IF EXISTS repairs_plane_idx, repairs_date_idx;
+
+CREATE TABLE Repairs
+(
+	rid INTEGER NOT NULL DEFAULT nextval('repairs_rid_seq'),
+	repair_date DATE NOT NULL,
+	repair_code _CODE,
+	pilot_id INTEGER NOT NULL,
+	plane_id INTEGER NOT NULL,
+	technician_id INTEGER NOT NULL,
+	PRIMARY KEY (rid, repair_date),
+	FOREIGN KEY (pilot_id) REFERENCES Pilot(id),
+	FOREIGN KEY (plane_id) REFERENCES Plane(id),
+	FOREIGN KEY (technician_id) REFERENCES Technician(id)
+) PARTITION BY RANGE (repair_date);
+
+ALTER SEQUENCE repairs_rid_seq OWNED BY Repairs.rid;
+CREATE TABLE repairs_default PARTITION OF Repairs DEFAULT;
+Select create_range_partition('repairs', d) From (Select DISTINCT date_trunc('year', repair_date)::date as d From Repairs_unpartitioned) A;
+
+INSERT INTO Repairs (rid, repair_date, repair_code, pilot_id, plane_id, technician_id)
+	Select rid, repair_date, repair_code, pilot_id, plane_id, technician_id From Repairs_unpartitioned;
+DROP TABLE Repairs_unpartitioned;
+
+ALTER SEQUENCE schedule_id_seq OWNED BY NONE;
+ALTER TABLE Schedule RENAME TO Schedule_unpartitioned;
+ALTER INDEX schedule_pkey RENAME TO schedule_unpartitioned_pkey;
+
+CREATE TABLE Schedule
+(
+	id INTEGER NOT NULL DEFAULT nextval('schedule_id_seq'),
+	flightNum INTEGER NOT NULL,
+	departure_time DATE NOT NULL,
+	arrival_time DATE NOT NULL,
+	PRIMARY KEY (id, departure_time),
+	FOREIGN KEY (flightNum) REFERENCES Flight(fnum)
+) PARTITION BY RANGE (departure_time);
+
+ALTER SEQUENCE schedule_id_seq OWNED BY Schedule.id;
+CREATE TABLE schedule_default PARTITION OF Schedule DEFAULT;
+Select create_range_partition('schedule', d) From (Select DISTINCT date_trunc('month', departure_time)::date as d From Schedule_unpartitioned) A;
+
+INSERT INTO Schedule (id, flightNum, departure_time, arrival_time)
+	Select id, flightNum, departure_time, arrival_time From Schedule_unpartitioned;
+DROP TABLE Schedule_unpartitioned;
+
+-- the indexes of V002 and V006, created on every partition
+CREATE INDEX reservation_fid_status_idx ON Reservation (fid, status);
+CREATE INDEX reservation_waitlist_idx ON Reservation (fid, rnum) Where status = 'W';
+CREATE INDEX repairs_plane_idx ON Repairs (plane_id);
+CREATE INDEX repairs_date_idx ON Repairs (repair_date) INCLUDE (plane_id);
+-- the schedule of one flight, for FLIGHT_WINDOW and ScheduleConflictIndex
+CREATE INDEX schedule_flight_idx ON Schedule (flightNum);
+
+-- the triggers of V003, V005 and V008; statement triggers on the parent see
+-- the rows of all partitions in their transition tables
+CREATE TRIGGER repairs_summary_insert AFTER INSERT ON Repairs
+	REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE repairs_summary_trigger();
+CREATE TRIGGER repairs_summary_update AFTER UPDATE ON Repairs
+	REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE repairs_summary_trigger();
+CREATE TRIGGER repairs_summary_delete AFTER DELETE ON Repairs
+	REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE repairs_summary_trigger();
+CREATE TRIGGER repairs_summary_truncate AFTER TRUNCATE ON Repairs
+	FOR EACH STATEMENT EXECUTE PROCEDURE repairs_summary_truncate();
+
+CREATE TRIGGER reservation_status_insert AFTER INSERT ON Reservation
+	REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE reservation_status_trigger();
+CREATE TRIGGER reservation_status_update AFTER UPDATE ON Reservation
+	REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE reservation_status_trigger();
+CREATE TRIGGER reservation_status_delete AFTER DELETE ON Reservation
+	REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE reservation_status_trigger();
+CREATE TRIGGER reservation_status_truncate AFTER TRUNCATE ON Reservation
+	FOR EACH STATEMENT EXECUTE PROCEDURE reservation_status_truncate();
+
+CREATE TRIGGER reservation_change AFTER INSERT OR UPDATE OR DELETE ON Reservation
+	FOR EACH ROW EXECUTE PROCEDURE reservation_change_trigger();
+
+-- promote_waitlist of V006, with the flight on the UPDATE too so it only
+-- touches the flight's partition
+CREATE OR REPLACE FUNCTION promote_waitlist(p_fid INTEGER, p_batch INTEGER)
+	RETURNS TABLE (rnum INTEGER, num_sold INTEGER) AS $$
+#variable_conflict use_column
+DECLARE
+	free INTEGER;
+	sold INTEGER;
+	ids INTEGER[];
+BEGIN
+	Select P.seats - F.num_sold INTO free From Flight F, FlightInfo I, Plane P
+		Where F.fnum = p_fid and I.flight_id = F.fnum and P.id = I.plane_id
+		FOR UPDATE OF F;
+	IF free IS NULL OR free <= 0 THEN
+		RETURN;
+	END IF;
+
+	WITH w AS (
+		Select R.rnum From Reservation R Where R.fid = p_fid and R.status = 'W'
+		Order by R.rnum Limit least(free, p_batch) FOR UPDATE
+	), promoted AS (
+		UPDATE Reservation R Set status = 'C' From w Where R.fid = p_fid and R.rnum = w.rnum RETURNING R.rnum
+	)
+	Select array_agg(promoted.rnum Order by promoted.rnum) INTO ids From promoted;
+	IF ids IS NULL THEN
+		RETURN;
+	END IF;
+
+	UPDATE Flight F Set num_sold = F.num_sold + cardinality(ids) Where F.fnum = p_fid RETURNING F.num_sold INTO sold;
+	RETURN QUERY Select u, sold From unnest(ids) AS u;
+END;
+$$ LANGUAGE plpgsql;
+
+-- the partitions for the coming periods
+Select COUNT(*) From maintain_partitions();
+
+ANALYZE Reservation;
+ANALYZE Repairs;
+ANALYZE Schedule;